@@ -0,0 +1,98 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+
+/**
+ * Benchmark of a {@code /basin/local-data} batch of sites, in shuffled or
+ * Morton sorted order, processed in the order of the batch or in the order of
+ * {@link BatchOrder}.
+ * 
+ * <p> Sites are drawn from the bounding boxes of the Los Angeles and Bay Area
+ * basins, with a quarter of them repeated, as from jobs with several sites per
+ * grid node.
+ * 
+ * <p> Run with {@code ./gradlew jmh -PjmhArgs=BatchOrder}.
+ * 
+ * @author Brandon Clayton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchOrderBenchmark {
+
+  private static final int SITES = 10000;
+
+  /* Bounding boxes: min lat, max lat, min lon, max lon */
+  private static final double[][] BOXES = {
+      { 33.4, 34.9, -119.9, -117.4 },
+      { 36.9, 38.6, -123.1, -121.3 } };
+
+  @Param({ "shuffled", "sorted" })
+  public String input;
+
+  private List<Location> sites;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    sites = new ArrayList<>(SITES);
+
+    while (sites.size() < SITES * 3 / 4) {
+      double[] box = BOXES[random.nextInt(BOXES.length)];
+      sites.add(Location.create(
+          box[0] + random.nextDouble() * (box[1] - box[0]),
+          box[2] + random.nextDouble() * (box[3] - box[2])));
+    }
+
+    while (sites.size() < SITES) {
+      sites.add(sites.get(random.nextInt(SITES * 3 / 4)));
+    }
+
+    Collections.shuffle(sites, random);
+
+    if (input.equals("sorted")) {
+      sites.sort(Comparator.comparingLong(site -> BatchOrder.mortonCode(
+          BasinGrid.gridUnits(site.lat()),
+          BasinGrid.gridUnits(site.lon()))));
+    }
+  }
+
+  @Benchmark
+  public List<Result> inputOrder() {
+    List<Result> results = new ArrayList<>(sites.size());
+    for (Location site : sites) {
+      results.add(BasinTermService.processBasinTermWithLocalData(site.lat(), site.lon()));
+    }
+    return results;
+  }
+
+  @Benchmark
+  public List<Result> batchOrder() {
+    return BatchOrder.process(sites, true, BasinTermService::processBasinTermWithLocalData);
+  }
+
+}
@@ -0,0 +1,56 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the {@code /basin/local-data} request path, from query values
+ * to JSON in the per-thread response buffer.
+ * 
+ * <p> Run with {@code ./gradlew jmh}; the {@code -prof gc} profiler reports
+ * {@code gc.alloc.rate.norm}, the bytes allocated per request, which should be
+ * zero at steady state.
+ * 
+ * @author Brandon Clayton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalDataBenchmark {
+
+  private static final String URL = "http://localhost:8080/nshmp-site-ws/basin/local-data";
+
+  /* LA Basin, Puget Lowland, outside basin */
+  @Param({ "34.05 -118.25", "47.6 -122.3", "40.83 -115.76" })
+  public String site;
+
+  private String latitude;
+  private String longitude;
+
+  @Setup
+  public void setup() {
+    String[] values = site.split(" ");
+    latitude = values[0];
+    longitude = values[1];
+  }
+
+  @Benchmark
+  public int localData() {
+    return BasinTermService.writeBasinTermWithLocalData(latitude, longitude, null, URL).length();
+  }
+
+}
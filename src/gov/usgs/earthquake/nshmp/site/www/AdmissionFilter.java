@@ -0,0 +1,384 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static gov.usgs.earthquake.nshmp.www.meta.Metadata.errorMessage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Admission control of the basin term service.
+ *
+ * <p> The number of requests in flight of each route is limited by an
+ * {@link AimdLimiter}, an additive increase, multiplicative decrease limit
+ * that is lowered when the latency of the route rises well above its
+ * baseline, so requests of a route with a slow upstream, /basin/arc-data, are
+ * shed instead of holding every request thread while /basin/local-data,
+ * /basin/geojson, and /site stay responsive; /site shares the limits of
+ * /basin/local-data. Single and batch (POST) requests of a route
+ * are limited separately. Requests of each client may additionally be rate
+ * limited with a {@link TokenBucket}.
+ *
+ * <p> Rejected requests get an immediate 503 with a {@code Retry-After}
+ * header.
+ *
+ * <p> The services return errors as JSON with status 200, so a request counts
+ * as failed when it throws, when its status is 5xx, or when the service calls
+ * {@link #reportFailure(ServletRequest)}, as the basin term service does for
+ * errors of the ArcGIS service.
+ *
+ * <p> Configured in config.properties:
+ *
+ * <ul><li>{@code admission_control}: {@code false} to disable, default
+ * {@code true}</li>
+ *
+ * <li>{@code arc_data_max_in_flight}: maximum limit of the ArcGIS routes,
+ * default 64</li>
+ *
+ * <li>{@code local_data_max_in_flight}: maximum limit of all other routes,
+ * default 256</li>
+ *
+ * <li>{@code client_rate}: requests per second of each client, default 0 to
+ * disable</li>
+ *
+ * <li>{@code client_burst}: requests a client may send at once, default
+ * {@code client_rate}</li>
+ *
+ * <li>{@code client_id_header}: header that identifies a client, e.g.
+ * {@code X-Forwarded-For} behind a proxy, default the remote address</li></ul>
+ *
+ * @author Brandon Clayton
+ */
+@WebFilter(
+    filterName = "Admission Filter",
+    urlPatterns = {
+        "/basin",
+        "/basin/*",
+        "/site" })
+public class AdmissionFilter implements Filter {
+
+  /* Seconds a client should wait after a rejected request */
+  private static final int RETRY_AFTER = 1;
+
+  private static final Exception OVER_LIMIT =
+      new IllegalStateException("Service busy, retry later");
+
+  private static final Exception OVER_RATE =
+      new IllegalStateException("Request rate limit exceeded, retry later");
+
+  /* Request attribute of a failed request, see reportFailure() */
+  private static final String FAILED = AdmissionFilter.class.getName() + ".failed";
+
+  private final AimdLimiter[] limiters = new AimdLimiter[Route.values().length];
+
+  private Cache<String, TokenBucket> clients;
+
+  @Override
+  public void init(FilterConfig filterConfig) {
+    for (Route route : Route.values()) {
+      limiters[route.ordinal()] = new AimdLimiter(route.arcGis
+          ? BasinUtil.ARC_DATA_MAX_IN_FLIGHT
+          : BasinUtil.LOCAL_DATA_MAX_IN_FLIGHT);
+    }
+
+    if (BasinUtil.CLIENT_RATE > 0) {
+      clients = CacheBuilder.newBuilder()
+          .expireAfterAccess(10, TimeUnit.MINUTES)
+          .maximumSize(100000)
+          .build();
+    }
+  }
+
+  @Override
+  public void doFilter(
+      ServletRequest servletRequest,
+      ServletResponse servletResponse,
+      FilterChain chain)
+      throws IOException, ServletException {
+
+    if (!BasinUtil.ADMISSION_CONTROL) {
+      chain.doFilter(servletRequest, servletResponse);
+      return;
+    }
+
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+    if (clients != null) {
+      long wait = clientBucket(request).tryAcquire(System.nanoTime());
+
+      if (wait > 0) {
+        reject(request, response, OVER_RATE, retryAfter(wait));
+        return;
+      }
+    }
+
+    AimdLimiter limiter = limiter(request);
+
+    if (!limiter.tryAcquire()) {
+      reject(request, response, OVER_LIMIT, RETRY_AFTER);
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean dropped = true;
+
+    try {
+      chain.doFilter(request, response);
+      dropped = request.getAttribute(FAILED) != null ||
+          response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    } finally {
+      limiter.release(System.nanoTime() - start, dropped);
+    }
+  }
+
+  @Override
+  public void destroy() {}
+
+  /**
+   * Report that a request failed, lowering the limit of its route.
+   *
+   * @param request The failed request
+   */
+  static void reportFailure(ServletRequest request) {
+    request.setAttribute(FAILED, Boolean.TRUE);
+  }
+
+  /* The limiter of the route of a request */
+  AimdLimiter limiter(HttpServletRequest request) {
+    return limiters[Route.of(request).ordinal()];
+  }
+
+  private TokenBucket clientBucket(HttpServletRequest request) {
+    String client = null;
+
+    if (BasinUtil.CLIENT_ID_HEADER != null) {
+      String header = request.getHeader(BasinUtil.CLIENT_ID_HEADER);
+      if (header != null) {
+        int comma = header.indexOf(',');
+        client = (comma < 0 ? header : header.substring(0, comma)).trim();
+      }
+    }
+
+    if (client == null || client.isEmpty()) {
+      client = request.getRemoteAddr();
+    }
+
+    TokenBucket bucket = clients.getIfPresent(client);
+
+    if (bucket == null) {
+      double burst = BasinUtil.CLIENT_BURST > 0 ? BasinUtil.CLIENT_BURST : BasinUtil.CLIENT_RATE;
+      bucket = new TokenBucket(BasinUtil.CLIENT_RATE, burst, System.nanoTime());
+      TokenBucket existing = clients.asMap().putIfAbsent(client, bucket);
+      bucket = existing == null ? bucket : existing;
+    }
+
+    return bucket;
+  }
+
+  private static int retryAfter(long waitNanos) {
+    return (int) Math.max(RETRY_AFTER, Math.ceil(waitNanos / 1e9));
+  }
+
+  private static void reject(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      Exception reason,
+      int retryAfter) throws IOException {
+    String query = request.getQueryString();
+    String url = request.getRequestURL() + (query == null ? "" : "?" + query);
+
+    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    response.setHeader("Retry-After", Integer.toString(retryAfter));
+    response.getWriter().print(errorMessage(url, reason, false));
+  }
+
+  /* Routes with separate limits */
+  private enum Route {
+    ARC_DATA(true),
+    ARC_DATA_BATCH(true),
+    LOCAL_DATA(false),
+    LOCAL_DATA_BATCH(false),
+    OTHER(false);
+
+    final boolean arcGis;
+
+    private Route(boolean arcGis) {
+      this.arcGis = arcGis;
+    }
+
+    static Route of(HttpServletRequest request) {
+      String pathInfo = request.getPathInfo();
+      boolean batch = "POST".equals(request.getMethod());
+
+      if ("/site".equals(request.getServletPath())) {
+        return batch ? LOCAL_DATA_BATCH : LOCAL_DATA;
+      } else if (pathInfo == null) {
+        return OTHER;
+      } else if (pathInfo.startsWith("/arc-data")) {
+        return batch ? ARC_DATA_BATCH : ARC_DATA;
+      } else if (pathInfo.startsWith("/local-data")) {
+        return batch ? LOCAL_DATA_BATCH : LOCAL_DATA;
+      }
+
+      return OTHER;
+    }
+  }
+
+  /**
+   * Adaptive limit of the requests in flight of a route.
+   *
+   * <p> The baseline latency of the route is a slow moving average of the
+   * observed latencies, so a sudden rise in latency is detected. A request
+   * slower than {@link #TOLERANCE} times the baseline, plus
+   * {@link #SLACK_NANOS}, or a failed request, lowers the limit by
+   * {@link #BACKOFF}, at most once per observed latency. Otherwise, while the
+   * limit is in use, the limit grows by about one per observed latency.
+   *
+   * <p> Slow requests are not added to the baseline, so a slowdown is not
+   * folded into the baseline within a few hundred requests, after which the
+   * limit would grow back to the maximum while the route is still slow. Only
+   * once every request has been slow for {@link #BASELINE_HOLD_NANOS} is a
+   * lasting change taken into the baseline.
+   */
+  static final class AimdLimiter {
+
+    static final double TOLERANCE = 2.0;
+    static final long SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    static final double BACKOFF = 0.9;
+    static final long BASELINE_HOLD_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /* Weight of a latency in the moving average baseline */
+    private static final double DRIFT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long baselineHold;
+
+    private double limit;
+    private int inFlight;
+    private double baseline = Double.NaN;
+    private long lastDecrease;
+    private long lastFast;
+
+    AimdLimiter(int maxLimit) {
+      this(maxLimit, BASELINE_HOLD_NANOS);
+    }
+
+    AimdLimiter(int maxLimit, long baselineHold) {
+      checkArgument(maxLimit > 0, "Maximum limit must be positive");
+      this.maxLimit = maxLimit;
+      this.minLimit = Math.max(1, maxLimit / 16);
+      this.baselineHold = baselineHold;
+      this.limit = maxLimit;
+      this.lastDecrease = System.nanoTime();
+      this.lastFast = lastDecrease;
+    }
+
+    /** Returns whether a request may start; if so, call {@link #release}. */
+    synchronized boolean tryAcquire() {
+      if (inFlight >= (int) limit) return false;
+      inFlight++;
+      return true;
+    }
+
+    /**
+     * Complete a request.
+     *
+     * @param nanos The latency of the request
+     * @param dropped Whether the request failed
+     */
+    synchronized void release(long nanos, boolean dropped) {
+      inFlight--;
+
+      boolean slow = nanos > TOLERANCE * baseline + SLACK_NANOS;
+      long now = System.nanoTime();
+
+      if (!slow) {
+        lastFast = now;
+      }
+
+      if (!slow || now - lastFast > baselineHold) {
+        baseline = Double.isNaN(baseline) ? nanos : baseline + (nanos - baseline) * DRIFT;
+      }
+
+      if (dropped || slow) {
+        if (now - lastDecrease > nanos) {
+          limit = Math.max(minLimit, limit * BACKOFF);
+          lastDecrease = now;
+        }
+      } else if (2 * inFlight >= (int) limit) {
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+      }
+    }
+
+    synchronized int limit() {
+      return (int) limit;
+    }
+
+    synchronized int inFlight() {
+      return inFlight;
+    }
+
+    synchronized double baseline() {
+      return baseline;
+    }
+  }
+
+  /** Token bucket rate limit of a single client. */
+  static final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long last;
+
+    /**
+     * Create a new full bucket.
+     *
+     * @param rate The tokens added per second
+     * @param burst The capacity of the bucket
+     * @param now The current time in ns
+     */
+    TokenBucket(double rate, double burst, long now) {
+      checkArgument(rate > 0 && burst >= 1, "Rate must be positive and burst at least 1");
+      this.tokensPerNano = rate / 1e9;
+      this.burst = burst;
+      this.tokens = burst;
+      this.last = now;
+    }
+
+    /**
+     * Take a token, returning 0 on success or the time in ns until a token
+     * is available.
+     *
+     * @param now The current time in ns
+     */
+    synchronized long tryAcquire(long now) {
+      tokens = Math.min(burst, tokens + (now - last) * tokensPerNano);
+      last = now;
+
+      if (tokens >= 1) {
+        tokens -= 1;
+        return 0;
+      }
+
+      return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+  }
+
+}
@@ -1,15 +1,29 @@
 package gov.usgs.earthquake.nshmp.site.www;
 
-import static gov.usgs.earthquake.nshmp.site.www.BasinUtil.GSON;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+import gov.usgs.earthquake.nshmp.site.www.basin.DerivedLayer;
 import gov.usgs.earthquake.nshmp.util.Maths;
 
 /**
@@ -18,6 +32,18 @@ import gov.usgs.earthquake.nshmp.util.Maths;
  * <p> ArcGis point geometry wrapper service call:
  * {@link ArcGis#callPointService(Location)}
  * 
+ * <p> Results of sites in a basin, see
+ * {@link ArcGis#callPointService(double, double, BasinRegion)}, are cached by
+ * grid node, in km, with the {@link DerivedLayer} of the basin applied. The
+ * number of cached results is limited by {@code arcgis_cache_size} in
+ * config.properties. The cache may be backed by a cache shared between
+ * replicas, see {@link SharedCache}.
+ * 
+ * <p> The neighbours of cache misses are prefetched in the background, within
+ * {@code arcgis_prefetch_radius} grid nodes, default 1, and at most
+ * {@code arcgis_prefetch_rate} nodes per second, default 20; a radius of 0
+ * disables prefetch.
+ * 
  * <p> Note: Latitude and longitude are rounded to the nearest {@code 0.01}
  * 
  * @author Brandon Clayton
@@ -29,14 +55,196 @@ class ArcGis {
 
   static final double ROUND_MODEL = 0.01;
 
+  private static final ArcGisCache CACHE = new ArcGisCache(
+      BasinUtil.ARCGIS_CACHE_SIZE,
+      SharedCache.fromConfig());
+
+  /* Calls to the ArcGIS service in flight */
+  private static final Semaphore UPSTREAM = new Semaphore(BasinUtil.ARCGIS_MAX_IN_FLIGHT);
+
+  private static final ArcGisPrefetcher PREFETCHER = BasinUtil.ARCGIS_PREFETCH_RADIUS > 0
+      ? new ArcGisPrefetcher(
+          BasinUtil.ARCGIS_PREFETCH_RADIUS,
+          BasinUtil.ARCGIS_PREFETCH_RATE,
+          new ArcGisPrefetcher.Fetch() {
+            @Override
+            public boolean isCached(long latUnits, long lonUnits) {
+              return ArcGis.isCached(latUnits, lonUnits);
+            }
+
+            @Override
+            public boolean prefetch(long latUnits, long lonUnits, BasinRegion basinRegion) {
+              return ArcGis.prefetch(latUnits, lonUnits, basinRegion);
+            }
+          }).start()
+      : null;
+
+  /* ArcGIS values are in m */
+  private static final double M_PER_KM = 1000.0;
+
+  /**
+   * Return the cached {@code ArcGisResult} of a site in a basin, calling the
+   * ArcGis online web service on a cache miss. The values of the result are
+   * converted to km and the derived layer of the basin is applied to all basin
+   * models of the result before it is cached. The neighbours of a missed grid
+   * node are queued for prefetch, see {@link ArcGisPrefetcher}.
+   * 
+   * <p> The returned result is shared and must not be modified.
+   * 
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param basinRegion The basin region of the site
+   */
+  static ArcGisResult callPointService(
+      double latitude,
+      double longitude,
+      BasinRegion basinRegion) {
+    long latUnits = BasinGrid.gridUnits(latitude);
+    long lonUnits = BasinGrid.gridUnits(longitude);
+
+    ArcGisResult result = CACHE.getIfPresent(latUnits, lonUnits);
+    if (result != null) return result;
+
+    if (PREFETCHER != null) {
+      PREFETCHER.miss(latUnits, lonUnits, basinRegion);
+    }
+
+    return load(latUnits, lonUnits, basinRegion, true);
+  }
+
+  /**
+   * Return the cached {@code ArcGisResult} of a site in a basin for another
+   * replica, see {@link PeerSharedCache}, calling the ArcGis online web service
+   * on a cache miss without reading the shared cache.
+   * 
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param basinRegion The basin region of the site
+   */
+  static ArcGisResult callPointServiceForPeer(
+      double latitude,
+      double longitude,
+      BasinRegion basinRegion) {
+    return load(
+        BasinGrid.gridUnits(latitude),
+        BasinGrid.gridUnits(longitude),
+        basinRegion,
+        false);
+  }
+
+  /**
+   * Return the cached {@code ArcGisResult} of a grid node of a batch request,
+   * calling the ArcGis online web service on a cache miss. The neighbours of a
+   * missed grid node are not prefetched; the grid nodes of a batch are fetched
+   * together, see {@link ArcGisFanOut}.
+   * 
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   * @param basinRegion The basin region of the grid node
+   */
+  static ArcGisResult callPointServiceForBatch(
+      long latUnits,
+      long lonUnits,
+      BasinRegion basinRegion) {
+    ArcGisResult result = CACHE.getIfPresent(latUnits, lonUnits);
+    return result != null ? result : load(latUnits, lonUnits, basinRegion, true);
+  }
+
   /**
    * Return {@code ArcGisResult} from the ArcGis online web service for a point
-   * geometry.
+   * geometry, with values in m.
+   * 
+   * <p> At most {@code arcgis_max_in_flight} calls to the ArcGis online web
+   * service are made at once; further calls wait. The wait is not
+   * interruptible: a call is usually the shared load of a cached grid node,
+   * see {@link ArcGisCache}, and must not fail the other callers waiting on
+   * the load.
    * 
    * @param latitude in degrees
    * @param longitude in degrees
    */
   static ArcGisResult callPointService(double latitude, double longitude) {
+    UPSTREAM.acquireUninterruptibly();
+    try {
+      return fetch(latitude, longitude);
+    } finally {
+      UPSTREAM.release();
+    }
+  }
+
+  /**
+   * Fetch and cache the result of a grid node, if not already cached, only if
+   * the ArcGis online web service has spare capacity: more than half of the
+   * {@code arcgis_max_in_flight} calls are available. Returns whether the
+   * result is cached.
+   * 
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   * @param basinRegion The basin region of the grid node
+   */
+  static boolean prefetch(long latUnits, long lonUnits, BasinRegion basinRegion) {
+    if (isCached(latUnits, lonUnits)) return true;
+
+    if (!tryAcquireSpare(UPSTREAM, BasinUtil.ARCGIS_MAX_IN_FLIGHT)) return false;
+
+    try {
+      CACHE.get(latUnits, lonUnits, () -> toCachedResult(
+          fetch(BasinResponseWriter.toDegrees(latUnits), BasinResponseWriter.toDegrees(lonUnits)),
+          DerivedLayer.forBasin(basinRegion.basin)), true);
+      return true;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      return false;
+    } finally {
+      UPSTREAM.release();
+    }
+  }
+
+  /**
+   * Stop the prefetch of grid nodes, if any. Called when the service is
+   * undeployed, see {@link WarmUpListener}.
+   */
+  static void stopPrefetch() {
+    if (PREFETCHER != null) {
+      PREFETCHER.stop();
+    }
+  }
+
+  /*
+   * Take a permit of the calls to the ArcGIS service in flight only if more
+   * than half of the permits are available.
+   */
+  static boolean tryAcquireSpare(Semaphore upstream, int maxInFlight) {
+    return upstream.availablePermits() > maxInFlight / 2 && upstream.tryAcquire();
+  }
+
+  /**
+   * Returns whether the result of a grid node is cached.
+   * 
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  static boolean isCached(long latUnits, long lonUnits) {
+    return CACHE.getIfPresent(latUnits, lonUnits) != null;
+  }
+
+  private static ArcGisResult load(
+      long latUnits,
+      long lonUnits,
+      BasinRegion basinRegion,
+      boolean shared) {
+    try {
+      return CACHE.get(latUnits, lonUnits, () -> toCachedResult(
+          callPointService(
+              BasinResponseWriter.toDegrees(latUnits),
+              BasinResponseWriter.toDegrees(lonUnits)),
+          DerivedLayer.forBasin(basinRegion.basin)), shared);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static ArcGisResult fetch(double latitude, double longitude) {
     latitude = Maths.round(latitude, ROUND_MODEL);
     longitude = Maths.round(longitude, ROUND_MODEL);
 
@@ -45,49 +253,168 @@ class ArcGis {
         "&geometry=" + longitude + "," + latitude +
         "&tolerance=1&mapExtent=1&imageDisplay=1&f=json";
 
-    try {
-      URL url = new URL(urlStr);
-      BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
-      final ArcGisReturn svcReturn = GSON.fromJson(reader, ArcGisReturn.class);
-      reader.close();
-
-      ArcGisResult result = svcReturn.results.get(0);
-      result.arcUrl = urlStr;
+    ArcGisResult result;
 
-      return result;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new URL(urlStr).openStream(), UTF_8))) {
+      result = ArcGisParser.parse(reader);
     } catch (IOException ioe) {
       throw new RuntimeException("Could not reach: " + urlStr);
-    } catch (IndexOutOfBoundsException e) {
+    }
+
+    if (result == null) {
       throw new RuntimeException("Empty results array returned from: " + urlStr);
     }
+
+    result.arcUrl = urlStr;
+    return result;
+  }
+
+  /*
+   * Convert the values of a result to km and apply the derived layer to each
+   * basin model of the result.
+   */
+  private static ArcGisResult toCachedResult(ArcGisResult result, DerivedLayer derivedLayer) {
+    double[] values = result.values;
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] /= M_PER_KM;
+    }
+
+    if (derivedLayer == DerivedLayer.IDENTITY) return result;
+
+    for (int i = 0; i < values.length; i += 2) {
+      double z1p0 = values[i];
+      double z2p5 = values[i + 1];
+
+      values[i] = derivedLayer.z1p0(z1p0, z2p5);
+      values[i + 1] = derivedLayer.z2p5(z1p0, z2p5);
+    }
+
+    return result;
+  }
+
+  private static Double toValue(double value) {
+    return Double.isNaN(value) ? null : value;
   }
 
   /**
    * Container class for a single result from the ArcGis web service.
+   * 
+   * <p> The z1p0 and z2p5 values of each basin model are held in an array
+   * indexed by the ordinal of the basin model, {@code NaN} where there is no
+   * value.
    */
   static class ArcGisResult {
     public String arcUrl;
     public final double latitude;
     public final double longitude;
-    public final Map<String, Double> basinModels;
 
-    ArcGisResult(
-        Map<String, Double> basinModels,
-        double latitude,
-        double longitude) {
-      this.basinModels = basinModels;
+    private static final String BASIN_MODELS = "basinModels";
+
+    /* Index of the value of each z1p0 and z2p5 attribute name */
+    private static final Map<String, Integer> SLOTS = new HashMap<>();
+
+    static {
+      for (BasinModel basinModel : BasinModel.values()) {
+        SLOTS.put(basinModel.z1p0, 2 * basinModel.ordinal());
+        SLOTS.put(basinModel.z2p5, 2 * basinModel.ordinal() + 1);
+      }
+    }
+
+    private final double[] values;
+
+    /**
+     * Create a new result.
+     * 
+     * @param values The values of each basin model, see {@link #slot(String)}
+     * @param latitude in degrees
+     * @param longitude in degrees
+     */
+    ArcGisResult(double[] values, double latitude, double longitude) {
+      checkArgument(values.length == SLOTS.size(), "Expected %s values", SLOTS.size());
+      this.values = values;
       this.latitude = latitude;
       this.longitude = longitude;
     }
 
+    /** Returns an array of values of all basin models, all {@code NaN}. */
+    static double[] emptyValues() {
+      double[] values = new double[SLOTS.size()];
+      Arrays.fill(values, Double.NaN);
+      return values;
+    }
+
+    /**
+     * Returns the index of the value of a z1p0 or z2p5 attribute, e.g.
+     * {@code z1p0Seattle}, or {@code -1} if it is not of a basin model.
+     * 
+     * @param name The attribute name
+     */
+    static int slot(String name) {
+      Integer slot = SLOTS.get(name);
+      return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the z1p0 value of a basin model, or {@code null}.
+     * 
+     * @param basinModel The basin model
+     */
+    Double z1p0(BasinModel basinModel) {
+      return toValue(values[2 * basinModel.ordinal()]);
+    }
+
+    /**
+     * Returns the z2p5 value of a basin model, or {@code null}.
+     * 
+     * @param basinModel The basin model
+     */
+    Double z2p5(BasinModel basinModel) {
+      return toValue(values[2 * basinModel.ordinal() + 1]);
+    }
+
     String json() {
-      return BasinUtil.GSON.toJson(this, ArcGisResult.class);
+      JsonObject basinModels = new JsonObject();
+
+      for (BasinModel basinModel : BasinModel.values()) {
+        basinModels.addProperty(basinModel.z1p0, z1p0(basinModel));
+        basinModels.addProperty(basinModel.z2p5, z2p5(basinModel));
+      }
+
+      JsonObject json = new JsonObject();
+      json.addProperty("arcUrl", arcUrl);
+      json.addProperty("latitude", latitude);
+      json.addProperty("longitude", longitude);
+      json.add(BASIN_MODELS, basinModels);
+
+      return BasinUtil.GSON.toJson(json);
     }
-  }
 
-  /* Container class to hold the JSON results from the ArcGis web service. */
-  static class ArcGisReturn {
-    List<ArcGisResult> results;
+    /* Read a result written with json() */
+    static ArcGisResult fromJson(String json) {
+      JsonObject jsonObject = new JsonParser().parse(json).getAsJsonObject();
+      double[] values = emptyValues();
+
+      for (Map.Entry<String, JsonElement> entry : jsonObject.getAsJsonObject(BASIN_MODELS)
+          .entrySet()) {
+        int slot = slot(entry.getKey());
+        JsonElement value = entry.getValue();
+        if (slot >= 0 && !value.isJsonNull()) {
+          values[slot] = value.getAsDouble();
+        }
+      }
+
+      ArcGisResult result = new ArcGisResult(
+          values,
+          jsonObject.get("latitude").getAsDouble(),
+          jsonObject.get("longitude").getAsDouble());
+
+      JsonElement arcUrl = jsonObject.get("arcUrl");
+      result.arcUrl = arcUrl == null || arcUrl.isJsonNull() ? null : arcUrl.getAsString();
+
+      return result;
+    }
   }
 
 }
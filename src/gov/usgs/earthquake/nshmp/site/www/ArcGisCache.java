@@ -0,0 +1,84 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+
+/**
+ * Cache of ArcGIS results by grid node: an in-memory cache of a fixed number
+ * of results backed by an optional {@link SharedCache}.
+ *
+ * <p> Concurrent misses of a grid node share a single load.
+ *
+ * @author Brandon Clayton
+ */
+class ArcGisCache {
+
+  private final Cache<Long, ArcGisResult> cache;
+  private final SharedCache sharedCache;
+
+  /**
+   * Create a new cache.
+   *
+   * @param size The maximum number of results held in memory
+   * @param sharedCache The shared cache, may be {@code null}
+   */
+  ArcGisCache(long size, SharedCache sharedCache) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(size)
+        .build();
+    this.sharedCache = sharedCache;
+  }
+
+  /**
+   * Return the result of a grid node. On a miss, the result is read from the
+   * shared cache, if {@code shared}, or else loaded with {@code upstream} and
+   * stored in the shared cache.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   * @param upstream The load of the result from the ArcGIS service
+   * @param shared Whether to read the shared cache; {@code false} for lookups
+   *        made by other replicas
+   */
+  ArcGisResult get(
+      long latUnits,
+      long lonUnits,
+      Callable<ArcGisResult> upstream,
+      boolean shared) throws ExecutionException {
+    return cache.get(key(latUnits, lonUnits), () -> {
+      if (sharedCache != null && shared) {
+        ArcGisResult result = sharedCache.get(latUnits, lonUnits);
+        if (result != null) return result;
+      }
+
+      ArcGisResult result = upstream.call();
+
+      if (sharedCache != null) {
+        sharedCache.put(latUnits, lonUnits, result);
+      }
+
+      return result;
+    });
+  }
+
+  /**
+   * Returns the cached result of a grid node, or {@code null}.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  ArcGisResult getIfPresent(long latUnits, long lonUnits) {
+    return cache.getIfPresent(key(latUnits, lonUnits));
+  }
+
+  /* Cache key of a grid node */
+  static long key(long latUnits, long lonUnits) {
+    return (latUnits << 32) | (lonUnits & 0xffffffffL);
+  }
+
+}
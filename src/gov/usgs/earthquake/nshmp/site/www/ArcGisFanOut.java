@@ -0,0 +1,242 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.google.common.base.Throwables;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+import gov.usgs.earthquake.nshmp.util.Maths;
+
+/**
+ * Concurrent fetch of the ArcGIS results of the grid nodes of a batch
+ * request.
+ *
+ * <p> The uncached nodes of a batch are fetched concurrently, rather than one
+ * at a time as the sites of the batch are processed, so the sites are then
+ * processed from the cache. Fetches run on virtual threads where the runtime
+ * has them, and otherwise on a shared pool of {@code arcgis_max_in_flight}
+ * daemon threads. At most {@code arcgis_max_in_flight} fetches of a batch are
+ * in flight at once, and all fetches share the limit of calls to the ArcGIS
+ * service in flight, see {@link ArcGis#callPointService(double, double)}, so
+ * the wall time of a batch of {@code n} uncached nodes is about {@code n}
+ * round trips divided by the limit.
+ *
+ * <p> The fetches of a batch end together: if a fetch fails, the deadline of
+ * the batch passes, or the request thread is interrupted, the batch fails and
+ * its fetches that have not started are cancelled. Fetches that have started
+ * complete and are cached: a fetch may be the shared load of a grid node that
+ * other requests are waiting on, see {@link ArcGisCache}, so it is never
+ * interrupted. At most {@code arcgis_max_in_flight} fetches of a failed batch
+ * complete after it fails. The deadline of a batch is
+ * {@code arcgis_batch_timeout} seconds, default 120, after the request
+ * started; set {@code arcgis_fan_out=false} in config.properties to process
+ * the sites of a batch one at a time.
+ *
+ * @author Brandon Clayton
+ */
+class ArcGisFanOut {
+
+  /** Whether fetches run on virtual threads. */
+  static final boolean VIRTUAL_THREADS;
+
+  private static final ExecutorService EXECUTOR;
+
+  static {
+    ExecutorService virtual = virtualThreadExecutor();
+    VIRTUAL_THREADS = virtual != null;
+    EXECUTOR = VIRTUAL_THREADS
+        ? virtual
+        : Executors.newFixedThreadPool(BasinUtil.ARCGIS_MAX_IN_FLIGHT, runnable -> {
+          Thread thread = new Thread(runnable, "arcgis-fan-out");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private ArcGisFanOut() {}
+
+  /**
+   * Returns the distinct grid nodes of sites in a basin region whose results
+   * are not cached. Sites are rounded to the grid as for the ArcGIS route.
+   *
+   * @param sites The sites
+   * @param basins The basin regions
+   * @param cached Whether the result of a grid node is cached
+   */
+  static List<Node> uncachedNodes(List<Location> sites, Basins basins, Predicate<Node> cached) {
+    Set<Long> keys = new HashSet<>();
+    List<Node> nodes = new ArrayList<>();
+
+    for (Location site : sites) {
+      long latUnits = BasinGrid.gridUnits(Maths.round(site.lat(), ArcGis.ROUND_MODEL));
+      long lonUnits = BasinGrid.gridUnits(Maths.round(site.lon(), ArcGis.ROUND_MODEL));
+      if (!keys.add(ArcGisCache.key(latUnits, lonUnits))) continue;
+
+      BasinRegion basinRegion = basins.findRegion(latUnits, lonUnits);
+      if (basinRegion == null) continue;
+
+      Node node = new Node(latUnits, lonUnits, basinRegion);
+      if (!cached.test(node)) {
+        nodes.add(node);
+      }
+    }
+
+    return nodes;
+  }
+
+  /**
+   * Fetch and cache the results of grid nodes from the ArcGIS service,
+   * returning once all are cached.
+   *
+   * @param nodes The grid nodes
+   * @param deadlineNanos The {@code System.nanoTime()} by which all results
+   *        must be cached
+   * @throws IllegalStateException if the deadline passes or the thread is
+   *         interrupted
+   */
+  static void fetch(List<Node> nodes, long deadlineNanos) {
+    fetch(nodes, deadlineNanos, BasinUtil.ARCGIS_MAX_IN_FLIGHT, node -> ArcGis
+        .callPointServiceForBatch(node.latUnits, node.lonUnits, node.basinRegion));
+  }
+
+  /**
+   * Load the results of grid nodes, returning once all are loaded.
+   *
+   * <p> Loads that have started are never interrupted, since a load may be
+   * shared with other callers of the cache; a cancelled batch only stops
+   * loads that have not started.
+   *
+   * @param nodes The grid nodes
+   * @param deadlineNanos The {@code System.nanoTime()} by which all results
+   *        must be loaded
+   * @param maxInFlight The maximum number of loads of the batch at once
+   * @param load The load of the result of a grid node
+   * @throws IllegalStateException if the deadline passes or the thread is
+   *         interrupted
+   */
+  static void fetch(
+      List<Node> nodes,
+      long deadlineNanos,
+      int maxInFlight,
+      Consumer<Node> load) {
+    CompletionService<Void> completion = new ExecutorCompletionService<>(EXECUTOR);
+    Semaphore permits = new Semaphore(maxInFlight);
+    AtomicBoolean cancelled = new AtomicBoolean();
+    List<Future<Void>> fetches = new ArrayList<>(nodes.size());
+    int pending = 0;
+    boolean completed = false;
+
+    try {
+      for (Node node : nodes) {
+        if (!permits.tryAcquire(remaining(deadlineNanos), TimeUnit.NANOSECONDS)) {
+          throw deadlineExceeded(nodes.size());
+        }
+
+        fetches.add(completion.submit(() -> {
+          try {
+            if (!cancelled.get()) {
+              load.accept(node);
+            }
+            return null;
+          } finally {
+            permits.release();
+          }
+        }));
+        pending++;
+
+        /* Fail without submitting the rest once a fetch fails */
+        Future<Void> done;
+        while ((done = completion.poll()) != null) {
+          done.get();
+          pending--;
+        }
+      }
+
+      while (pending > 0) {
+        Future<Void> done = completion.poll(remaining(deadlineNanos), TimeUnit.NANOSECONDS);
+        if (done == null) {
+          throw deadlineExceeded(nodes.size());
+        }
+        done.get();
+        pending--;
+      }
+
+      completed = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted fetching ArcGIS results");
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    } finally {
+      if (!completed) {
+        cancelled.set(true);
+        for (Future<Void> fetch : fetches) {
+          fetch.cancel(false);
+        }
+      }
+    }
+  }
+
+  private static long remaining(long deadlineNanos) {
+    return Math.max(0, deadlineNanos - System.nanoTime());
+  }
+
+  private static IllegalStateException deadlineExceeded(int size) {
+    return new IllegalStateException(String.format(
+        "ArcGIS results of %s grid nodes not fetched within %s s",
+        size,
+        BasinUtil.ARCGIS_BATCH_TIMEOUT));
+  }
+
+  /* Executors.newVirtualThreadPerTaskExecutor(), where available */
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A grid node of a batch in a basin region.
+   */
+  static final class Node {
+    final long latUnits;
+    final long lonUnits;
+    final BasinRegion basinRegion;
+
+    /**
+     * Create a new node.
+     *
+     * @param latUnits latitude in grid units
+     * @param lonUnits longitude in grid units
+     * @param basinRegion The basin region of the node
+     */
+    Node(long latUnits, long lonUnits, BasinRegion basinRegion) {
+      this.latUnits = latUnits;
+      this.lonUnits = lonUnits;
+      this.basinRegion = basinRegion;
+    }
+  }
+
+}
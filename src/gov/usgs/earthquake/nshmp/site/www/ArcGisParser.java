@@ -0,0 +1,125 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+import gov.usgs.earthquake.nshmp.site.www.BasinUtil.Key;
+
+/**
+ * Streaming decoder of ArcGIS identify responses.
+ *
+ * <p> Only the {@code Lat}, {@code Lon}, and basin model
+ * ({@code z1p0<model>}, {@code z2p5<model>}) attributes of the first result
+ * are read, into an {@link ArcGisResult}; all other values are skipped without
+ * being decoded and reading stops once the attributes of the first result are
+ * read.
+ *
+ * <p> ArcGIS values are numbers, or {@code "Null"} where there is no value.
+ *
+ * @author Brandon Clayton
+ */
+class ArcGisParser {
+
+  private static final String RESULTS = "results";
+  private static final String ATTRIBUTES = Key.ATTRIBUTES.toString();
+  private static final String LAT = Key.LAT.toUpperCamel();
+  private static final String LON = Key.LON.toUpperCamel();
+  private static final String NULL = Key.NULL.toUpperCamel();
+
+  private ArcGisParser() {}
+
+  /**
+   * Returns the first result of an identify response, or {@code null} if the
+   * response has no results. The reader is not closed.
+   *
+   * @param reader The identify response
+   * @throws IOException if the response cannot be read or is not valid JSON
+   * @throws IllegalStateException if the first result has no {@code Lat} or
+   *         {@code Lon} attribute
+   */
+  static ArcGisResult parse(Reader reader) throws IOException {
+    JsonReader json = new JsonReader(reader);
+    json.beginObject();
+
+    while (json.hasNext()) {
+      if (!json.nextName().equals(RESULTS)) {
+        json.skipValue();
+        continue;
+      }
+
+      json.beginArray();
+      return json.hasNext() ? readResult(json) : null;
+    }
+
+    return null;
+  }
+
+  /* Read a result up to the end of its attributes */
+  private static ArcGisResult readResult(JsonReader json) throws IOException {
+    json.beginObject();
+
+    while (json.hasNext()) {
+      if (json.nextName().equals(ATTRIBUTES)) {
+        return readAttributes(json);
+      }
+      json.skipValue();
+    }
+
+    throw new IllegalStateException(
+        "Could not get [" + ATTRIBUTES + "] from the ArcGis Online Service");
+  }
+
+  private static ArcGisResult readAttributes(JsonReader json) throws IOException {
+    double[] values = ArcGisResult.emptyValues();
+    double latitude = Double.NaN;
+    double longitude = Double.NaN;
+
+    json.beginObject();
+
+    while (json.hasNext()) {
+      String name = json.nextName();
+
+      if (name.equals(LAT)) {
+        latitude = readValue(json);
+      } else if (name.equals(LON)) {
+        longitude = readValue(json);
+      } else {
+        int slot = ArcGisResult.slot(name);
+        if (slot < 0) {
+          json.skipValue();
+        } else {
+          values[slot] = readValue(json);
+        }
+      }
+    }
+
+    json.endObject();
+
+    checkState(!Double.isNaN(latitude), "Could not get [%s] from the ArcGis Online Service", LAT);
+    checkState(!Double.isNaN(longitude), "Could not get [%s] from the ArcGis Online Service", LON);
+
+    return new ArcGisResult(values, latitude, longitude);
+  }
+
+  /* A number, a number as a string, or "Null" as NaN */
+  private static double readValue(JsonReader json) throws IOException {
+    JsonToken token = json.peek();
+
+    if (token == JsonToken.NUMBER) {
+      return json.nextDouble();
+    } else if (token == JsonToken.NULL) {
+      json.nextNull();
+      return Double.NaN;
+    }
+
+    String value = json.nextString();
+    return value.equals(NULL) ? Double.NaN : Double.parseDouble(value);
+  }
+
+}
@@ -0,0 +1,206 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import gov.usgs.earthquake.nshmp.site.www.AdmissionFilter.TokenBucket;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Background prefetch of the grid nodes surrounding an ArcGIS cache miss.
+ *
+ * <p> Sites are usually requested in spatial clusters, e.g. the sites of a
+ * city, a grid sweep, or a profile, so the neighbours of a miss are likely to
+ * be requested next. On each miss, the nodes within {@code radius} nodes of the
+ * missed node, e.g. the 3x3 neighbourhood for a radius of 1, that are inside
+ * the basin region and not cached are queued, nearest first. The most recent
+ * misses are prefetched first and, when the queue is full, the oldest queued
+ * nodes are dropped.
+ *
+ * <p> A single background thread prefetches at most {@code rate} nodes per
+ * second with a {@link Fetch}, which for the ArcGIS cache only fetches while
+ * the ArcGIS service has spare capacity, see
+ * {@link ArcGis#prefetch(long, long, BasinRegion)}; nodes that can not be
+ * prefetched without competing with requests are dropped. The thread is
+ * stopped when the service is undeployed, see {@link WarmUpListener}.
+ *
+ * @author Brandon Clayton
+ */
+class ArcGisPrefetcher {
+
+  private static final int QUEUE_SIZE = 1000;
+
+  /* Wait for a prefetch in progress when stopped */
+  private static final long STOP_MILLIS = 5000;
+
+  private final int radius;
+  private final TokenBucket rateLimit;
+  private final Fetch fetch;
+  private final BlockingDeque<Node> queue;
+  private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong prefetched = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile boolean stopped;
+  private Thread thread;
+
+  /**
+   * Create a new prefetcher.
+   *
+   * @param radius The neighbourhood radius in grid nodes
+   * @param rate The maximum number of nodes prefetched per second
+   * @param fetch The prefetch of a grid node
+   */
+  ArcGisPrefetcher(int radius, double rate, Fetch fetch) {
+    this(radius, rate, QUEUE_SIZE, fetch);
+  }
+
+  ArcGisPrefetcher(int radius, double rate, int queueSize, Fetch fetch) {
+    checkArgument(radius > 0, "Radius must be positive");
+    this.radius = radius;
+    this.rateLimit = new TokenBucket(rate, 1, System.nanoTime());
+    this.fetch = fetch;
+    this.queue = new LinkedBlockingDeque<>(queueSize);
+  }
+
+  /** Start the background thread, returning this prefetcher. */
+  ArcGisPrefetcher start() {
+    checkState(thread == null, "Prefetcher already started");
+    thread = new Thread(this::run, "arcgis-prefetch");
+    thread.setDaemon(true);
+    thread.start();
+    return this;
+  }
+
+  /**
+   * Stop the background thread, waiting for a prefetch in progress to end.
+   * Queued nodes are not prefetched.
+   */
+  void stop() {
+    stopped = true;
+    if (thread != null) {
+      thread.interrupt();
+      Uninterruptibles.joinUninterruptibly(thread, STOP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Queue the uncached neighbours of a missed grid node.
+   *
+   * @param latUnits latitude of the missed node in grid units
+   * @param lonUnits longitude of the missed node in grid units
+   * @param basinRegion The basin region of the missed node
+   */
+  void miss(long latUnits, long lonUnits, BasinRegion basinRegion) {
+    /* Outermost ring first, so the nearest nodes end up at the head */
+    for (int ring = radius; ring > 0; ring--) {
+      for (int dLat = -ring; dLat <= ring; dLat++) {
+        for (int dLon = -ring; dLon <= ring; dLon++) {
+          if (Math.max(Math.abs(dLat), Math.abs(dLon)) != ring) continue;
+          queue(new Node(latUnits + dLat, lonUnits + dLon, basinRegion));
+        }
+      }
+    }
+  }
+
+  /** Returns the number of prefetched nodes. */
+  long prefetched() {
+    return prefetched.get();
+  }
+
+  /** Returns the number of queued nodes dropped. */
+  long dropped() {
+    return dropped.get();
+  }
+
+  private void queue(Node node) {
+    if (!node.basinRegion.contains(node.latUnits, node.lonUnits) ||
+        fetch.isCached(node.latUnits, node.lonUnits) ||
+        !queued.add(node.key())) {
+      return;
+    }
+
+    while (!queue.offerFirst(node)) {
+      Node oldest = queue.pollLast();
+      if (oldest != null) {
+        queued.remove(oldest.key());
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  private void run() {
+    while (!stopped) {
+      try {
+        Node node = queue.takeFirst();
+        queued.remove(node.key());
+        if (fetch.isCached(node.latUnits, node.lonUnits)) continue;
+
+        long wait;
+        while ((wait = rateLimit.tryAcquire(System.nanoTime())) > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        if (fetch.prefetch(node.latUnits, node.lonUnits, node.basinRegion)) {
+          prefetched.incrementAndGet();
+        } else {
+          dropped.incrementAndGet();
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        /* The node is fetched again on request */
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  /** Prefetch of the result of a grid node. */
+  interface Fetch {
+
+    /**
+     * Returns whether the result of a grid node is cached.
+     *
+     * @param latUnits latitude in grid units
+     * @param lonUnits longitude in grid units
+     */
+    boolean isCached(long latUnits, long lonUnits);
+
+    /**
+     * Fetch and cache the result of a grid node, returning whether the result
+     * is cached; {@code false} drops the node.
+     *
+     * @param latUnits latitude in grid units
+     * @param lonUnits longitude in grid units
+     * @param basinRegion The basin region of the grid node
+     */
+    boolean prefetch(long latUnits, long lonUnits, BasinRegion basinRegion);
+  }
+
+  private static final class Node {
+    final long latUnits;
+    final long lonUnits;
+    final BasinRegion basinRegion;
+
+    Node(long latUnits, long lonUnits, BasinRegion basinRegion) {
+      this.latUnits = latUnits;
+      this.lonUnits = lonUnits;
+      this.basinRegion = basinRegion;
+    }
+
+    long key() {
+      return ArcGisCache.key(latUnits, lonUnits);
+    }
+  }
+
+}
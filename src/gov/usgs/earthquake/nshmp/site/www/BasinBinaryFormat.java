@@ -0,0 +1,106 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.RequestData;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues.BasinValue;
+
+/**
+ * Compact binary encoding of basin term results for machine clients.
+ *
+ * <p> A response is a little-endian {@code int32} record count followed by
+ * fixed-width, {@value #RECORD_BYTES} byte, little-endian records:
+ *
+ * <pre>
+ * offset  type     value
+ *  0      int32    latitude in units of 0.01°
+ *  4      int32    longitude in units of 0.01°
+ *  8      int8     basin ordinal, -1 if outside a basin region
+ *  9      int8     basin model ordinal, -1 if outside a basin region
+ * 10      float64  z1p0 in km, NaN if null
+ * 18      float64  z2p5 in km, NaN if null
+ * </pre>
+ *
+ * <p> Basin and basin model ordinals follow the order of the {@code Basin} and
+ * {@code BasinModel} enums, which is also the order of the basin models listed
+ * in the service usage. For example, in Python:
+ * {@code struct.iter_unpack('<iibbdd', body[4:])}.
+ *
+ * @author Brandon Clayton
+ */
+final class BasinBinaryFormat {
+
+  /** Media type of binary responses. */
+  static final String MEDIA_TYPE = "application/octet-stream";
+
+  /** The {@code format} query value of JSON responses. */
+  static final String JSON = "json";
+
+  /** The {@code format} query value of binary responses. */
+  static final String BINARY = "binary";
+
+  static final int HEADER_BYTES = 4;
+  static final int RECORD_BYTES = 26;
+
+  private BasinBinaryFormat() {}
+
+  /**
+   * Write results to a servlet response.
+   *
+   * @param results The results
+   * @param response The servlet response
+   */
+  static void write(List<Result> results, HttpServletResponse response) throws IOException {
+    ByteBuffer buffer = encode(results);
+    response.setContentType(MEDIA_TYPE);
+    response.setContentLength(buffer.limit());
+    write(buffer, response.getOutputStream());
+  }
+
+  /**
+   * Returns the results encoded in a buffer, ready to be read.
+   *
+   * @param results The results
+   */
+  static ByteBuffer encode(List<Result> results) {
+    ByteBuffer buffer = ByteBuffer
+        .allocate(HEADER_BYTES + RECORD_BYTES * results.size())
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.putInt(results.size());
+
+    for (Result result : results) {
+      RequestData request = result.request;
+      boolean inBasin = request.basinRegion != null;
+
+      buffer.putInt((int) BasinGrid.gridUnits(request.latitude));
+      buffer.putInt((int) BasinGrid.gridUnits(request.longitude));
+      buffer.put((byte) (inBasin ? request.basinRegion.basin.ordinal() : -1));
+      buffer.put((byte) (inBasin ? request.basinModel.ordinal() : -1));
+      buffer.putDouble(toDouble(result.response.z1p0()));
+      buffer.putDouble(toDouble(result.response.z2p5()));
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void write(ByteBuffer buffer, OutputStream out) throws IOException {
+    out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+    out.flush();
+  }
+
+  private static double toDouble(BasinValue basinValue) {
+    Double value = basinValue.value();
+    return value == null ? Double.NaN : value;
+  }
+
+}
@@ -0,0 +1,314 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.Basin;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Basin term service JSON writer backed by a reused, per-thread buffer.
+ *
+ * <p> Writes the same pretty printed JSON that {@link BasinUtil#GSON} creates
+ * for a {@code BasinTermService.Response} without creating the response
+ * objects. The basin model and basin region blocks are templated once and the
+ * date string is updated at most once a second, so writing a response does not
+ * allocate once the buffer has grown to size.
+ *
+ * <p> Use {@link BasinResponseWriter#get()} to get the writer of the current
+ * thread; the writer is only valid until the next call to {@code get()} on the
+ * same thread.
+ *
+ * @author Brandon Clayton
+ */
+final class BasinResponseWriter {
+
+  private static final ThreadLocal<BasinResponseWriter> WRITERS =
+      ThreadLocal.withInitial(BasinResponseWriter::new);
+
+  private static final double GRID_SCALE = 1.0 / BasinData.BASIN_DATA_SPACING;
+
+  private static final String STATUS = Status.SUCCESS.toString();
+
+  private static final String[] MODEL_TEMPLATES = new String[BasinModel.values().length];
+
+  /* Keyed by basin; the regions of each basin data version are distinct */
+  private static final ConcurrentHashMap<Basin, RegionTemplate> REGION_TEMPLATES =
+      new ConcurrentHashMap<>();
+
+  private static volatile CachedDate date = new CachedDate(System.currentTimeMillis());
+
+  static {
+    for (BasinModel model : BasinModel.values()) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\n      \"id\": ");
+      appendString(sb, model.id);
+      sb.append(",\n      \"z1p0\": ");
+      appendString(sb, model.z1p0);
+      sb.append(",\n      \"z2p5\": ");
+      appendString(sb, model.z2p5);
+      sb.append("\n    }");
+      MODEL_TEMPLATES[model.ordinal()] = sb.toString();
+    }
+  }
+
+  private final StringBuilder sb = new StringBuilder(1024);
+  private char[] chars = new char[1024];
+
+  /* Of the request block, see request() */
+  private long latUnits;
+  private long lonUnits;
+  private BasinModel basinModel;
+  private BasinRegion basinRegion;
+
+  private BasinResponseWriter() {}
+
+  /** Returns the cleared writer of the current thread. */
+  static BasinResponseWriter get() {
+    BasinResponseWriter writer = WRITERS.get();
+    writer.sb.setLength(0);
+    return writer;
+  }
+
+  /**
+   * Write the response status, name, date, and URL.
+   *
+   * @param url The request URL
+   */
+  BasinResponseWriter header(String url) {
+    sb.append("{\n  \"status\": ");
+    appendString(sb, STATUS);
+    sb.append(",\n  \"name\": ");
+    appendString(sb, BasinTermService.SERVICE_NAME);
+    sb.append(",\n  \"date\": ");
+    appendString(sb, date());
+    sb.append(",\n  \"url\": ");
+    appendString(sb, url);
+    sb.append(",\n");
+    return this;
+  }
+
+  /**
+   * Write the request block.
+   *
+   * @param latUnits The rounded latitude in grid units
+   * @param lonUnits The rounded longitude in grid units
+   * @param basinModel The basin model, may be {@code null}
+   * @param basinRegion The basin region, may be {@code null}
+   */
+  BasinResponseWriter request(
+      long latUnits,
+      long lonUnits,
+      BasinModel basinModel,
+      BasinRegion basinRegion) {
+    this.latUnits = latUnits;
+    this.lonUnits = lonUnits;
+    this.basinModel = basinModel;
+    this.basinRegion = basinRegion;
+
+    sb.append("  \"request\": {\n    \"latitude\": ")
+        .append(toDegrees(latUnits))
+        .append(",\n    \"longitude\": ")
+        .append(toDegrees(lonUnits))
+        .append(",\n    \"basinModel\": ")
+        .append(basinModel == null ? "null" : MODEL_TEMPLATES[basinModel.ordinal()])
+        .append(",\n    \"basinRegion\": ")
+        .append(basinRegion == null ? "null" : regionTemplate(basinRegion))
+        .append("\n  },\n");
+    return this;
+  }
+
+  /**
+   * Write the response block and close the response.
+   *
+   * @param z1p0Model The z1p0 model
+   * @param z1p0 The z1p0 value, {@code NaN} for {@code null}
+   * @param z2p5Model The z2p5 model
+   * @param z2p5 The z2p5 value, {@code NaN} for {@code null}
+   */
+  BasinResponseWriter response(String z1p0Model, double z1p0, String z2p5Model, double z2p5) {
+    sb.append("  \"response\": {\n");
+    basinValue("z1p0", z1p0Model, z1p0);
+    sb.append(",\n");
+    basinValue("z2p5", z2p5Model, z2p5);
+    sb.append("\n  }\n}");
+    return this;
+  }
+
+  private void basinValue(String key, String model, double value) {
+    sb.append("    \"").append(key).append("\": {\n      \"model\": ");
+    appendString(sb, model);
+    sb.append(",\n      \"value\": ");
+    appendDouble(value);
+    sb.append("\n    }");
+  }
+
+  private void appendDouble(double value) {
+    if (Double.isNaN(value)) {
+      sb.append("null");
+    } else {
+      sb.append(value);
+    }
+  }
+
+  /** Returns the number of characters written. */
+  int length() {
+    return sb.length();
+  }
+
+  /**
+   * Copy the buffer to a {@code Writer}.
+   *
+   * @param out The writer
+   */
+  void writeTo(Writer out) throws IOException {
+    int length = sb.length();
+
+    if (chars.length < length) {
+      chars = new char[Math.max(length, 2 * chars.length)];
+    }
+
+    sb.getChars(0, length, chars, 0);
+    out.write(chars, 0, length);
+  }
+
+  /** Returns the latitude of the request block in degrees. */
+  double latitude() {
+    return toDegrees(latUnits);
+  }
+
+  /** Returns the longitude of the request block in degrees. */
+  double longitude() {
+    return toDegrees(lonUnits);
+  }
+
+  /** Returns the basin model of the request block, may be {@code null}. */
+  BasinModel basinModel() {
+    return basinModel;
+  }
+
+  /** Returns the basin region of the request block, may be {@code null}. */
+  BasinRegion basinRegion() {
+    return basinRegion;
+  }
+
+  @Override
+  public String toString() {
+    return sb.toString();
+  }
+
+  /* Convert grid units to degrees */
+  static double toDegrees(long gridUnits) {
+    return gridUnits / GRID_SCALE;
+  }
+
+  private static String regionTemplate(BasinRegion basinRegion) {
+    RegionTemplate template = REGION_TEMPLATES.get(basinRegion.basin);
+
+    if (template == null || !template.title.equals(basinRegion.title)) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\n      \"title\": ");
+      appendString(sb, basinRegion.title);
+      sb.append(",\n      \"id\": ");
+      appendString(sb, basinRegion.basin.id);
+      sb.append("\n    }");
+      template = new RegionTemplate(basinRegion.title, sb.toString());
+      REGION_TEMPLATES.put(basinRegion.basin, template);
+    }
+
+    return template.json;
+  }
+
+  private static final class RegionTemplate {
+    final String title;
+    final String json;
+
+    RegionTemplate(String title, String json) {
+      this.title = title;
+      this.json = json;
+    }
+  }
+
+  private static String date() {
+    long now = System.currentTimeMillis();
+    CachedDate cached = date;
+
+    if (now / 1000 != cached.second) {
+      cached = new CachedDate(now);
+      date = cached;
+    }
+
+    return cached.value;
+  }
+
+  /* Append a quoted JSON string, escaped as Gson does without HTML escaping */
+  static void appendString(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+
+    sb.append('"');
+
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\b':
+          sb.append("\\b");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\f':
+          sb.append("\\f");
+          break;
+        case '\u2028':
+          sb.append("\\u2028");
+          break;
+        case '\u2029':
+          sb.append("\\u2029");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append("\\u00");
+            sb.append(Character.forDigit(c >> 4, 16));
+            sb.append(Character.forDigit(c & 0xf, 16));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+
+    sb.append('"');
+  }
+
+  /* Date string for a single second */
+  private static final class CachedDate {
+    final long second;
+    final String value;
+
+    CachedDate(long millis) {
+      second = millis / 1000;
+      value = new Date(second * 1000).toString();
+    }
+  }
+
+}
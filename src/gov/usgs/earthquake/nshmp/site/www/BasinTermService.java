@@ -1,28 +1,45 @@
 package gov.usgs.earthquake.nshmp.site.www;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static gov.usgs.earthquake.nshmp.site.www.BasinUtil.GSON;
 import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
-import static gov.usgs.earthquake.nshmp.www.Util.readValue;
 import static gov.usgs.earthquake.nshmp.www.meta.Metadata.errorMessage;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Doubles;
+
 import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.Region;
 import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
 import gov.usgs.earthquake.nshmp.site.www.BasinUtil.Key;
+import gov.usgs.earthquake.nshmp.site.www.EventLog.Source;
 import gov.usgs.earthquake.nshmp.site.www.basin.Basin;
 import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid.Interpolation;
 import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinProfile;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinStats;
 import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinVersions;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinVersions.Version;
 import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues.BasinValue;
 import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
 import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
@@ -39,17 +56,70 @@ import gov.usgs.earthquake.nshmp.www.meta.Status;
  * (/basin/arc-data) or by using the local files (/basin/local-data) in the data
  * directory.
  * 
+ * <p> Batch requests are made with a POST to either route with a body of
+ * {@code longitude,latitude} lines. The sites of a batch are processed in
+ * grid order, once per grid node, see {@link BatchOrder}. The uncached grid
+ * nodes of an /arc-data batch are first fetched concurrently, see
+ * {@link ArcGisFanOut}. Single and batch responses are JSON by
+ * default; a compact binary encoding, see {@link BasinBinaryFormat}, is
+ * returned for {@code format=binary} or an {@code Accept} header of
+ * {@code application/octet-stream}.
+ * 
  * <p> Note: When using the ArcGis service route the host server needs to be
  * identified in a config.properties file at the root of the source directory,
- * for example: {@code arcgis_host=https://some.agol.server}
+ * for example: {@code arcgis_host=https://some.agol.server}. ArcGIS results
+ * are cached by grid node, up to {@code arcgis_cache_size} results, and the
+ * neighbours of cache misses are prefetched, see {@link ArcGisPrefetcher}.
+ * Replicas of the service may share cached results, see {@link SharedCache};
+ * /basin/arc-data/cell returns the cached result of a grid node to other
+ * replicas. Any config.properties value may be overridden with a system
+ * property of the same name.
  * 
  * <p> Note: If the latitude and longitude supplied in the query is not
  * contained in a basin region the resulting z1p0 and z2p5 values are set to
  * null.
  * 
+ * <p> Note: The local basin data are stored as {@code double} values by
+ * default; set {@code basin_data_storage=quantized} in config.properties to
+ * store them as whole meters in a quarter of the memory.
+ * 
+ * <p> Statistics (min, max, mean, and percentiles) of the local z1p0 and z2p5
+ * values of each basin, or of one basin with {@code basin}, are returned by
+ * /basin/local-data/stats; the values may be clipped to a polygon of
+ * {@code longitude,latitude} pairs with {@code polygon}.
+ * 
+ * <p> Profiles of the local z1p0 and z2p5 values along a polyline of
+ * {@code longitude,latitude} pairs, {@code path}, are returned by
+ * /basin/local-data/profile. Samples are taken every {@code spacing} km at the
+ * nearest grid node or, with {@code interpolation=bilinear}, interpolated
+ * between grid nodes; crossings of basin region boundaries are listed with the
+ * samples.
+ * 
+ * <p> Note: Sites in a basin region without data result in an error unless a
+ * search radius in km is given with {@code radius}, in which case the values
+ * of the nearest populated grid node within the radius are returned along with
+ * the node used and its distance from the site. On the ArcGIS route the nearest
+ * node is used when a value at the site is null, unless the ArcGIS values of
+ * that node are also null, in which case the nulls at the site are returned
+ * without a node. The radius is limited by
+ * {@code max_radius} in config.properties, 10 km by default.
+ * 
+ * <p> Previous versions of the local basin data may be requested with
+ * {@code version} on all /local-data routes and /basin/geojson; the latest
+ * version is used by default. Versions are subdirectories of
+ * {@code basin_data_versions} in config.properties, see {@link BasinVersions};
+ * the latest is the greatest version id unless set with
+ * {@code basin_data_latest}, and at most {@code basin_data_max_versions}
+ * other versions, default 4, stay loaded until idle for
+ * {@code basin_data_idle_minutes}, default 30. The versions are listed in the
+ * service usage.
+ * 
  * <p> Note: Supplied latitude and longitudes are rounded to the nearest
  * {@code 0.01}, which is the resolution of the underlying basin depth data.
  * 
+ * <p> Errors, and a sample of successful requests, are written to a
+ * structured log off the request thread, see {@link EventLog}.
+ * 
  * @author Brandon Clayton
  */
 @SuppressWarnings("unused")
@@ -61,11 +131,17 @@ import gov.usgs.earthquake.nshmp.www.meta.Status;
         "/basin/*" })
 public class BasinTermService extends NshmpServlet {
 
-  private static final Basins BASINS = Basins.getBasins();
+  static final BasinVersions VERSIONS = BasinVersions.create(
+      BasinUtil.BASIN_DATA_VERSIONS == null ? null : Paths.get(BasinUtil.BASIN_DATA_VERSIONS),
+      BasinUtil.BASIN_DATA_LATEST,
+      BasinUtil.BASIN_DATA_STORAGE,
+      BasinUtil.BASIN_DATA_MAX_VERSIONS,
+      BasinUtil.BASIN_DATA_IDLE_MINUTES);
 
-  private static final BasinData BASIN_DATA = BasinData.readBasinData(BASINS);
+  static final String SERVICE_NAME = "Basin Term Service";
 
-  private static final String SERVICE_NAME = "Basin Term Service";
+  /* Precision of the reported distance to a grid node, in km */
+  private static final double NODE_DISTANCE_PRECISION = 0.001;
 
   private static final String SERVICE_DESCRIPTION = "Get basin terms";
 
@@ -78,131 +154,562 @@ public class BasinTermService extends NshmpServlet {
       HttpServletResponse response)
       throws ServletException, IOException {
 
+    long start = System.nanoTime();
     UrlHelper urlHelper = NshmpServlet.urlHelper(request, response);
     String pathInfo = request.getPathInfo();
     String query = request.getQueryString();
+    Source source = pathInfo != null && pathInfo.startsWith("/arc-data")
+        ? Source.ARCGIS
+        : Source.LOCAL;
 
     try {
       if (!isNullOrEmpty(pathInfo) && pathInfo.equals("/geojson")) {
-        response.getWriter().print(BASINS.json());
-      } else if (!isNullOrEmpty(query) && pathInfo.equals("/local-data")) {
-        Response svcResponse = processBasinTermWithLocalData(request, urlHelper);
+        response.getWriter().print(readVersion(request).basins.json());
+        EventLog.success(request, source, start);
+      } else if ("/local-data/stats".equals(pathInfo)) {
+        StatsResponse svcResponse = processBasinStats(
+            readVersion(request),
+            request.getParameter(Key.BASIN.toString()),
+            request.getParameter(Key.POLYGON.toString()),
+            urlHelper.url);
         String json = GSON.toJson(svcResponse);
         urlHelper.writeResponse(json);
-      } else if (!isNullOrEmpty(query) && pathInfo.equals("/arc-data")) {
-        Response svcResponse = processBasinTermWithArcGIS(request, urlHelper);
+        EventLog.success(request, source, start);
+      } else if (!isNullOrEmpty(query) && "/local-data/profile".equals(pathInfo)) {
+        ProfileResponse svcResponse = processBasinProfile(
+            readVersion(request),
+            request.getParameter(Key.PATH.toString()),
+            request.getParameter(Key.SPACING.toString()),
+            request.getParameter(Key.INTERPOLATION.toString()),
+            urlHelper.url);
         String json = GSON.toJson(svcResponse);
         urlHelper.writeResponse(json);
+        EventLog.success(request, source, start);
+      } else if (!isNullOrEmpty(query) && pathInfo.equals("/local-data")) {
+        Options options = Options.from(request);
+
+        if (isBinaryRequest(request)) {
+          Result result = processBasinTermWithLocalData(
+              readDouble(Key.LATITUDE, request),
+              readDouble(Key.LONGITUDE, request),
+              options);
+          BasinBinaryFormat.write(ImmutableList.of(result), response);
+          logResult(request, source, start, result);
+        } else if (options.radius != null) {
+          Result result = processBasinTermWithLocalData(
+              readDouble(Key.LATITUDE, request),
+              readDouble(Key.LONGITUDE, request),
+              options);
+          String json = GSON.toJson(new Response(result, urlHelper.url));
+          urlHelper.writeResponse(json);
+          logResult(request, source, start, result);
+        } else {
+          BasinResponseWriter writer = writeBasinTermWithLocalData(
+              options.version,
+              request.getParameter(Key.LATITUDE.toString()),
+              request.getParameter(Key.LONGITUDE.toString()),
+              request.getParameter(Key.MODEL.toString()),
+              urlHelper.url);
+          writer.writeTo(response.getWriter());
+          EventLog.success(
+              request,
+              source,
+              start,
+              writer.latitude(),
+              writer.longitude(),
+              writer.basinRegion() == null ? null : writer.basinRegion().basin.id,
+              writer.basinModel() == null ? null : writer.basinModel().id);
+        }
+      } else if (!isNullOrEmpty(query) && "/arc-data/cell".equals(pathInfo)) {
+        processArcGisCell(request, response, ArcGis::callPointServiceForPeer, start);
+      } else if (!isNullOrEmpty(query) && pathInfo.equals("/arc-data")) {
+        Result result = processBasinTermWithArcGIS(
+            readDouble(Key.LATITUDE, request),
+            readDouble(Key.LONGITUDE, request),
+            Options.from(request));
+
+        if (isBinaryRequest(request)) {
+          BasinBinaryFormat.write(ImmutableList.of(result), response);
+        } else {
+          String json = GSON.toJson(new Response(result, urlHelper.url));
+          urlHelper.writeResponse(json);
+        }
+        logResult(request, source, start, result);
       } else {
         final String usage = GSON.toJson(new Metadata());
         urlHelper.writeResponse(usage);
+        EventLog.success(request, source, start);
       }
     } catch (Exception e) {
-      e.printStackTrace();
+      EventLog.error(request, source, start, e);
+      reportFailure(request, source, e);
       response.getWriter().print(errorMessage(urlHelper.url, e, false));
     }
   }
 
+  /**
+   * Batch request of basin terms. The request body is a list of sites, one
+   * {@code longitude,latitude} pair per line; the {@code model},
+   * {@code radius}, and {@code format} query parameters apply to all sites.
+   */
+  @Override
+  protected void doPost(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    long start = System.nanoTime();
+    UrlHelper urlHelper = NshmpServlet.urlHelper(request, response);
+    String pathInfo = request.getPathInfo();
+    Source source = "/arc-data".equals(pathInfo) ? Source.ARCGIS : Source.LOCAL;
+
+    try {
+      boolean localData = "/local-data".equals(pathInfo);
+      checkArgument(
+          localData || "/arc-data".equals(pathInfo),
+          "Batch requests are supported by /local-data and /arc-data only");
+
+      List<Location> sites = BasinUtil.readSites(request.getReader());
+      Options options = Options.from(request);
+
+      if (!localData && BasinUtil.ARCGIS_FAN_OUT) {
+        fetchArcGisNodes(
+            sites,
+            options,
+            start + TimeUnit.SECONDS.toNanos(BasinUtil.ARCGIS_BATCH_TIMEOUT));
+      }
+
+      /* Results are of locations rounded to the grid */
+      List<Result> results = BatchOrder.process(sites, true, localData
+          ? (lat, lon) -> processBasinTermWithLocalData(lat, lon, options)
+          : (lat, lon) -> processBasinTermWithArcGIS(lat, lon, options));
+
+      if (isBinaryRequest(request)) {
+        BasinBinaryFormat.write(results, response);
+      } else {
+        String json = GSON.toJson(new BatchResponse(results, urlHelper.url));
+        urlHelper.writeResponse(json);
+      }
+      EventLog.success(request, source, start, sites.size());
+    } catch (Exception e) {
+      EventLog.error(request, source, start, e);
+      reportFailure(request, source, e);
+      response.getWriter().print(errorMessage(urlHelper.url, e, false));
+    }
+  }
+
+  /*
+   * Fetch the uncached ArcGIS results of the grid nodes of the sites of a
+   * batch concurrently, so the sites are then processed from the cache.
+   */
+  private static void fetchArcGisNodes(List<Location> sites, Options options, long deadline) {
+    checkArgument(!options.versioned, "Versions are supported by /local-data only");
+
+    List<ArcGisFanOut.Node> nodes = ArcGisFanOut.uncachedNodes(
+        sites,
+        VERSIONS.latest().basins,
+        node -> ArcGis.isCached(node.latUnits, node.lonUnits));
+
+    if (nodes.size() > 1) {
+      ArcGisFanOut.fetch(nodes, deadline);
+    }
+  }
+
+  /*
+   * Report a failed ArcGIS request to the admission filter, which lowers the
+   * limit of the route. Invalid requests are not failures of the route.
+   */
+  private static void reportFailure(HttpServletRequest request, Source source, Exception e) {
+    if (source == Source.ARCGIS && !(e instanceof IllegalArgumentException)) {
+      AdmissionFilter.reportFailure(request);
+    }
+  }
+
+  /* Log a successful request of a site */
+  private static void logResult(
+      HttpServletRequest request,
+      Source source,
+      long start,
+      Result result) {
+    BasinRegionRequest basinRegion = result.request.basinRegion;
+    BasinModel basinModel = result.request.basinModel;
+
+    EventLog.success(
+        request,
+        source,
+        start,
+        result.request.latitude,
+        result.request.longitude,
+        basinRegion == null ? null : basinRegion.id,
+        basinModel == null ? null : basinModel.id);
+  }
+
+  /*
+   * Binary responses are requested with format=binary or, without a format
+   * parameter, an Accept header of application/octet-stream.
+   */
+  private static boolean isBinaryRequest(HttpServletRequest request) {
+    String format = request.getParameter(Key.FORMAT.toString());
+
+    if (format != null) {
+      checkArgument(
+          format.equals(BasinBinaryFormat.JSON) || format.equals(BasinBinaryFormat.BINARY),
+          "Format [%s] not supported", format);
+      return format.equals(BasinBinaryFormat.BINARY);
+    }
+
+    String accept = request.getHeader("Accept");
+    return accept != null && accept.contains(BasinBinaryFormat.MEDIA_TYPE);
+  }
+
+  /* The version query value, the latest version by default */
+  private static Version readVersion(HttpServletRequest request) {
+    return VERSIONS.get(request.getParameter(Key.VERSION.toString()));
+  }
+
+  /**
+   * Process request using the latest local basin data.
+   * 
+   * @see #writeBasinTermWithLocalData(Version, String, String, String, String)
+   */
+  static BasinResponseWriter writeBasinTermWithLocalData(
+      String latitude,
+      String longitude,
+      String model,
+      String url) {
+    return writeBasinTermWithLocalData(VERSIONS.latest(), latitude, longitude, model, url);
+  }
+
+  /**
+   * Process request using local basin data.
+   * 
+   * <p> The query values are parsed and resolved to a basin region and grid node
+   * in grid units and the response is written to the {@code BasinResponseWriter}
+   * of the current thread, without creating intermediate objects.
+   * 
+   * @param version The basin data version
+   * @param latitude The latitude query value
+   * @param longitude The longitude query value
+   * @param model The basin model query value, may be {@code null}
+   * @param url The request URL
+   */
+  static BasinResponseWriter writeBasinTermWithLocalData(
+      Version version,
+      String latitude,
+      String longitude,
+      String model,
+      String url) {
+    long latUnits = BasinUtil.readGridUnits(Key.LATITUDE, latitude);
+    long lonUnits = BasinUtil.readGridUnits(Key.LONGITUDE, longitude);
+
+    BasinRegion basinRegion = version.basins.findRegion(latUnits, lonUnits);
+
+    if (basinRegion == null) {
+      return BasinResponseWriter.get()
+          .header(url)
+          .request(latUnits, lonUnits, null, null)
+          .response("", Double.NaN, "", Double.NaN);
+    }
+
+    BasinModel basinModel = model == null ? basinRegion.defaultModel : BasinModel.fromId(model);
+    BasinGrid grid = version.basinData.getBasinGrid(basinRegion.basin);
+    int index = grid.index(latUnits, lonUnits);
+
+    if (!grid.contains(index)) {
+      throw new IllegalStateException(String.format(
+          "Location [%s, %s] not found in basin [%s]",
+          BasinResponseWriter.toDegrees(latUnits),
+          BasinResponseWriter.toDegrees(lonUnits),
+          basinRegion.basin.id));
+    }
+
+    return BasinResponseWriter.get()
+        .header(url)
+        .request(latUnits, lonUnits, basinModel, basinRegion)
+        .response(grid.model.z1p0, grid.z1p0(index), grid.model.z2p5, grid.z2p5(index));
+  }
+
+  /**
+   * Process request using the latest local basin data, the default basin
+   * model, and no search radius.
+   */
+  static Result processBasinTermWithLocalData(double latitude, double longitude) {
+    return processBasinTermWithLocalData(latitude, longitude, Options.LATEST);
+  }
+
   /**
    * Process request using local basin data.
+   * 
+   * <p> If a search radius is given, the values of the nearest populated grid
+   * node within the radius are returned for sites in a basin region without
+   * data.
    */
-  private Response processBasinTermWithLocalData(HttpServletRequest request, UrlHelper urlHelper) {
-    RequestData requestData = buildRequest(request, BasinData.BASIN_DATA_SPACING);
+  private static Result processBasinTermWithLocalData(
+      double latitude,
+      double longitude,
+      Options options) {
+    BasinData basinData = options.version.basinData;
+    RequestData requestData = buildRequest(
+        options.version.basins,
+        latitude,
+        longitude,
+        options.model,
+        BasinData.BASIN_DATA_SPACING);
 
     if (requestData.basinRegion == null) {
-      return processNullResult(requestData, urlHelper);
+      return processNullResult(requestData);
+    }
+
+    if (options.radius == null) {
+      Location loc = Location.create(requestData.latitude, requestData.longitude);
+      BasinValues basinValues = basinData.getBasinValues(requestData.basinRegion.basin, loc);
+      return new Result(requestData, basinValues);
     }
 
-    Location loc = Location.create(requestData.latitude, requestData.longitude);
-    Basin basin = Basin.fromId(requestData.basinRegion.id);
-    BasinValues basinValues = BASIN_DATA.getBasinValues(basin, loc);
+    BasinGrid grid = basinData.getBasinGrid(requestData.basinRegion.basin);
+    int index = findNearestNode(grid, requestData, options.radius, false);
+
+    return new Result(requestData, grid.basinValues(index), new Node(grid, requestData, index));
+  }
+
+  /*
+   * Find the populated node nearest to the site of a request, excluding the
+   * node at the site if requested.
+   */
+  private static int findNearestNode(
+      BasinGrid grid,
+      RequestData requestData,
+      double radius,
+      boolean excludeSite) {
+    int site = grid.index(requestData.latitude, requestData.longitude);
+    int index = grid.nearestIndex(
+        requestData.latitude,
+        requestData.longitude,
+        radius,
+        excludeSite ? site : -1);
+
+    checkState(index >= 0, "No data within [%s] km of location [%s, %s] in basin [%s]",
+        radius, requestData.latitude, requestData.longitude, grid.basin.id);
 
-    return new Response(requestData, basinValues, urlHelper);
+    return index;
   }
 
   /**
    * Process request using ArcGIS service.
    */
-  private Response processBasinTermWithArcGIS(HttpServletRequest request, UrlHelper urlHelper) {
-    RequestData requestData = buildRequest(request, ArcGis.ROUND_MODEL);
+  private static Result processBasinTermWithArcGIS(
+      double latitude,
+      double longitude,
+      Options options) {
+    checkArgument(!options.versioned, "Versions are supported by /local-data only");
+
+    Version version = VERSIONS.latest();
+    RequestData requestData = buildRequest(
+        version.basins,
+        latitude,
+        longitude,
+        options.model,
+        ArcGis.ROUND_MODEL);
 
     if (requestData.basinRegion == null) {
-      return processNullResult(requestData, urlHelper);
+      return processNullResult(requestData);
     }
 
+    Basin basin = requestData.basinRegion.basin;
     ArcGisResult arcGisResult = ArcGis.callPointService(
         requestData.latitude,
-        requestData.longitude);
+        requestData.longitude,
+        requestData.basinRegion.region);
 
-    Double z2p5 = arcGisResult.basinModels.get(requestData.basinModel.z2p5) / 1000.0;
-    Double z1p0;
-    Basin basin = Basin.fromId(requestData.basinRegion.id);
+    Node node = null;
 
     /*
-     * Seattle is a special case where z1p0 is returned as a converted z2p5
-     * value, instead of the model value itself. Two regressions derived by M.
-     * Moschetti in memo dated July 6, 2018, each with 50% weight.
-     * 
-     * TODO (revisit) There is also a problem right now in that the Seattle z1p0
-     * and z2p5 datasets do not have identical spatial representation in the Arc
-     * geodatabase. The basin polygon was created based on the z2p5 dataset, but
-     * there are locations (e.g. -122.7 46.9) where the z1p0 value will be null.
-     * The site being in the Seattle polygon expects both values to be valid but
-     * throws an error when they are not. For the time being we bypass this
-     * error by handling processing the z2p5, regardless of basin, and only then
-     * process z1p0.
+     * The local basin data and the ArcGIS datasets share the same nodes. If the
+     * ArcGIS result is missing a value, and a search radius is given, use the
+     * nearest other populated node of the local data within the radius. If the
+     * ArcGIS result of that node is also missing a value, the nulls at the
+     * site are returned without a node.
      */
-    if (basin.equals(Basin.PUGET_LOWLAND) && z2p5 != null) {
-      z1p0 =
-          0.5 * (0.1146 * z2p5 + 0.2826) +
-              0.5 * (0.0933 * z2p5 + 0.1444);
-    } else {
-      z1p0 = arcGisResult.basinModels.get(requestData.basinModel.z1p0) / 1000.0;
+    if (options.radius != null && hasNullValue(arcGisResult, requestData.basinModel)) {
+      BasinGrid grid = version.basinData.getBasinGrid(basin);
+      int index = findNearestNode(grid, requestData, options.radius, true);
+      ArcGisResult nodeResult = ArcGis.callPointService(
+          grid.latitude(index),
+          grid.longitude(index),
+          requestData.basinRegion.region);
+
+      if (!hasNullValue(nodeResult, requestData.basinModel)) {
+        arcGisResult = nodeResult;
+        node = new Node(grid, requestData, index);
+      }
     }
 
+    /* Derived layers, e.g. Seattle z1p0, are applied when results are cached */
+    Double z1p0 = arcGisResult.z1p0(requestData.basinModel);
+    Double z2p5 = arcGisResult.z2p5(requestData.basinModel);
+
     BasinValue z1p0resp = new BasinValue(requestData.basinModel.z1p0, z1p0);
     BasinValue z2p5resp = new BasinValue(requestData.basinModel.z2p5, z2p5);
 
     BasinValues responseData = new BasinValues(z1p0resp, z2p5resp);
 
-    return new Response(requestData, responseData, urlHelper);
+    return new Result(requestData, responseData, node);
   }
 
-  private static Response processNullResult(
-      RequestData requestData,
-      UrlHelper urlHelper) {
+  /**
+   * Process a lookup of the cached ArcGIS result of a grid node, with all basin
+   * models, by another replica; see PeerSharedCache. Responds with the result
+   * as JSON, a 404 for a site outside the basin regions, or a 502 if the
+   * result could not be loaded.
+   * 
+   * @param request The request, with {@code latitude} and {@code longitude}
+   * @param response The response
+   * @param load The load of a result, {@link ArcGis#callPointServiceForPeer}
+   * @param start The {@code System.nanoTime()} of the start of the request
+   */
+  static void processArcGisCell(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      CellLoad load,
+      long start) throws IOException {
+    double latitude = readDouble(Key.LATITUDE, request);
+    double longitude = readDouble(Key.LONGITUDE, request);
+    BasinRegion basinRegion = VERSIONS.latest().basins.findRegion(latitude, longitude);
+
+    if (basinRegion == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      EventLog.error(request, Source.ARCGIS, start, new IllegalArgumentException(String.format(
+          "Location [%s, %s] not in a basin region", latitude, longitude)));
+      return;
+    }
+
+    try {
+      ArcGisResult result = load.load(latitude, longitude, basinRegion);
+      response.getWriter().print(result.json());
+      EventLog.success(request, Source.ARCGIS, start);
+    } catch (RuntimeException e) {
+      response.sendError(HttpServletResponse.SC_BAD_GATEWAY, e.getMessage());
+      EventLog.error(request, Source.ARCGIS, start, e);
+    }
+  }
+
+  /* Load of the ArcGIS result of a site for another replica */
+  interface CellLoad {
+    ArcGisResult load(double latitude, double longitude, BasinRegion basinRegion);
+  }
+
+  private static boolean hasNullValue(ArcGisResult arcGisResult, BasinModel basinModel) {
+    return arcGisResult.z1p0(basinModel) == null || arcGisResult.z2p5(basinModel) == null;
+  }
+
+  /**
+   * Process statistics request using local basin data. Statistics of whole
+   * basins are computed when the data is read; statistics of the basin data
+   * inside a polygon are computed per request.
+   * 
+   * @param version The basin data version
+   * @param basinId The basin id, {@code null} for all basins
+   * @param polygon The polygon to clip to, {@code null} for none
+   * @param url The request URL
+   */
+  private static StatsResponse processBasinStats(
+      Version version,
+      String basinId,
+      String polygon,
+      String url) {
+    List<Basin> basins = new ArrayList<>();
+
+    if (basinId == null) {
+      for (BasinRegion basinRegion : version.basins) {
+        basins.add(basinRegion.basin);
+      }
+    } else {
+      basins.add(Basin.fromId(basinId));
+    }
+
+    Region region = polygon == null ? null : BasinUtil.readPolygon(polygon);
+
+    List<BasinStats> stats = new ArrayList<>();
+
+    for (Basin basin : basins) {
+      BasinGrid grid = version.basinData.getBasinGrid(basin);
+      checkArgument(grid != null, "Basin [%s] not supported", basin.id);
+      stats.add(region == null ? version.basinData.getBasinStats(basin)
+          : BasinStats.compute(grid, region));
+    }
+
+    return new StatsResponse(basinId, polygon, stats, url);
+  }
+
+  /**
+   * Process profile request using local basin data.
+   * 
+   * @param version The basin data version
+   * @param path The polyline vertices
+   * @param spacing The sample spacing in km
+   * @param interpolation The interpolation, {@code null} for nearest node
+   * @param url The request URL
+   */
+  private static ProfileResponse processBasinProfile(
+      Version version,
+      String path,
+      String spacing,
+      String interpolation,
+      String url) {
+    checkArgument(path != null, "Missing [%s] query value", Key.PATH);
+    checkArgument(spacing != null, "Missing [%s] query value", Key.SPACING);
+
+    Double spacingValue = Doubles.tryParse(spacing);
+    checkArgument(
+        spacingValue != null && spacingValue > 0,
+        "Spacing [%s] must be greater than 0 km", spacing);
+
+    Interpolation interpolationValue = interpolation == null
+        ? Interpolation.NEAREST : Interpolation.fromId(interpolation);
+
+    BasinProfile profile = BasinProfile.compute(
+        version.basins,
+        version.basinData,
+        BasinUtil.readPath(path),
+        spacingValue,
+        interpolationValue);
+
+    return new ProfileResponse(
+        new ProfileRequest(path, spacingValue, interpolationValue),
+        profile,
+        url);
+  }
+
+  private static Result processNullResult(RequestData requestData) {
     BasinValue z1p0 = new BasinValue("", null);
     BasinValue z2p5 = new BasinValue("", null);
 
     BasinValues responseData = new BasinValues(z1p0, z2p5);
 
-    return new Response(requestData, responseData, urlHelper);
+    return new Result(requestData, responseData);
   }
 
-  private static RequestData buildRequest(HttpServletRequest request, double roundTo) {
-    double latitude = readDouble(Key.LATITUDE, request);
-    double longitude = readDouble(Key.LONGITUDE, request);
-
+  private static RequestData buildRequest(
+      Basins basins,
+      double latitude,
+      double longitude,
+      String model,
+      double roundTo) {
     latitude = Maths.round(latitude, roundTo);
     longitude = Maths.round(longitude, roundTo);
 
-    BasinRegion basinRegion = BASINS.findRegion(latitude, longitude);
+    BasinRegion basinRegion = basins.findRegion(latitude, longitude);
 
-    BasinModel basinModel = basinRegion == null ? null : getBasinModel(basinRegion, request);
+    BasinModel basinModel = basinRegion == null ? null : getBasinModel(basinRegion, model);
 
     return new RequestData(basinRegion, basinModel, latitude, longitude);
   }
 
-  private static BasinModel getBasinModel(
-      BasinRegion basinRegion,
-      HttpServletRequest request) {
-    boolean hasBasinModel = request.getParameter(Key.MODEL.toString()) != null;
-
-    return hasBasinModel ? BasinModel.fromId(readValue(Key.MODEL, request))
-        : basinRegion.defaultModel;
+  private static BasinModel getBasinModel(BasinRegion basinRegion, String model) {
+    return model != null ? BasinModel.fromId(model) : basinRegion.defaultModel;
   }
 
-  private static class RequestData {
+  static class RequestData {
     final double latitude;
     final double longitude;
     final BasinModel basinModel;
@@ -220,13 +727,17 @@ public class BasinTermService extends NshmpServlet {
     }
   }
 
-  private static class BasinRegionRequest {
+  static class BasinRegionRequest {
     final String title;
     final String id;
+    final transient Basin basin;
+    final transient BasinRegion region;
 
     BasinRegionRequest(BasinRegion basinRegion) {
       title = basinRegion.title;
       id = basinRegion.basin.id;
+      basin = basinRegion.basin;
+      region = basinRegion;
     }
 
     private static BasinRegionRequest getBasinRegionRequest(BasinRegion basinRegion) {
@@ -234,6 +745,74 @@ public class BasinTermService extends NshmpServlet {
     }
   }
 
+  /* Query options that apply to all sites of a request */
+  private static class Options {
+    static final Options LATEST = new Options(null, null, VERSIONS.latest(), false);
+
+    final String model;
+    final Double radius;
+    final Version version;
+    final boolean versioned;
+
+    private Options(String model, Double radius, Version version, boolean versioned) {
+      this.model = model;
+      this.radius = radius;
+      this.version = version;
+      this.versioned = versioned;
+    }
+
+    static Options from(HttpServletRequest request) {
+      String model = request.getParameter(Key.MODEL.toString());
+      String radiusValue = request.getParameter(Key.RADIUS.toString());
+      Double radius = null;
+
+      if (radiusValue != null) {
+        radius = Doubles.tryParse(radiusValue);
+        checkArgument(
+            radius != null && radius > 0 && radius <= BasinUtil.MAX_RADIUS,
+            "Radius [%s] must be greater than 0 and at most %s km",
+            radiusValue,
+            BasinUtil.MAX_RADIUS);
+      }
+
+      String version = request.getParameter(Key.VERSION.toString());
+
+      return new Options(model, radius, VERSIONS.get(version), version != null);
+    }
+  }
+
+  /* Request and response of a single site */
+  static class Result {
+    final RequestData request;
+    final BasinValues response;
+    final Node node;
+
+    Result(RequestData request, BasinValues response) {
+      this(request, response, null);
+    }
+
+    Result(RequestData request, BasinValues response, Node node) {
+      this.request = request;
+      this.response = response;
+      this.node = node;
+    }
+  }
+
+  /* The grid node used for a site when nearest node resolution is enabled */
+  static class Node {
+    final double latitude;
+    final double longitude;
+    final double distance;
+
+    Node(BasinGrid grid, RequestData requestData, int index) {
+      latitude = grid.latitude(index);
+      longitude = grid.longitude(index);
+      distance = Maths.round(
+          grid.distance(requestData.latitude, requestData.longitude, index),
+          NODE_DISTANCE_PRECISION);
+    }
+  }
+
   static class Response {
     final String status;
     final String name;
@@ -241,17 +820,90 @@ public class BasinTermService extends NshmpServlet {
     final String url;
     final RequestData request;
     final BasinValues response;
+    final Node node;
+
+    Response(Result result, String url) {
+      this.status = Status.SUCCESS.toString();
+      this.name = SERVICE_NAME;
+      this.date = new Date().toString();
+      this.url = url;
+      this.request = result.request;
+      this.response = result.response;
+      this.node = result.node;
+    }
+  }
+
+  private static class StatsRequest {
+    final String basin;
+    final String polygon;
+
+    StatsRequest(String basin, String polygon) {
+      this.basin = basin;
+      this.polygon = polygon;
+    }
+  }
+
+  private static class StatsResponse {
+    final String status;
+    final String name;
+    final String date;
+    final String url;
+    final StatsRequest request;
+    final List<BasinStats> response;
+
+    StatsResponse(String basin, String polygon, List<BasinStats> stats, String url) {
+      this.status = Status.SUCCESS.toString();
+      this.name = SERVICE_NAME;
+      this.date = new Date().toString();
+      this.url = url;
+      this.request = new StatsRequest(basin, polygon);
+      this.response = stats;
+    }
+  }
+
+  private static class ProfileRequest {
+    final String path;
+    final double spacing;
+    final String interpolation;
+
+    ProfileRequest(String path, double spacing, Interpolation interpolation) {
+      this.path = path;
+      this.spacing = spacing;
+      this.interpolation = interpolation.toString();
+    }
+  }
+
+  private static class ProfileResponse {
+    final String status;
+    final String name;
+    final String date;
+    final String url;
+    final ProfileRequest request;
+    final BasinProfile response;
+
+    ProfileResponse(ProfileRequest request, BasinProfile profile, String url) {
+      this.status = Status.SUCCESS.toString();
+      this.name = SERVICE_NAME;
+      this.date = new Date().toString();
+      this.url = url;
+      this.request = request;
+      this.response = profile;
+    }
+  }
+
+  static class BatchResponse {
+    final String status;
+    final String name;
+    final String date;
+    final String url;
+    final List<Result> response;
 
-    Response(
-        RequestData requestData,
-        BasinValues responseData,
-        UrlHelper urlHelper) {
+    BatchResponse(List<Result> results, String url) {
       this.status = Status.SUCCESS.toString();
       this.name = SERVICE_NAME;
       this.date = new Date().toString();
-      this.url = urlHelper.url;
-      this.request = requestData;
-      this.response = responseData;
+      this.url = url;
+      this.response = results;
     }
   }
 
@@ -262,6 +914,8 @@ public class BasinTermService extends NshmpServlet {
     final String syntax;
     final EnumParameter<BasinModel> basinModels;
     final List<BasinRegion> basinRegions;
+    final String latestVersion;
+    final Set<String> versions;
 
     Metadata() {
       this.status = Status.USAGE.toString();
@@ -274,7 +928,9 @@ public class BasinTermService extends NshmpServlet {
           ParamType.STRING,
           EnumSet.allOf(BasinModel.class));
 
-      this.basinRegions = BASINS.basinRegions();
+      this.basinRegions = VERSIONS.latest().basins.basinRegions();
+      this.latestVersion = VERSIONS.latest().id;
+      this.versions = VERSIONS.versions();
     }
   }
 
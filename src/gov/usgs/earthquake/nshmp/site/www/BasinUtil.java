@@ -2,15 +2,18 @@ package gov.usgs.earthquake.nshmp.site.www;
 
 import static com.google.common.base.CaseFormat.UPPER_CAMEL;
 import static com.google.common.base.CaseFormat.UPPER_UNDERSCORE;
-import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkArgument;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.TreeMap;
 
+import com.google.common.base.Splitter;
+import com.google.common.primitives.Doubles;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -21,19 +24,69 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
-import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+import gov.usgs.earthquake.nshmp.geo.BorderType;
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
+import gov.usgs.earthquake.nshmp.geo.Region;
+import gov.usgs.earthquake.nshmp.geo.Regions;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Response;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
 import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.util.Maths;
 
 class BasinUtil {
 
   static final Gson GSON;
   static String ARCGIS_HOST;
+  static String SERVICE_HOST;
   static String SERVICE_URL;
+  static Storage BASIN_DATA_STORAGE = Storage.DOUBLE;
+  static String BASIN_DATA_VERSIONS;
+  static String BASIN_DATA_LATEST;
+  static int BASIN_DATA_MAX_VERSIONS = 4;
+  static long BASIN_DATA_IDLE_MINUTES = 30;
+  static String SITE_LAYERS;
+  static boolean WARMUP = true;
+  static String WARMUP_SITES;
+  static int WARMUP_REQUESTS = 20000;
+  static int WARMUP_THREADS = 2;
+  static String EVENT_LOG;
+  static double EVENT_LOG_SAMPLE_RATE = 0.01;
+  static int EVENT_LOG_BUFFER = 8192;
+  static double MAX_RADIUS = 10.0;
+  static long ARCGIS_CACHE_SIZE = 10000;
+  static int ARCGIS_MAX_IN_FLIGHT = 32;
+  static int ARCGIS_PREFETCH_RADIUS = 1;
+  static double ARCGIS_PREFETCH_RATE = 20;
+  static boolean ARCGIS_FAN_OUT = true;
+  static long ARCGIS_BATCH_TIMEOUT = 120;
+  static boolean ADMISSION_CONTROL = true;
+  static int ARC_DATA_MAX_IN_FLIGHT = 64;
+  static int LOCAL_DATA_MAX_IN_FLIGHT = 256;
+  static double CLIENT_RATE = 0;
+  static double CLIENT_BURST = 0;
+  static String CLIENT_ID_HEADER;
+  static String SHARED_CACHE = "none";
+  static String SHARED_CACHE_DIR;
+  static List<String> SHARED_CACHE_PEERS = new ArrayList<>();
+
+  /* Maximum number of sites in a batch request */
+  static final int MAX_BATCH_SITES = 10000;
+
+  /* Decimal places of the basin data grid spacing */
+  private static final int GRID_DIGITS = 2;
+
+  /* Significant digits that round trip through a double */
+  private static final int MAX_PLAIN_DIGITS = 15;
 
   static {
     GSON = new GsonBuilder()
         .registerTypeAdapter(BasinModel.class, new BasinModelSerializer())
-        .registerTypeAdapter(ArcGisResult.class, new ArcGisDeserializer())
+        .registerTypeAdapter(Result.class, new ResultSerializer())
+        .registerTypeAdapter(Response.class, new ResponseSerializer())
         .disableHtmlEscaping()
         .serializeNulls()
         .setPrettyPrinting()
@@ -43,13 +96,121 @@ class BasinUtil {
       Properties props = new Properties();
       InputStream config = BasinUtil.class.getResourceAsStream("/config.properties");
       props.load(config);
-      SERVICE_URL = props.getProperty("service_host") + "/nshmp-site-ws/basin/arc-data";
-      ARCGIS_HOST = props.getProperty("arcgis_host");
+      SERVICE_HOST = property(props, "service_host");
+      SERVICE_URL = SERVICE_HOST + "/nshmp-site-ws/basin/arc-data";
+      ARCGIS_HOST = property(props, "arcgis_host");
+      String storage = property(props, "basin_data_storage");
+      if (storage != null) {
+        BASIN_DATA_STORAGE = Storage.valueOf(storage.trim().toUpperCase());
+      }
+      BASIN_DATA_VERSIONS = property(props, "basin_data_versions");
+      BASIN_DATA_LATEST = property(props, "basin_data_latest");
+      String maxVersions = property(props, "basin_data_max_versions");
+      if (maxVersions != null) {
+        BASIN_DATA_MAX_VERSIONS = Integer.parseInt(maxVersions.trim());
+      }
+      String idleMinutes = property(props, "basin_data_idle_minutes");
+      if (idleMinutes != null) {
+        BASIN_DATA_IDLE_MINUTES = Long.parseLong(idleMinutes.trim());
+      }
+      SITE_LAYERS = property(props, "site_layers");
+      String warmup = property(props, "warmup");
+      if (warmup != null) {
+        WARMUP = Boolean.parseBoolean(warmup.trim());
+      }
+      WARMUP_SITES = property(props, "warmup_sites");
+      String warmupRequests = property(props, "warmup_requests");
+      if (warmupRequests != null) {
+        WARMUP_REQUESTS = Integer.parseInt(warmupRequests.trim());
+      }
+      String warmupThreads = property(props, "warmup_threads");
+      if (warmupThreads != null) {
+        WARMUP_THREADS = Integer.parseInt(warmupThreads.trim());
+      }
+      EVENT_LOG = property(props, "event_log");
+      String eventLogSampleRate = property(props, "event_log_sample_rate");
+      if (eventLogSampleRate != null) {
+        EVENT_LOG_SAMPLE_RATE = Double.parseDouble(eventLogSampleRate);
+      }
+      String eventLogBuffer = property(props, "event_log_buffer");
+      if (eventLogBuffer != null) {
+        EVENT_LOG_BUFFER = Integer.parseInt(eventLogBuffer.trim());
+      }
+      String maxRadius = property(props, "max_radius");
+      if (maxRadius != null) {
+        MAX_RADIUS = Double.parseDouble(maxRadius);
+      }
+      String arcGisCacheSize = property(props, "arcgis_cache_size");
+      if (arcGisCacheSize != null) {
+        ARCGIS_CACHE_SIZE = Long.parseLong(arcGisCacheSize.trim());
+      }
+      String arcGisMaxInFlight = property(props, "arcgis_max_in_flight");
+      if (arcGisMaxInFlight != null) {
+        ARCGIS_MAX_IN_FLIGHT = Integer.parseInt(arcGisMaxInFlight.trim());
+      }
+      String arcGisPrefetchRadius = property(props, "arcgis_prefetch_radius");
+      if (arcGisPrefetchRadius != null) {
+        ARCGIS_PREFETCH_RADIUS = Integer.parseInt(arcGisPrefetchRadius.trim());
+      }
+      String arcGisPrefetchRate = property(props, "arcgis_prefetch_rate");
+      if (arcGisPrefetchRate != null) {
+        ARCGIS_PREFETCH_RATE = Double.parseDouble(arcGisPrefetchRate);
+      }
+      String arcGisFanOut = property(props, "arcgis_fan_out");
+      if (arcGisFanOut != null) {
+        ARCGIS_FAN_OUT = Boolean.parseBoolean(arcGisFanOut.trim());
+      }
+      String arcGisBatchTimeout = property(props, "arcgis_batch_timeout");
+      if (arcGisBatchTimeout != null) {
+        ARCGIS_BATCH_TIMEOUT = Long.parseLong(arcGisBatchTimeout.trim());
+      }
+      String admissionControl = property(props, "admission_control");
+      if (admissionControl != null) {
+        ADMISSION_CONTROL = Boolean.parseBoolean(admissionControl.trim());
+      }
+      String arcDataMaxInFlight = property(props, "arc_data_max_in_flight");
+      if (arcDataMaxInFlight != null) {
+        ARC_DATA_MAX_IN_FLIGHT = Integer.parseInt(arcDataMaxInFlight.trim());
+      }
+      String localDataMaxInFlight = property(props, "local_data_max_in_flight");
+      if (localDataMaxInFlight != null) {
+        LOCAL_DATA_MAX_IN_FLIGHT = Integer.parseInt(localDataMaxInFlight.trim());
+      }
+      String clientRate = property(props, "client_rate");
+      if (clientRate != null) {
+        CLIENT_RATE = Double.parseDouble(clientRate);
+      }
+      String clientBurst = property(props, "client_burst");
+      if (clientBurst != null) {
+        CLIENT_BURST = Double.parseDouble(clientBurst);
+      }
+      CLIENT_ID_HEADER = property(props, "client_id_header");
+      String sharedCache = property(props, "shared_cache");
+      if (sharedCache != null) {
+        SHARED_CACHE = sharedCache.trim().toLowerCase();
+      }
+      SHARED_CACHE_DIR = property(props, "shared_cache_dir");
+      String sharedCachePeers = property(props, "shared_cache_peers");
+      if (sharedCachePeers != null) {
+        SHARED_CACHE_PEERS = Splitter.on(',')
+            .trimResults()
+            .omitEmptyStrings()
+            .splitToList(sharedCachePeers);
+      }
     } catch (IOException e) {
-      e.printStackTrace();
+      /* The event log is of the default config */
+      EventLog.error("config", e);
     }
   }
 
+  /*
+   * A config.properties value, which may be overridden with a system property
+   * of the same name, e.g. -Darcgis_host=http://localhost:8081
+   */
+  private static String property(Properties props, String key) {
+    return System.getProperty(key, props.getProperty(key));
+  }
+
   /*
    * URL query key identifiers for {@link ArcGis} and {@link BasinTermService}
    */
@@ -66,11 +227,25 @@ class BasinUtil {
     LATITUDE,
     LONGITUDE,
     MODEL,
+    FORMAT,
+    RADIUS,
+    BASIN,
+    POLYGON,
+    PATH,
+    SPACING,
+    INTERPOLATION,
+    VERSION,
     ID;
 
+    private final String id;
+
+    private Key() {
+      id = name().toLowerCase();
+    }
+
     @Override
     public String toString() {
-      return name().toLowerCase();
+      return id;
     }
 
     String toUpperCase() {
@@ -82,12 +257,167 @@ class BasinUtil {
     }
   }
 
-  private static Double readArcValue(JsonObject json, String key) {
-    JsonElement jsonEl = json.get(key);
-    checkNotNull(jsonEl, "Could not get [%s] from the ArcGis Online Service", key);
-    Double val = jsonEl.getAsString().equals(Key.NULL.toUpperCamel()) ? null : jsonEl.getAsDouble();
+  /**
+   * Parse a latitude or longitude and round it to the nearest grid node of the
+   * basin data, returning the value in grid units
+   * ({@code degrees / BASIN_DATA_SPACING}).
+   * 
+   * <p> Plain decimal values are parsed digit by digit, rounding half up as
+   * {@link Maths#round(double, double)} does, without allocation. Any other
+   * form falls back to {@link Double#parseDouble(String)}.
+   * 
+   * @param key The query key, for error messages
+   * @param value The value to parse
+   */
+  static long readGridUnits(Key key, String value) {
+    checkArgument(value != null, "Missing query parameter [%s]", key);
+
+    int length = value.length();
+    int i = 0;
+    boolean negative = false;
+
+    if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+      negative = value.charAt(0) == '-';
+      i++;
+    }
+
+    long units = 0;
+    int intDigits = 0;
+
+    for (; i < length; i++) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9) break;
+      units = units * 10 + digit;
+      intDigits++;
+    }
+
+    int fracDigits = 0;
+    boolean roundUp = false;
+
+    if (i < length && value.charAt(i) == '.') {
+      for (i++; i < length; i++) {
+        int digit = value.charAt(i) - '0';
+        if (digit < 0 || digit > 9) break;
+        if (fracDigits < GRID_DIGITS) {
+          units = units * 10 + digit;
+        } else if (fracDigits == GRID_DIGITS) {
+          roundUp = digit >= 5;
+        }
+        fracDigits++;
+      }
+    }
+
+    boolean plainDecimal = i == length &&
+        intDigits + fracDigits > 0 &&
+        intDigits + fracDigits <= MAX_PLAIN_DIGITS;
+
+    if (!plainDecimal) {
+      double degrees = Double.parseDouble(value);
+      return BasinGrid.gridUnits(Maths.round(degrees, BasinData.BASIN_DATA_SPACING));
+    }
+
+    for (; fracDigits < GRID_DIGITS; fracDigits++) {
+      units *= 10;
+    }
+
+    units += roundUp ? 1 : 0;
+    return negative ? -units : units;
+  }
+
+  /**
+   * Read the sites of a batch request, one {@code longitude,latitude} pair per
+   * line. Blank lines, lines starting with {@code #}, and a leading header line
+   * are skipped.
+   * 
+   * @param reader The request body
+   * @throws IllegalArgumentException if a line cannot be parsed or there are
+   *         more than {@link #MAX_BATCH_SITES} sites
+   */
+  static List<Location> readSites(BufferedReader reader) throws IOException {
+    List<Location> sites = new ArrayList<>();
+    String line;
+    int lineNumber = 0;
+
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+
+      if (line.isEmpty() || line.startsWith("#")) continue;
+
+      List<String> values = Splitter.on(',').trimResults().splitToList(line);
+      checkArgument(values.size() == 2, "Line %s: expected [longitude,latitude]", lineNumber);
 
-    return val;
+      Double longitude = Doubles.tryParse(values.get(0));
+      Double latitude = Doubles.tryParse(values.get(1));
+
+      if (sites.isEmpty() && longitude == null && latitude == null) continue;
+
+      checkArgument(
+          longitude != null && latitude != null,
+          "Line %s: could not parse [%s]", lineNumber, line);
+      checkArgument(sites.size() < MAX_BATCH_SITES,
+          "Batch requests are limited to %s sites", MAX_BATCH_SITES);
+
+      sites.add(Location.create(latitude, longitude));
+    }
+
+    return sites;
+  }
+
+  /**
+   * Read a polygon from a list of {@code longitude,latitude} pairs, for
+   * example: {@code -122.5,47.5,-122.0,47.5,-122.0,48.0}.
+   * 
+   * @param value The comma-separated polygon vertices
+   * @throws IllegalArgumentException if the vertices cannot be parsed or there
+   *         are fewer than three
+   */
+  static Region readPolygon(String value) {
+    List<Location> border = readVertices(Key.POLYGON, value);
+    checkArgument(
+        border.size() >= 3,
+        "Polygon [%s] must have at least three longitude,latitude pairs", value);
+
+    return Regions.create(
+        Key.POLYGON.toString(),
+        LocationList.create(border),
+        BorderType.MERCATOR_LINEAR);
+  }
+
+  /**
+   * Read a polyline from a list of {@code longitude,latitude} pairs, for
+   * example: {@code -118.5,34.0,-118.0,34.2}.
+   * 
+   * @param value The comma-separated polyline vertices
+   * @throws IllegalArgumentException if the vertices cannot be parsed or there
+   *         are fewer than two
+   */
+  static List<Location> readPath(String value) {
+    List<Location> path = readVertices(Key.PATH, value);
+    checkArgument(
+        path.size() >= 2,
+        "Path [%s] must have at least two longitude,latitude pairs", value);
+    return path;
+  }
+
+  private static List<Location> readVertices(Key key, String value) {
+    List<String> values = Splitter.on(',').trimResults().splitToList(value);
+    checkArgument(
+        values.size() % 2 == 0,
+        "%s [%s] must be a list of longitude,latitude pairs", key.toUpperCamel(), value);
+
+    List<Location> vertices = new ArrayList<>();
+
+    for (int i = 0; i < values.size(); i += 2) {
+      Double longitude = Doubles.tryParse(values.get(i));
+      Double latitude = Doubles.tryParse(values.get(i + 1));
+      checkArgument(
+          longitude != null && latitude != null,
+          "Could not parse %s vertex [%s,%s]", key, values.get(i), values.get(i + 1));
+      vertices.add(Location.create(latitude, longitude));
+    }
+
+    return vertices;
   }
 
   /* Enum to upper camel case */
@@ -125,35 +455,55 @@ class BasinUtil {
     }
   }
 
-  /* A {@code JsonDeserializer} for {@code ArcGisResult} */
-  private static final class ArcGisDeserializer
-      implements
-      JsonDeserializer<ArcGisResult> {
+  /*
+   * A {@code JsonSerializer} for {@code Result} that omits the grid node unless
+   * nearest node resolution was used.
+   */
+  private static final class ResultSerializer implements JsonSerializer<Result> {
 
     @Override
-    public ArcGisResult deserialize(JsonElement json, Type typeOfT,
-        JsonDeserializationContext context) throws JsonParseException {
-
-      JsonObject jsonObject = json.getAsJsonObject();
-      JsonObject attributesJson = jsonObject.get(Key.ATTRIBUTES.toString())
-          .getAsJsonObject();
+    public JsonElement serialize(
+        Result result,
+        Type typeOfSrc,
+        JsonSerializationContext context) {
 
-      Map<String, Double> basinModels = new TreeMap<>();
+      JsonObject json = new JsonObject();
+      json.add("request", context.serialize(result.request));
+      json.add("response", context.serialize(result.response));
 
-      for (String key : attributesJson.keySet()) {
-        if (key.contains(Key.Z1P0.toString()) ||
-            key.contains(Key.Z2P5.toString())) {
-          Double value = readArcValue(attributesJson, key);
-          basinModels.put(key, value);
-        }
+      if (result.node != null) {
+        json.add("node", context.serialize(result.node));
       }
 
-      double latitude = readArcValue(attributesJson, Key.LAT.toUpperCamel());
-      double longitude = readArcValue(attributesJson, Key.LON.toUpperCamel());
+      return json;
+    }
+  }
 
-      ArcGisResult result = new ArcGisResult(basinModels, latitude, longitude);
+  /*
+   * A {@code JsonSerializer} for {@code Response} that omits the grid node
+   * unless nearest node resolution was used.
+   */
+  private static final class ResponseSerializer implements JsonSerializer<Response> {
 
-      return result;
+    @Override
+    public JsonElement serialize(
+        Response response,
+        Type typeOfSrc,
+        JsonSerializationContext context) {
+
+      JsonObject json = new JsonObject();
+      json.addProperty("status", response.status);
+      json.addProperty("name", response.name);
+      json.addProperty("date", response.date);
+      json.addProperty("url", response.url);
+      json.add("request", context.serialize(response.request));
+      json.add("response", context.serialize(response.response));
+
+      if (response.node != null) {
+        json.add("node", context.serialize(response.node));
+      }
+
+      return json;
     }
   }
 
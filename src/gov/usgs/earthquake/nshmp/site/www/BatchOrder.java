@@ -0,0 +1,135 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.util.Maths;
+
+/**
+ * Processing order of the sites of a batch request.
+ *
+ * <p> Sites are processed in Z-order (Morton order) of their grid nodes, so
+ * that consecutive sites are near each other: they mostly fall in the same
+ * basin region and touch adjacent nodes of the same basin grid, whatever the
+ * order of the request. Sites of the same grid node are adjacent in this
+ * order, so a site that shares the result of the previous site, of the same
+ * grid node or of the same location, is not processed again. Results are
+ * returned in the order of the request.
+ *
+ * @author Brandon Clayton
+ */
+class BatchOrder {
+
+  /* Bits of each grid unit coordinate in a Morton code */
+  private static final int COORDINATE_BITS = 18;
+  private static final long COORDINATE_OFFSET = 1L << (COORDINATE_BITS - 1);
+
+  /* Bits of the site index packed below the Morton code of a site */
+  private static final int INDEX_BITS = 20;
+  private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+  private BatchOrder() {}
+
+  /**
+   * The processing of a single site of a batch.
+   */
+  @FunctionalInterface
+  interface SiteFunction<T> {
+    T apply(double latitude, double longitude);
+  }
+
+  /**
+   * Process the sites of a batch in Morton order of their grid nodes, returning
+   * the results in the order of the sites.
+   *
+   * @param sites The sites
+   * @param byNode Whether sites of the same grid node share a result, e.g.
+   *        for results of locations rounded to the grid; otherwise only sites
+   *        of the same location do
+   * @param function The processing of a site
+   */
+  static <T> List<T> process(List<Location> sites, boolean byNode, SiteFunction<T> function) {
+    int size = sites.size();
+    checkArgument(size <= INDEX_MASK + 1, "Batch of %s sites is too large", size);
+
+    long[] order = new long[size];
+
+    for (int i = 0; i < size; i++) {
+      Location site = sites.get(i);
+      long code = mortonCode(BasinGrid.gridUnits(site.lat()), BasinGrid.gridUnits(site.lon()));
+      order[i] = (code << INDEX_BITS) | i;
+    }
+
+    Arrays.sort(order);
+
+    @SuppressWarnings("unchecked")
+    T[] results = (T[]) new Object[size];
+    long previous = -1;
+
+    for (long entry : order) {
+      int index = (int) (entry & INDEX_MASK);
+      Location site = sites.get(index);
+
+      if (previous >= 0 && isSame(previous, entry, sites, byNode)) {
+        results[index] = results[(int) (previous & INDEX_MASK)];
+        continue;
+      }
+
+      results[index] = function.apply(site.lat(), site.lon());
+      previous = entry;
+    }
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Returns the Morton code of a grid node: the bits of the latitude and
+   * longitude, offset to be positive, interleaved.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  static long mortonCode(long latUnits, long lonUnits) {
+    return (spread(latUnits + COORDINATE_OFFSET) << 1) | spread(lonUnits + COORDINATE_OFFSET);
+  }
+
+  /* Spread the low COORDINATE_BITS bits of a value to the even bits */
+  private static long spread(long value) {
+    long x = value & ((1L << COORDINATE_BITS) - 1);
+    x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+    x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+    x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+    x = (x | (x << 2)) & 0x3333333333333333L;
+    x = (x | (x << 1)) & 0x5555555555555555L;
+    return x;
+  }
+
+  /* Grid units of a latitude or longitude rounded as the basin service does */
+  private static long roundedUnits(double value) {
+    return BasinGrid.gridUnits(Maths.round(value, BasinData.BASIN_DATA_SPACING));
+  }
+
+  /*
+   * Whether the sites of two entries of the order share a result. The order
+   * is by the nearest grid node, which for values halfway between nodes may
+   * differ from the node the service rounds to, so sites of different
+   * locations are compared by their rounded grid units.
+   */
+  private static boolean isSame(long a, long b, List<Location> sites, boolean byNode) {
+    if ((a >>> INDEX_BITS) != (b >>> INDEX_BITS)) return false;
+
+    Location siteA = sites.get((int) (a & INDEX_MASK));
+    Location siteB = sites.get((int) (b & INDEX_MASK));
+    if (siteA.lat() == siteB.lat() && siteA.lon() == siteB.lon()) return true;
+
+    return byNode &&
+        roundedUnits(siteA.lat()) == roundedUnits(siteB.lat()) &&
+        roundedUnits(siteA.lon()) == roundedUnits(siteB.lon());
+  }
+
+}
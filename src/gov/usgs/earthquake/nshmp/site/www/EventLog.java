@@ -0,0 +1,545 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.common.base.Throwables;
+import com.google.common.primitives.Doubles;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gson.stream.JsonWriter;
+
+import gov.usgs.earthquake.nshmp.site.www.BasinUtil.Key;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+
+/**
+ * Structured log of requests and errors, one JSON object per line.
+ *
+ * <p> Request threads never block on the log: events are offered to a bounded,
+ * lock-free ring buffer and written to the log by a single background thread.
+ * When the buffer is full the event is dropped and counted; the number of
+ * dropped events is logged by the writer. Errors are always offered, while
+ * only a sample of successful requests is, so an error storm, e.g. the ArcGIS
+ * service being down, is not serialized on the console stream of the request
+ * threads. When the service is undeployed the writer is stopped, the buffered
+ * events written, and the log closed.
+ *
+ * <p> Each request event has the method and route of the request, the source
+ * of the values, the site rounded to the grid, its basin and basin model where
+ * known, the number of sites of a batch, and the latency in ms. Error events
+ * add the error class, message, and stack trace.
+ *
+ * <p> Configured in config.properties:
+ *
+ * <ul><li>{@code event_log}: the log file, appended to; by default events are
+ * written to standard error</li>
+ *
+ * <li>{@code event_log_sample_rate}: fraction of successful requests logged,
+ * default 0.01</li>
+ *
+ * <li>{@code event_log_buffer}: events buffered before events are dropped,
+ * default 8192</li></ul>
+ *
+ * @author Brandon Clayton
+ */
+class EventLog {
+
+  /**
+   * Source of the values of a request.
+   */
+  enum Source {
+    /** The local basin data. */
+    LOCAL,
+
+    /** The ArcGIS online service. */
+    ARCGIS;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  private static final String SUCCESS = "success";
+  private static final String ERROR = "error";
+  private static final String DROPPED = "dropped";
+
+  /* Wait of the writer when the buffer is empty */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /* Wait for the writer to stop */
+  private static final long STOP_MILLIS = 5000;
+
+  private static final EventLog LOG = open();
+
+  private final Ring<Event> ring;
+  private final double sampleRate;
+  private final Writer out;
+
+  private final LongAdder dropped = new LongAdder();
+  private long droppedLogged;
+
+  private volatile boolean stopped;
+  private Thread writer;
+
+  /**
+   * Create a new log. Events are written only when drained, see
+   * {@link #drain()} and {@link #start()}.
+   *
+   * @param out The log
+   * @param capacity The number of events buffered
+   * @param sampleRate The fraction of successful requests logged
+   */
+  EventLog(Writer out, int capacity, double sampleRate) {
+    checkArgument(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be in [0, 1]");
+    this.ring = new Ring<>(capacity);
+    this.sampleRate = sampleRate;
+    this.out = out;
+  }
+
+  /**
+   * Stop the log of config.properties, writing what is buffered. Called when
+   * the service is undeployed, see {@link WarmUpListener}.
+   */
+  static void shutdown() {
+    LOG.stop();
+  }
+
+  /**
+   * Start writing events on a background thread until the log is stopped,
+   * returning this log.
+   */
+  EventLog start() {
+    checkState(writer == null, "Event log already started");
+    writer = new Thread(() -> {
+      while (!stopped) {
+        if (drain() == 0) {
+          LockSupport.parkNanos(IDLE_NANOS);
+        }
+      }
+    }, "event-log");
+    writer.setDaemon(true);
+    writer.start();
+    return this;
+  }
+
+  /**
+   * Stop the background thread, write the buffered events, and close the log.
+   * Events offered after the log is stopped are not written.
+   */
+  void stop() {
+    stopped = true;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+      Uninterruptibles.joinUninterruptibly(writer, STOP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized (this) {
+      drain();
+      try {
+        out.close();
+      } catch (IOException e) {
+        /* Nowhere left to report it */
+      }
+    }
+  }
+
+  /**
+   * Log a successful request.
+   *
+   * @param request The request
+   * @param source The source of the values
+   * @param startNanos The {@code System.nanoTime()} the request started
+   */
+  static void success(HttpServletRequest request, Source source, long startNanos) {
+    if (!LOG.sample()) return;
+    LOG.offer(new Event(request, source, startNanos, Double.NaN, Double.NaN, null, null, 0, null));
+  }
+
+  /**
+   * Log a successful batch request.
+   *
+   * @param request The request
+   * @param source The source of the values
+   * @param startNanos The {@code System.nanoTime()} the request started
+   * @param sites The number of sites of the batch
+   */
+  static void success(HttpServletRequest request, Source source, long startNanos, int sites) {
+    if (!LOG.sample()) return;
+    LOG.offer(new Event(request, source, startNanos, Double.NaN, Double.NaN, null, null, sites,
+        null));
+  }
+
+  /**
+   * Log a successful request of a site.
+   *
+   * @param request The request
+   * @param source The source of the values
+   * @param startNanos The {@code System.nanoTime()} the request started
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param basin The basin id, may be {@code null}
+   * @param model The basin model id, may be {@code null}
+   */
+  static void success(
+      HttpServletRequest request,
+      Source source,
+      long startNanos,
+      double latitude,
+      double longitude,
+      String basin,
+      String model) {
+    if (!LOG.sample()) return;
+    LOG.offer(new Event(request, source, startNanos, latitude, longitude, basin, model, 1, null));
+  }
+
+  /**
+   * Log a failed request. The site is read from the {@code latitude} and
+   * {@code longitude} query values, if any.
+   *
+   * @param request The request
+   * @param source The source of the values
+   * @param startNanos The {@code System.nanoTime()} the request started
+   * @param error The error
+   */
+  static void error(
+      HttpServletRequest request,
+      Source source,
+      long startNanos,
+      Throwable error) {
+    LOG.offer(new Event(
+        request,
+        source,
+        startNanos,
+        readDouble(request, Key.LATITUDE),
+        readDouble(request, Key.LONGITUDE),
+        null,
+        null,
+        0,
+        error));
+  }
+
+  /**
+   * Log an error outside of a request, e.g. at startup.
+   *
+   * @param context What failed, logged as the route
+   * @param error The error
+   */
+  static void error(String context, Throwable error) {
+    LOG.offer(new Event(null, context, null, -1, Double.NaN, Double.NaN, null, null, 0, error));
+  }
+
+  /* Returns whether a successful request is logged */
+  boolean sample() {
+    return sampleRate >= 1.0 ||
+        (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+  }
+
+  /* Buffer an event, without blocking */
+  void offer(Event event) {
+    if (!ring.offer(event)) {
+      dropped.increment();
+    }
+  }
+
+  /** Returns the number of events dropped. */
+  long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Write the buffered events, and the number of events dropped since the
+   * last drain, if any. Returns the number of events written.
+   */
+  synchronized int drain() {
+    int count = 0;
+
+    try {
+      Event event;
+      while ((event = ring.poll()) != null) {
+        write(event);
+        count++;
+      }
+
+      long droppedNow = dropped.sum();
+      if (droppedNow > droppedLogged) {
+        writeDropped(droppedNow - droppedLogged);
+        droppedLogged = droppedNow;
+      }
+
+      out.flush();
+    } catch (IOException e) {
+      /* Nowhere left to report it */
+    }
+
+    return count;
+  }
+
+  private void write(Event event) throws IOException {
+    JsonWriter json = jsonWriter();
+    json.beginObject();
+    json.name("time").value(Instant.ofEpochMilli(event.time).toString());
+    json.name("status").value(event.error == null ? SUCCESS : ERROR);
+    json.name("method").value(event.method);
+    json.name("route").value(event.route);
+    json.name("source").value(event.source == null ? null : event.source.toString());
+
+    if (!Double.isNaN(event.latitude) && !Double.isNaN(event.longitude)) {
+      json.name("latitude").value(round(event.latitude));
+      json.name("longitude").value(round(event.longitude));
+    }
+    if (event.basin != null) {
+      json.name("basin").value(event.basin);
+    }
+    if (event.model != null) {
+      json.name("model").value(event.model);
+    }
+    if (event.sites > 1) {
+      json.name("sites").value(event.sites);
+    }
+    if (event.latency >= 0) {
+      json.name("latency").value(Math.round(event.latency * 1000.0) / 1000.0);
+    }
+    if (event.error != null) {
+      json.name("error").value(event.error.getClass().getName());
+      json.name("message").value(event.error.getMessage());
+      json.name("trace").value(Throwables.getStackTraceAsString(event.error));
+    }
+
+    json.endObject();
+    out.write('\n');
+  }
+
+  private void writeDropped(long count) throws IOException {
+    JsonWriter json = jsonWriter();
+    json.beginObject();
+    json.name("time").value(Instant.now().toString());
+    json.name("status").value(DROPPED);
+    json.name("dropped").value(count);
+    json.endObject();
+    out.write('\n');
+  }
+
+  /* A writer of one event; not closed, which would close the log */
+  private JsonWriter jsonWriter() {
+    JsonWriter json = new JsonWriter(out);
+    json.setSerializeNulls(false);
+    return json;
+  }
+
+  /* Site rounded to the grid */
+  private static double round(double value) {
+    return BasinResponseWriter.toDegrees(BasinGrid.gridUnits(value));
+  }
+
+  private static double readDouble(HttpServletRequest request, Key key) {
+    String value = request.getParameter(key.toString());
+    Double parsed = value == null ? null : Doubles.tryParse(value.trim());
+    return parsed == null ? Double.NaN : parsed;
+  }
+
+  /* The log of config.properties, written on a background thread */
+  private static EventLog open() {
+    Writer out;
+    IOException failure = null;
+
+    try {
+      out = BasinUtil.EVENT_LOG == null
+          ? stderr()
+          : Files.newBufferedWriter(
+              Paths.get(BasinUtil.EVENT_LOG.trim()),
+              UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      out = stderr();
+      failure = e;
+    }
+
+    EventLog log = new EventLog(out, BasinUtil.EVENT_LOG_BUFFER, BasinUtil.EVENT_LOG_SAMPLE_RATE);
+
+    if (failure != null) {
+      log.offer(new Event(null, "event log", null, -1, Double.NaN, Double.NaN, null, null, 0,
+          failure));
+    }
+
+    return log.start();
+  }
+
+  /* Standard error, flushed but left open when the log is closed */
+  private static Writer stderr() {
+    return new BufferedWriter(new OutputStreamWriter(System.err, UTF_8)) {
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+  }
+
+  /* A logged event; request values are read on the request thread */
+  static final class Event {
+    final long time;
+    final String method;
+    final String route;
+    final Source source;
+    final double latency;
+    final double latitude;
+    final double longitude;
+    final String basin;
+    final String model;
+    final int sites;
+    final Throwable error;
+
+    Event(
+        HttpServletRequest request,
+        Source source,
+        long startNanos,
+        double latitude,
+        double longitude,
+        String basin,
+        String model,
+        int sites,
+        Throwable error) {
+      this(
+          request.getMethod(),
+          route(request),
+          source,
+          (System.nanoTime() - startNanos) / 1e6,
+          latitude,
+          longitude,
+          basin,
+          model,
+          sites,
+          error);
+    }
+
+    /* An event of a request, or with a negative latency, of no request */
+    Event(
+        String method,
+        String route,
+        Source source,
+        double latency,
+        double latitude,
+        double longitude,
+        String basin,
+        String model,
+        int sites,
+        Throwable error) {
+      this.time = System.currentTimeMillis();
+      this.method = method;
+      this.route = route;
+      this.source = source;
+      this.latency = latency;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.basin = basin;
+      this.model = model;
+      this.sites = sites;
+      this.error = error;
+    }
+
+    private static String route(HttpServletRequest request) {
+      String pathInfo = request.getPathInfo();
+      return pathInfo == null ? request.getServletPath() : request.getServletPath() + pathInfo;
+    }
+  }
+
+  /**
+   * Bounded, lock-free, multiple producer, single consumer queue.
+   *
+   * <p> Each slot has a sequence number: a producer claims the slot of the
+   * tail position when its sequence equals the position, and publishes the
+   * element by advancing the sequence; the consumer takes an element once the
+   * sequence of the head slot is one past the head position. A producer that
+   * finds the tail slot not yet consumed fails immediately instead of waiting.
+   *
+   * <p> Only one thread at a time may poll.
+   */
+  static final class Ring<T> {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    /**
+     * Create a new queue.
+     *
+     * @param capacity The minimum capacity, rounded up to a power of two
+     */
+    Ring(int capacity) {
+      checkArgument(capacity > 0 && capacity <= 1 << 30, "Capacity must be in [1, 2^30]");
+      int size = 1;
+      while (size < capacity) {
+        size <<= 1;
+      }
+
+      this.capacity = size;
+      this.mask = size - 1;
+      this.slots = new AtomicReferenceArray<>(size);
+      this.sequences = new AtomicLongArray(size);
+
+      for (int i = 0; i < size; i++) {
+        sequences.set(i, i);
+      }
+    }
+
+    /** Returns the capacity of the queue. */
+    int capacity() {
+      return capacity;
+    }
+
+    /**
+     * Add an element, returning {@code false} if the queue is full.
+     *
+     * @param element The element
+     */
+    boolean offer(T element) {
+      while (true) {
+        long position = tail.get();
+        int index = (int) (position & mask);
+        long sequence = sequences.get(index);
+
+        if (sequence < position) return false;
+
+        if (sequence == position && tail.compareAndSet(position, position + 1)) {
+          slots.lazySet(index, element);
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+      }
+    }
+
+    /** Remove and return the head element, or {@code null} if empty. */
+    T poll() {
+      int index = (int) (head & mask);
+      if (sequences.get(index) != head + 1) return null;
+
+      T element = slots.get(index);
+      slots.lazySet(index, null);
+      sequences.lazySet(index, head + capacity);
+      head++;
+      return element;
+    }
+  }
+
+}
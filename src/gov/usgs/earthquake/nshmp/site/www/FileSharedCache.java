@@ -0,0 +1,71 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+
+/**
+ * Shared cache of ArcGIS results in a directory, e.g. on a network file
+ * system mounted by all replicas, with one JSON file per grid node:
+ * {@code dir/latUnits/lonUnits.json}.
+ *
+ * <p> Files are written to a temporary file and then moved in place, so a
+ * partially written file is never read. Files are never removed; the cache
+ * may be cleared by deleting the directory when the ArcGIS datasets change.
+ *
+ * <p> Note: Replicas that miss a grid node at about the same time each fetch
+ * it from the ArcGIS service, and the last file moved in place is kept, so a
+ * grid node is fetched at most once per replica rather than once for all
+ * replicas. Later misses of the grid node read the file. See
+ * {@link PeerSharedCache} for a single fetch of each grid node.
+ *
+ * @author Brandon Clayton
+ */
+class FileSharedCache implements SharedCache {
+
+  private final Path dir;
+
+  FileSharedCache(Path dir) {
+    this.dir = dir;
+  }
+
+  @Override
+  public ArcGisResult get(long latUnits, long lonUnits) {
+    try {
+      byte[] bytes = Files.readAllBytes(path(latUnits, lonUnits));
+      return ArcGisResult.fromJson(new String(bytes, UTF_8));
+    } catch (IOException | RuntimeException e) {
+      /* Missing or unreadable */
+      return null;
+    }
+  }
+
+  @Override
+  public void put(long latUnits, long lonUnits, ArcGisResult result) {
+    Path path = path(latUnits, lonUnits);
+
+    Path tmp = null;
+
+    try {
+      Files.createDirectories(path.getParent());
+      tmp = Files.createTempFile(path.getParent(), ".", ".tmp");
+      Files.write(tmp, result.json().getBytes(UTF_8));
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      /* Best effort */
+      try {
+        if (tmp != null) Files.deleteIfExists(tmp);
+      } catch (IOException ignored) {}
+    }
+  }
+
+  private Path path(long latUnits, long lonUnits) {
+    return dir.resolve(Long.toString(latUnits)).resolve(lonUnits + ".json");
+  }
+
+}
@@ -0,0 +1,128 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+
+/**
+ * Shared cache of ArcGIS results in which each grid node is owned by one
+ * replica of the basin service.
+ *
+ * <p> Grid nodes are assigned to replicas by consistent hashing, so adding or
+ * removing a replica reassigns only the grid nodes of about one replica. A
+ * replica that misses a grid node it does not own asks the owner, with
+ * {@code /basin/arc-data/cell}, which returns the result from its own cache
+ * or fetches it from the ArcGIS service, so each grid node is fetched once
+ * for all replicas. Misses of owned grid nodes, and of nodes whose owner does
+ * not respond, are fetched from the ArcGIS service directly.
+ *
+ * <p> All replicas must be configured with the same list of peers.
+ *
+ * @author Brandon Clayton
+ */
+class PeerSharedCache implements SharedCache {
+
+  static final String CELL_PATH = "/nshmp-site-ws/basin/arc-data/cell";
+
+  /* Points of each peer on the hash ring */
+  private static final int VIRTUAL_NODES = 64;
+
+  private static final int CONNECT_TIMEOUT = 1000;
+  private static final int READ_TIMEOUT = 30000;
+
+  private static final HashFunction HASH = Hashing.murmur3_32();
+
+  private final TreeMap<Integer, String> ring = new TreeMap<>();
+  private final String self;
+
+  /**
+   * Create a new peer cache.
+   *
+   * @param peers The URL of the {@code /basin/arc-data/cell} route of each
+   *        replica, including this replica
+   * @param self The URL of the route of this replica
+   */
+  PeerSharedCache(List<String> peers, String self) {
+    checkArgument(peers.contains(self), "Peers %s do not include [%s]", peers, self);
+    this.self = self;
+
+    for (String peer : peers) {
+      for (int i = 0; i < VIRTUAL_NODES; i++) {
+        ring.put(HASH.hashString(peer + "#" + i, UTF_8).asInt(), peer);
+      }
+    }
+  }
+
+  /**
+   * Create a new peer cache from the {@code service_host} of each replica.
+   *
+   * @param serviceHosts The service host of each replica, e.g.
+   *        {@code http://host:8080}
+   * @param serviceHost The service host of this replica
+   */
+  static PeerSharedCache fromServiceHosts(List<String> serviceHosts, String serviceHost) {
+    List<String> peers = serviceHosts.stream()
+        .map(host -> host + CELL_PATH)
+        .collect(Collectors.toList());
+    return new PeerSharedCache(peers, serviceHost + CELL_PATH);
+  }
+
+  /**
+   * Returns the URL of the replica that owns a grid node.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  String owner(long latUnits, long lonUnits) {
+    int hash = HASH.hashLong(ArcGisCache.key(latUnits, lonUnits)).asInt();
+    Map.Entry<Integer, String> entry = ring.ceilingEntry(hash);
+    return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+  }
+
+  @Override
+  public ArcGisResult get(long latUnits, long lonUnits) {
+    String owner = owner(latUnits, lonUnits);
+    if (owner.equals(self)) return null;
+
+    String url = owner +
+        "?latitude=" + BasinResponseWriter.toDegrees(latUnits) +
+        "&longitude=" + BasinResponseWriter.toDegrees(lonUnits);
+
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(CONNECT_TIMEOUT);
+      connection.setReadTimeout(READ_TIMEOUT);
+
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        connection.disconnect();
+        return null;
+      }
+
+      try (Reader reader = new InputStreamReader(connection.getInputStream(), UTF_8)) {
+        return ArcGisResult.fromJson(CharStreams.toString(reader));
+      }
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /* The owner caches the results it fetches */
+  @Override
+  public void put(long latUnits, long lonUnits, ArcGisResult result) {}
+
+}
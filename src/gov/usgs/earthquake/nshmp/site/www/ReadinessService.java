@@ -0,0 +1,82 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static gov.usgs.earthquake.nshmp.site.www.BasinUtil.GSON;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import gov.usgs.earthquake.nshmp.site.www.WarmUp.State;
+
+/**
+ * Readiness of the service, for load balancers and container health checks.
+ *
+ * <p> Returns 200 once the basin data is loaded and the warm-up has
+ * completed, see {@link WarmUp}, and 503 with a {@code Retry-After} header
+ * before then or if the basin data could not be loaded. The body reports the
+ * state and the number of warm-up requests replayed.
+ *
+ * <p> The warm-up is started when the service is deployed, see
+ * {@link WarmUpListener}, or else when this servlet is initialized.
+ *
+ * @author Brandon Clayton
+ */
+@WebServlet(
+    name = "Readiness Service",
+    description = "Readiness of the service",
+    urlPatterns = "/ready",
+    loadOnStartup = 1)
+public class ReadinessService extends HttpServlet {
+
+  /* Seconds a health check should wait before checking again */
+  static final int RETRY_AFTER = 5;
+
+  private final WarmUp warmUp;
+
+  /** Create the readiness service of the {@link WarmUp#service()}. */
+  public ReadinessService() {
+    this(WarmUp.service());
+  }
+
+  ReadinessService(WarmUp warmUp) {
+    this.warmUp = warmUp;
+  }
+
+  @Override
+  public void init() throws ServletException {
+    warmUp.start();
+  }
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    State state = warmUp.state();
+
+    if (state != State.READY) {
+      response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      response.setHeader("Retry-After", Integer.toString(RETRY_AFTER));
+    }
+
+    response.setContentType("application/json");
+    response.setHeader("Cache-Control", "no-store");
+    response.getWriter().print(GSON.toJson(new Readiness(state, warmUp.completed())));
+  }
+
+  private static class Readiness {
+    final String status;
+    final int warmupRequests;
+
+    Readiness(State state, int warmupRequests) {
+      this.status = state.toString();
+      this.warmupRequests = warmupRequests;
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.file.Paths;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+
+/**
+ * Second level cache of ArcGIS results by grid node, shared between the
+ * replicas of the basin service so that each grid node is fetched from the
+ * ArcGIS service about once for all replicas.
+ *
+ * <p> A shared cache is best effort: a lookup that fails is a miss, and a
+ * store that fails is ignored.
+ *
+ * <p> Configured in config.properties with {@code shared_cache}:
+ *
+ * <ul><li>{@code none}: no shared cache, the default</li>
+ *
+ * <li>{@code file}: a directory shared by all replicas, e.g. a network file
+ * system, given by {@code shared_cache_dir}, see {@link FileSharedCache}</li>
+ *
+ * <li>{@code peer}: each grid node is owned by one replica, given by
+ * {@code shared_cache_peers}, a comma separated list of the
+ * {@code service_host} of each replica, see {@link PeerSharedCache}</li></ul>
+ *
+ * @author Brandon Clayton
+ */
+interface SharedCache {
+
+  /**
+   * Returns the result of a grid node, or {@code null} if not available.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  ArcGisResult get(long latUnits, long lonUnits);
+
+  /**
+   * Store the result of a grid node, fetched from the ArcGIS service.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   * @param result The result, in km with the derived layer applied
+   */
+  void put(long latUnits, long lonUnits, ArcGisResult result);
+
+  /**
+   * Returns the shared cache of config.properties, or {@code null} if none.
+   */
+  static SharedCache fromConfig() {
+    switch (BasinUtil.SHARED_CACHE) {
+      case "none":
+        return null;
+      case "file":
+        checkArgument(BasinUtil.SHARED_CACHE_DIR != null, "Missing shared_cache_dir");
+        return new FileSharedCache(Paths.get(BasinUtil.SHARED_CACHE_DIR.trim()));
+      case "peer":
+        return PeerSharedCache.fromServiceHosts(
+            BasinUtil.SHARED_CACHE_PEERS,
+            BasinUtil.SERVICE_HOST);
+      default:
+        throw new IllegalArgumentException(
+            "Shared cache [" + BasinUtil.SHARED_CACHE + "] not supported");
+    }
+  }
+
+}
@@ -0,0 +1,227 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static gov.usgs.earthquake.nshmp.site.www.BasinUtil.GSON;
+import static gov.usgs.earthquake.nshmp.www.Util.readDouble;
+import static gov.usgs.earthquake.nshmp.www.meta.Metadata.errorMessage;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Strings;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.BasinRegionRequest;
+import gov.usgs.earthquake.nshmp.site.www.BasinUtil.Key;
+import gov.usgs.earthquake.nshmp.site.www.EventLog.Source;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinVersions.Version;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+import gov.usgs.earthquake.nshmp.site.www.basin.SiteLayers;
+import gov.usgs.earthquake.nshmp.util.Maths;
+import gov.usgs.earthquake.nshmp.www.NshmpServlet;
+import gov.usgs.earthquake.nshmp.www.meta.Status;
+
+/**
+ * Site service to return all site parameters of a site from local data: the
+ * basin region, basin model, z1p0, and z2p5 of the local basin data, and the
+ * value of each site layer, e.g. Vs30.
+ *
+ * <p> Site layers are read from the {@code *.csv} files of the
+ * {@code site_layers} directory in config.properties, see {@link SiteLayers};
+ * there are none by default. The layers are listed in the service usage.
+ *
+ * <p> Batch requests are made with a POST with a body of
+ * {@code longitude,latitude} lines, processed in grid order, see
+ * {@link BatchOrder}. A previous version of the basin data may
+ * be requested with {@code version}, see {@link BasinTermService}.
+ *
+ * <p> Note: Values are null where there is no data, including sites outside a
+ * basin region or the extent of a site layer.
+ *
+ * @author Brandon Clayton
+ */
+@WebServlet(
+    name = "Site Service",
+    description = "Utility for getting site parameters",
+    urlPatterns = "/site")
+public class SiteService extends NshmpServlet {
+
+  static final SiteLayers SITE_LAYERS = BasinUtil.SITE_LAYERS == null
+      ? SiteLayers.EMPTY
+      : SiteLayers.read(
+          Paths.get(BasinUtil.SITE_LAYERS.trim()),
+          /* Site layer values, e.g. Vs30 in m/s, cannot be quantized */
+          BasinUtil.BASIN_DATA_STORAGE == Storage.MAPPED ? Storage.MAPPED : Storage.DOUBLE);
+
+  private static final String SERVICE_NAME = "Site Service";
+  private static final String SERVICE_DESCRIPTION = "Get site parameters";
+  private static final String SERVICE_SYNTAX = "%s://%s/nshmp-site-ws/site" +
+      "?latitude={latitude}&longitude={longitude}";
+
+  private static final String BASIN_REGION = "basinRegion";
+  private static final String BASIN_MODEL = "basinModel";
+
+  @Override
+  protected void doGet(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    long start = System.nanoTime();
+    UrlHelper urlHelper = NshmpServlet.urlHelper(request, response);
+
+    try {
+      if (Strings.isNullOrEmpty(request.getQueryString())) {
+        String usage = GSON.toJson(new Metadata());
+        urlHelper.writeResponse(usage);
+        EventLog.success(request, Source.LOCAL, start);
+        return;
+      }
+
+      Version version = readVersion(request);
+      double latitude = readDouble(Key.LATITUDE, request);
+      double longitude = readDouble(Key.LONGITUDE, request);
+      Map<String, Object> site = processSite(version, latitude, longitude);
+
+      String json = GSON.toJson(new Response(version, site, urlHelper.url));
+      urlHelper.writeResponse(json);
+
+      BasinRegionRequest basinRegion = (BasinRegionRequest) site.get(BASIN_REGION);
+      BasinModel basinModel = (BasinModel) site.get(BASIN_MODEL);
+      EventLog.success(
+          request,
+          Source.LOCAL,
+          start,
+          latitude,
+          longitude,
+          basinRegion == null ? null : basinRegion.id,
+          basinModel == null ? null : basinModel.id);
+    } catch (Exception e) {
+      EventLog.error(request, Source.LOCAL, start, e);
+      response.getWriter().print(errorMessage(urlHelper.url, e, false));
+    }
+  }
+
+  /**
+   * Batch request of site parameters. The request body is a list of sites,
+   * one {@code longitude,latitude} pair per line.
+   */
+  @Override
+  protected void doPost(
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws ServletException, IOException {
+
+    long start = System.nanoTime();
+    UrlHelper urlHelper = NshmpServlet.urlHelper(request, response);
+
+    try {
+      Version version = readVersion(request);
+      List<Location> sites = BasinUtil.readSites(request.getReader());
+
+      /* Site layers may be finer than the basin grid; share results by location */
+      List<Map<String, Object>> results = BatchOrder.process(
+          sites,
+          false,
+          (lat, lon) -> processSite(version, lat, lon));
+
+      String json = GSON.toJson(new Response(version, results, urlHelper.url));
+      urlHelper.writeResponse(json);
+      EventLog.success(request, Source.LOCAL, start, sites.size());
+    } catch (Exception e) {
+      EventLog.error(request, Source.LOCAL, start, e);
+      response.getWriter().print(errorMessage(urlHelper.url, e, false));
+    }
+  }
+
+  /* The version query value, the latest version by default */
+  private static Version readVersion(HttpServletRequest request) {
+    return BasinTermService.VERSIONS.get(request.getParameter(Key.VERSION.toString()));
+  }
+
+  /*
+   * The site parameters of a site. The basin region and basin grid node are
+   * found from the grid units of the site, computed once from the site rounded
+   * as for /basin/local-data, see BasinTermService.
+   */
+  static Map<String, Object> processSite(Version version, double latitude, double longitude) {
+    Map<String, Object> site = new LinkedHashMap<>();
+    site.put(Key.LATITUDE.toString(), latitude);
+    site.put(Key.LONGITUDE.toString(), longitude);
+
+    long latUnits = BasinGrid.gridUnits(Maths.round(latitude, BasinData.BASIN_DATA_SPACING));
+    long lonUnits = BasinGrid.gridUnits(Maths.round(longitude, BasinData.BASIN_DATA_SPACING));
+    BasinRegion region = version.basins.findRegion(latUnits, lonUnits);
+    BasinGrid grid = region == null ? null : version.basinData.getBasinGrid(region.basin);
+    int index = grid == null ? -1 : grid.index(latUnits, lonUnits);
+    boolean hasData = grid != null && grid.contains(index);
+
+    site.put(BASIN_REGION, region == null ? null : new BasinRegionRequest(region));
+    site.put(BASIN_MODEL, grid == null ? null : grid.model);
+    site.put(Key.Z1P0.toString(), hasData ? toValue(grid.z1p0(index)) : null);
+    site.put(Key.Z2P5.toString(), hasData ? toValue(grid.z2p5(index)) : null);
+
+    double[] values = SITE_LAYERS.values(latitude, longitude);
+    for (int i = 0; i < values.length; i++) {
+      site.put(SITE_LAYERS.layers().get(i), toValue(values[i]));
+    }
+
+    return site;
+  }
+
+  private static Double toValue(double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  private static class Response {
+    final String status;
+    final String name;
+    final String date;
+    final String url;
+    final String version;
+    final Object response;
+
+    Response(Version version, Object response, String url) {
+      this.status = Status.SUCCESS.toString();
+      this.name = SERVICE_NAME;
+      this.date = new Date().toString();
+      this.url = url;
+      this.version = version.id;
+      this.response = response;
+    }
+  }
+
+  private static class Metadata {
+    final String status;
+    final String name;
+    final String description;
+    final String syntax;
+    final List<String> siteLayers;
+    final String latestVersion;
+    final Set<String> versions;
+
+    Metadata() {
+      this.status = Status.USAGE.toString();
+      this.name = SERVICE_NAME;
+      this.description = SERVICE_DESCRIPTION;
+      this.syntax = SERVICE_SYNTAX;
+      this.siteLayers = SITE_LAYERS.layers();
+      this.latestVersion = BasinTermService.VERSIONS.latest().id;
+      this.versions = BasinTermService.VERSIONS.versions();
+    }
+  }
+
+}
@@ -0,0 +1,265 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static gov.usgs.earthquake.nshmp.site.www.BasinUtil.GSON;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.CharStreams;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.BatchResponse;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Response;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinVersions.Version;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Warm-up of the basin term service on startup, and the readiness of the
+ * service.
+ *
+ * <p> The latest basin data and the site layers are loaded, then a sample of
+ * site queries is replayed on background threads through the request paths
+ * of {@link BasinTermService} and {@link SiteService}: single local data
+ * requests, as JSON from the response writer and from the {@code Response}
+ * serializer, batch requests, and site requests. Classes are loaded, the JIT
+ * compiles the request paths, the GSON adapters are initialized, and the
+ * basin regions and grids are paged in before the service reports ready,
+ * see {@link ReadinessService}. The ArcGIS routes are not warmed up, so
+ * warm-up makes no calls to the ArcGIS service.
+ *
+ * <p> Configured in config.properties:
+ *
+ * <ul><li>{@code warmup}: {@code false} to report ready once the data is
+ * loaded, default {@code true}</li>
+ *
+ * <li>{@code warmup_sites}: a file of {@code longitude,latitude} lines, as
+ * for a batch request, to replay; by default a sample of the populated nodes
+ * of each basin grid and of sites outside the basins</li>
+ *
+ * <li>{@code warmup_requests}: requests to replay, default 20000</li>
+ *
+ * <li>{@code warmup_threads}: threads replaying requests, default 2</li></ul>
+ *
+ * <p> Use {@link #service()} to get the warm-up of the service.
+ *
+ * @author Brandon Clayton
+ */
+class WarmUp {
+
+  /**
+   * State of the service.
+   */
+  enum State {
+    /** The basin data is loading. */
+    LOADING,
+
+    /** Requests are being replayed. */
+    WARMING_UP,
+
+    /** The service is ready. */
+    READY,
+
+    /** The basin data could not be loaded. */
+    FAILED;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase().replace('_', '-');
+    }
+  }
+
+  private static final String URL = "http://localhost/nshmp-site-ws/basin/local-data";
+
+  /* Sampled populated nodes of each basin grid */
+  private static final int SAMPLE_NODES = 500;
+
+  /* Sites outside the basins: central US, Hawaii, Puerto Rico */
+  private static final double[][] OUTSIDE = { { 40.0, -100.0 }, { 21.3, -157.8 }, { 18.4, -66.1 } };
+
+  /* Request paths replayed in turn, see request() */
+  private static final int PATHS = 4;
+
+  private static final int BATCH_SIZE = 20;
+
+  private static final WarmUp SERVICE = new WarmUp(
+      BasinUtil.WARMUP,
+      BasinUtil.WARMUP_SITES,
+      BasinUtil.WARMUP_REQUESTS,
+      BasinUtil.WARMUP_THREADS);
+
+  private final boolean enabled;
+  private final String sitesPath;
+  private final int requests;
+  private final int threads;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicInteger completed = new AtomicInteger();
+  private volatile State state = State.LOADING;
+
+  /**
+   * Create a new warm-up.
+   *
+   * @param enabled Whether to replay requests once the data is loaded
+   * @param sitesPath The file of sites to replay, {@code null} for a sample
+   * @param requests The number of requests to replay
+   * @param threads The number of threads replaying requests
+   */
+  WarmUp(boolean enabled, String sitesPath, int requests, int threads) {
+    this.enabled = enabled;
+    this.sitesPath = sitesPath == null ? null : sitesPath.trim();
+    this.requests = requests;
+    this.threads = threads;
+  }
+
+  /** Returns the warm-up of the service, configured in config.properties. */
+  static WarmUp service() {
+    return SERVICE;
+  }
+
+  /**
+   * Start the warm-up on a background thread, if not already started.
+   */
+  void start() {
+    if (!started.compareAndSet(false, true)) return;
+
+    Thread thread = new Thread(this::run, "warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Returns the state of the service. */
+  State state() {
+    return state;
+  }
+
+  /** Returns the number of requests replayed. */
+  int completed() {
+    return completed.get();
+  }
+
+  private void run() {
+    try {
+      Version version = BasinTermService.VERSIONS.latest();
+      SiteService.SITE_LAYERS.layers();
+
+      if (!enabled) {
+        state = State.READY;
+        return;
+      }
+
+      List<Location> sites = sitesPath == null ? sample(version) : readSites(sitesPath);
+      state = State.WARMING_UP;
+
+      ExecutorService executor = Executors.newFixedThreadPool(
+          threads,
+          runnable -> {
+            Thread thread = new Thread(runnable, "warm-up-worker");
+            thread.setDaemon(true);
+            return thread;
+          });
+      AtomicInteger next = new AtomicInteger();
+
+      for (int i = 0; i < threads; i++) {
+        executor.execute(() -> {
+          int request;
+          while ((request = next.getAndIncrement()) < requests) {
+            request(version, sites, request);
+            completed.incrementAndGet();
+          }
+        });
+      }
+
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      state = State.READY;
+    } catch (Throwable e) {
+      state = State.FAILED;
+      EventLog.error("warm-up", e);
+    }
+  }
+
+  /*
+   * Replay a request of a site. Sites in a basin region without data are
+   * error responses; the error path is warmed up too.
+   */
+  private static void request(Version version, List<Location> sites, int request) {
+    Location site = sites.get(request % sites.size());
+
+    try {
+      switch (request % PATHS) {
+        case 0:
+          BasinTermService.writeBasinTermWithLocalData(
+              Double.toString(site.lat()),
+              Double.toString(site.lon()),
+              null,
+              URL).writeTo(CharStreams.nullWriter());
+          break;
+        case 1:
+          Result result = BasinTermService.processBasinTermWithLocalData(site.lat(), site.lon());
+          GSON.toJson(new Response(result, URL));
+          break;
+        case 2:
+          int from = request % sites.size();
+          List<Location> batch = sites.subList(from, Math.min(from + BATCH_SIZE, sites.size()));
+          List<Result> results = BatchOrder.process(
+              batch,
+              true,
+              BasinTermService::processBasinTermWithLocalData);
+          GSON.toJson(new BatchResponse(results, URL));
+          break;
+        default:
+          GSON.toJson(SiteService.processSite(version, site.lat(), site.lon()));
+      }
+    } catch (IOException | RuntimeException e) {
+      /* An error response */
+    }
+  }
+
+  /* Populated nodes of each basin grid and sites outside the basins, shuffled */
+  private static List<Location> sample(Version version) {
+    List<Location> sites = new ArrayList<>();
+
+    for (BasinRegion region : version.basins) {
+      BasinGrid grid = version.basinData.getBasinGrid(region.basin);
+      int step = Math.max(1, grid.size() / SAMPLE_NODES);
+
+      for (int index = 0; index < grid.size(); index += step) {
+        if (grid.contains(index)) {
+          sites.add(Location.create(grid.latitude(index), grid.longitude(index)));
+        }
+      }
+    }
+
+    for (double[] site : OUTSIDE) {
+      sites.add(Location.create(site[0], site[1]));
+    }
+
+    Collections.shuffle(sites, new Random(0));
+    return sites;
+  }
+
+  private static List<Location> readSites(String path) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), UTF_8)) {
+      List<Location> sites = BasinUtil.readSites(reader);
+      if (sites.isEmpty()) {
+        throw new IllegalArgumentException("No warm-up sites in [" + path + "]");
+      }
+      return sites;
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Starts the {@link WarmUp} of the service when it is deployed, and stops the
+ * {@link ArcGisPrefetcher} and {@link EventLog} threads when it is undeployed.
+ *
+ * @author Brandon Clayton
+ */
+@WebListener
+public class WarmUpListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    WarmUp.service().start();
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    ArcGis.stopPrefetch();
+    EventLog.shutdown();
+  }
+
+}
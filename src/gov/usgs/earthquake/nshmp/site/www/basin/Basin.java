@@ -3,8 +3,6 @@ package gov.usgs.earthquake.nshmp.site.www.basin;
 import static com.google.common.base.CaseFormat.LOWER_HYPHEN;
 import static com.google.common.base.CaseFormat.UPPER_UNDERSCORE;
 
-import java.util.Arrays;
-
 /**
  * Basin ids corresponding to file name in data directory.
  * 
@@ -17,6 +15,8 @@ public enum Basin {
   PUGET_LOWLAND,
   WASATCH_FRONT;
   
+  private static final Basin[] VALUES = values();
+
   public final String id;
   
   private Basin() {
@@ -34,10 +34,11 @@ public enum Basin {
    * @param id The id of the basin
    */
   public static Basin fromId(String id) {
-    return Arrays.asList(values()).stream()
-        .filter(basin -> basin.id.equals(id))
-        .findFirst()
-        .orElseThrow(() -> new IllegalArgumentException("Basin [" + id + "] not found"));
+    for (Basin basin : VALUES) {
+      if (basin.id.equals(id)) return basin;
+    }
+
+    throw new IllegalArgumentException("Basin [" + id + "] not found");
   }
   
 }
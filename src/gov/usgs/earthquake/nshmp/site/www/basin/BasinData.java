@@ -1,14 +1,17 @@
 package gov.usgs.earthquake.nshmp.site.www.basin;
 
-import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import com.google.common.collect.ImmutableMap;
@@ -16,123 +19,263 @@ import com.google.common.collect.ImmutableMap;
 import gov.usgs.earthquake.nshmp.geo.Location;
 import gov.usgs.earthquake.nshmp.internal.Csv;
 import gov.usgs.earthquake.nshmp.internal.Csv.Record;
-import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues.BasinValue;
 import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
-import gov.usgs.earthquake.nshmp.util.Maths;
 
 /**
  * Read in all basin data from data directory.
  * 
- * <p> Use {@link BasinData#getBasinData(Basins)} to read in all basin data.
+ * <p> Use {@link BasinData#readBasinData(Basins)} to read in all basin data.
  * 
- * <p> Use {@link BasinData#getBasinValues(String, Location)} to get
+ * <p> Use {@link BasinData#getBasinValues(Basin, Location)} to get
  * {@code BasinValues} associated with a basin and {@code Location}.
  * 
+ * <p> The basin data of each basin is held in a {@link BasinGrid}; the layers
+ * of the grid are stored as {@code double} values by default or, using
+ * {@link Storage#QUANTIZED}, as whole meters in two bytes per value.
+ * 
+ * <p> The {@link DerivedLayer} of a basin is applied as the grid is built and
+ * the values are rounded to the {@code 0.001} km precision of the basin data.
+ * 
  * @author Brandon Clayton
  */
 public class BasinData {
 
   public static final double BASIN_DATA_SPACING = 0.01;
 
-  private ImmutableMap<Basin, ImmutableMap<Location, BasinValues>> basinData;
+  private final ImmutableMap<Basin, BasinGrid> basinGrids;
+  private final ImmutableMap<Basin, BasinStats> basinStats;
+
+  private BasinData(ImmutableMap<Basin, BasinGrid> basinGrids) {
+    this.basinGrids = basinGrids;
 
-  private BasinData(ImmutableMap<Basin, ImmutableMap<Location, BasinValues>> basinData) {
-    this.basinData = basinData;
+    ImmutableMap.Builder<Basin, BasinStats> basinStats = ImmutableMap.builder();
+    for (BasinGrid grid : basinGrids.values()) {
+      basinStats.put(grid.basin, BasinStats.compute(grid));
+    }
+    this.basinStats = basinStats.build();
+  }
+
+  /**
+   * Storage mode of the basin grid layers.
+   */
+  public enum Storage {
+    /** Values stored as {@code double}, 16 bytes per grid node. */
+    DOUBLE,
+
+    /**
+     * Values stored as whole meters in a {@code char}, 4 bytes per grid node.
+     * Lossless for values published in km to three decimal places.
+     */
+    QUANTIZED,
+
+    /**
+     * Values stored as {@code double} in memory-mapped temporary files, 16
+     * bytes per grid node off the heap. Pages of idle grids may be reclaimed by
+     * the operating system.
+     */
+    MAPPED;
   }
 
   /**
    * Returns the {@code BasinData} associated with all files in the data
-   * directory.
+   * directory using {@link Storage#DOUBLE} storage.
    * 
    * @param basins The basin regions from basins.geojson
    */
   public static BasinData readBasinData(Basins basins) {
-    ImmutableMap.Builder<Basin, ImmutableMap<Location, BasinValues>> basinData = ImmutableMap.builder();
+    return readBasinData(basins, Storage.DOUBLE);
+  }
 
-    for (BasinRegion region : basins) {
-      URL url = BasinData.class.getResource("../data/" + region.basin.id + ".csv");
-      Path dataPath = Paths.get(url.getPath());
+  /**
+   * Returns the {@code BasinData} associated with all files in the data
+   * directory.
+   * 
+   * @param basins The basin regions from basins.geojson
+   * @param storage The storage mode of the basin grids
+   * @throws IllegalArgumentException if {@link Storage#QUANTIZED} is requested
+   *         and a value cannot be stored without loss
+   */
+  public static BasinData readBasinData(Basins basins, Storage storage) {
+    return readBasinData(basins, basin -> {
+      URL url = BasinData.class.getResource("../data/" + basin.id + ".csv");
+      return Paths.get(url.getPath());
+    }, storage);
+  }
+
+  /**
+   * Returns the {@code BasinData} associated with the files, one
+   * {@code basin-id.csv} file per basin region, in a directory.
+   * 
+   * @param basins The basin regions
+   * @param dataDir The data directory
+   * @param storage The storage mode of the basin grids
+   * @throws IllegalStateException if the file of a basin region is missing
+   */
+  public static BasinData readBasinData(Basins basins, Path dataDir, Storage storage) {
+    return readBasinData(basins, basin -> {
+      Path dataPath = dataDir.resolve(basin.id + ".csv");
+      checkState(Files.exists(dataPath), "Missing basin data [%s]", dataPath);
+      return dataPath;
+    }, storage);
+  }
+
+  private static BasinData readBasinData(
+      Basins basins,
+      Function<Basin, Path> dataPaths,
+      Storage storage) {
+    ImmutableMap.Builder<Basin, BasinGrid> basinGrids = ImmutableMap.builder();
 
-      Csv csv = Csv.create(dataPath);
+    for (BasinRegion region : basins) {
+      Csv csv = Csv.create(dataPaths.apply(region.basin));
       List<String> keys = csv.columnKeys();
 
       try (Stream<Record> records = csv.records()) {
-        ImmutableMap<Location, BasinValues> basinRecords = records
-            .map(record -> BasinRecord.fromCSVRecord(record, keys, region))
-            .collect(ImmutableMap.toImmutableMap(
-                BasinRecord::getLocation,
-                BasinRecord::getBasinValues));
+        List<BasinRecord> basinRecords = records
+            .map(record -> BasinRecord.fromCSVRecord(record, keys))
+            .collect(Collectors.toList());
 
-        basinData.put(region.basin, basinRecords);
+        basinGrids.put(region.basin, toBasinGrid(region, basinRecords, storage));
       } catch (IOException e) {
-        e.printStackTrace();
+        throw new UncheckedIOException(e);
       }
     }
 
-    return new BasinData(basinData.build());
+    return new BasinData(basinGrids.build());
+  }
+
+  private static BasinGrid toBasinGrid(
+      BasinRegion region,
+      List<BasinRecord> basinRecords,
+      Storage storage) {
+    checkState(!basinRecords.isEmpty(), "No data for basin [%s]", region.basin.id);
+
+    double latMin = Double.POSITIVE_INFINITY;
+    double latMax = Double.NEGATIVE_INFINITY;
+    double lonMin = Double.POSITIVE_INFINITY;
+    double lonMax = Double.NEGATIVE_INFINITY;
+
+    for (BasinRecord record : basinRecords) {
+      latMin = Math.min(latMin, record.lat);
+      latMax = Math.max(latMax, record.lat);
+      lonMin = Math.min(lonMin, record.lon);
+      lonMax = Math.max(lonMax, record.lon);
+    }
+
+    BasinGrid.Builder builder = BasinGrid.builder(
+        region.basin,
+        region.defaultModel,
+        latMin,
+        latMax,
+        lonMin,
+        lonMax,
+        storage);
+
+    DerivedLayer derivedLayer = DerivedLayer.forBasin(region.basin);
+
+    for (BasinRecord record : basinRecords) {
+      builder.set(
+          record.lat,
+          record.lon,
+          derivedLayer.z1p0(record.z1p0, record.z2p5),
+          derivedLayer.z2p5(record.z1p0, record.z2p5));
+    }
+
+    return builder.build();
   }
 
   /**
    * Returns a map of the basin data.
+   * 
+   * <p> Note: The maps are created from the basin grids on each call.
    */
   public ImmutableMap<Basin, ImmutableMap<Location, BasinValues>> getBasinData() {
-    return basinData;
+    ImmutableMap.Builder<Basin, ImmutableMap<Location, BasinValues>> basinData =
+        ImmutableMap.builder();
+
+    for (Basin basin : basinGrids.keySet()) {
+      basinData.put(basin, getBasinData(basin));
+    }
+
+    return basinData.build();
   }
 
   /**
    * Returns a map of the basin data of a specific basin.
    * 
+   * <p> Note: The map is created from the basin grid on each call.
+   * 
    * @param basin The basin of interest
    */
   public ImmutableMap<Location, BasinValues> getBasinData(Basin basin) {
-    return getBasinData().get(basin);
+    BasinGrid grid = basinGrids.get(basin);
+
+    if (grid == null) {
+      return null;
+    }
+
+    ImmutableMap.Builder<Location, BasinValues> basinRecords = ImmutableMap.builder();
+
+    for (int index = 0; index < grid.size(); index++) {
+      if (grid.contains(index)) {
+        Location loc = Location.create(grid.latitude(index), grid.longitude(index));
+        basinRecords.put(loc, grid.basinValues(index));
+      }
+    }
+
+    return basinRecords.build();
+  }
+
+  /**
+   * Returns the basin grid of a specific basin.
+   * 
+   * @param basin The basin of interest
+   */
+  public BasinGrid getBasinGrid(Basin basin) {
+    return basinGrids.get(basin);
+  }
+
+  /**
+   * Returns the statistics of all values of a specific basin, computed when
+   * the basin data is read.
+   * 
+   * @param basin The basin of interest
+   */
+  public BasinStats getBasinStats(Basin basin) {
+    return basinStats.get(basin);
   }
 
   /**
    * Returns the {@code BasinValues} associated with a particular basin and
    * {@code Location}.
    * 
-   * @param basinId Basin ID
+   * @param basin The basin
    * @param loc Location inside basin
    */
   public BasinValues getBasinValues(Basin basin, Location loc) {
-    Map<Location, BasinValues> basinRecords = getBasinData(basin);
-    checkState(basinRecords != null, "Basin [%s] not supported", basin.id);
+    BasinGrid grid = getBasinGrid(basin);
+    checkState(grid != null, "Basin [%s] not supported", basin.id);
 
-    double lat = Maths.round(loc.lat(), BASIN_DATA_SPACING);
-    double lon = Maths.round(loc.lon(), BASIN_DATA_SPACING);
-    loc = Location.create(lat, lon);
+    int index = grid.index(loc.lat(), loc.lon());
+    checkState(grid.contains(index), "Location [%s] not found in basin [%s]", loc, basin.id);
 
-    BasinValues basinValues = basinRecords.get(loc);
-    checkState(basinValues != null, "Location [%s] not found in basin [%s]", loc, basin.id);
-
-    return basinRecords.get(loc);
+    return grid.basinValues(index);
   }
 
   /**
-   * Container class to hold a {@code Location} {@code BasinValues}.
+   * Container class to hold a single row of basin data.
    */
   private static class BasinRecord {
-    Location loc;
-    BasinValues basinValues;
-
-    BasinRecord(Location loc, BasinValue z1p0, BasinValue z2p5) {
-      this.loc = checkNotNull(loc);
-      this.basinValues = new BasinValues(checkNotNull(z1p0), checkNotNull(z2p5));
-    }
+    final double lat;
+    final double lon;
+    final double z1p0;
+    final double z2p5;
 
-    /**
-     * Returns the {@code Location}.
-     */
-    Location getLocation() {
-      return loc;
-    }
-
-    /**
-     * Returns the {@code BasinValues}.
-     */
-    BasinValues getBasinValues() {
-      return basinValues;
+    BasinRecord(double lat, double lon, double z1p0, double z2p5) {
+      checkArgument(!Double.isNaN(lat) && !Double.isNaN(lon), "Missing latitude or longitude");
+      this.lat = lat;
+      this.lon = lon;
+      this.z1p0 = z1p0;
+      this.z2p5 = z2p5;
     }
 
     /**
@@ -140,13 +283,12 @@ public class BasinData {
      * 
      * @param record The CSV record
      * @param keys The CSV column keys
-     * @param region The basin region
      */
-    static BasinRecord fromCSVRecord(Record record, List<String> keys, BasinRegion region) {
+    static BasinRecord fromCSVRecord(Record record, List<String> keys) {
       double lat = Double.NaN;
       double lon = Double.NaN;
-      BasinValue z1p0 = null;
-      BasinValue z2p5 = null;
+      double z1p0 = Double.NaN;
+      double z2p5 = Double.NaN;
 
       for (String key : keys) {
         switch (key) {
@@ -157,17 +299,17 @@ public class BasinData {
             lon = record.getDouble(key);
             break;
           case "z1p0":
-            z1p0 = new BasinValue(region.defaultModel.z1p0, record.getDouble(key));
+            z1p0 = record.getDouble(key);
             break;
           case "z2p5":
-            z2p5 = new BasinValue(region.defaultModel.z2p5, record.getDouble(key));
+            z2p5 = record.getDouble(key);
             break;
           default:
             throw new RuntimeException("Key [" + key + "] not supported");
         }
       }
 
-      return new BasinRecord(Location.create(lat, lon), z1p0, z2p5);
+      return new BasinRecord(lat, lon, z1p0, z2p5);
     }
   }
 
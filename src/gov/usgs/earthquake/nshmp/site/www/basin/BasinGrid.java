@@ -0,0 +1,379 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues.BasinValue;
+import gov.usgs.earthquake.nshmp.site.www.basin.Raster.Layer;
+
+/**
+ * Dense grid of z1p0 and z2p5 values for a single basin.
+ *
+ * <p> The values are the {@code z1p0} and {@code z2p5} layers of a
+ * {@link Raster} covering the bounding box of the basin data at a spacing of
+ * {@link BasinData#BASIN_DATA_SPACING}. Nodes inside the bounding box without
+ * data return {@code NaN}.
+ *
+ * <p> Use {@link BasinGrid#index(double, double)} to get the index of the node
+ * nearest to a latitude and longitude.
+ *
+ * @author Brandon Clayton
+ */
+public class BasinGrid {
+
+  /* Grid nodes per degree */
+  static final double GRID_SCALE = 1.0 / BasinData.BASIN_DATA_SPACING;
+
+  /* Mean earth radius in km */
+  private static final double EARTH_RADIUS = 6371.0;
+
+  public final Basin basin;
+  public final BasinModel model;
+
+  /* Grid nodes per degree of the raster */
+  private static final int NODES_PER_DEGREE = (int) Math.round(GRID_SCALE);
+
+  private static final String Z1P0 = "z1p0";
+  private static final String Z2P5 = "z2p5";
+
+  private final Raster raster;
+  private final Layer z1p0;
+  private final Layer z2p5;
+
+  private BasinGrid(Basin basin, BasinModel model, Raster raster) {
+    this.basin = basin;
+    this.model = model;
+    this.raster = raster;
+    z1p0 = raster.layer(Z1P0);
+    z2p5 = raster.layer(Z2P5);
+  }
+
+  /**
+   * Returns the index of the grid node nearest to a latitude and longitude, or
+   * {@code -1} if the location is outside the grid.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   */
+  public int index(double latitude, double longitude) {
+    return index(gridUnits(latitude), gridUnits(longitude));
+  }
+
+  /**
+   * Returns the index of a grid node from a latitude and longitude in grid
+   * units ({@code degrees / BASIN_DATA_SPACING}), or {@code -1} if the node is
+   * outside the grid.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  public int index(long latUnits, long lonUnits) {
+    return raster.index(latUnits, lonUnits);
+  }
+
+  /**
+   * Returns the index of the populated grid node nearest to a latitude and
+   * longitude within a radius, or {@code -1} if there is none.
+   *
+   * <p> Rings of nodes around the node nearest to the location are searched
+   * outward until no closer node can be found.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param radius The search radius in km
+   */
+  public int nearestIndex(double latitude, double longitude, double radius) {
+    return nearestIndex(latitude, longitude, radius, -1);
+  }
+
+  /**
+   * Returns the index of the populated grid node nearest to a latitude and
+   * longitude within a radius, excluding one node, or {@code -1} if there is
+   * none.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param radius The search radius in km
+   * @param exclude The index of a node to exclude, {@code -1} for none
+   */
+  public int nearestIndex(double latitude, double longitude, double radius, int exclude) {
+    long latUnits = gridUnits(latitude);
+    long lonUnits = gridUnits(longitude);
+
+    /* Smallest distance between adjacent nodes, in km */
+    double spacing = EARTH_RADIUS * Math.toRadians(BasinData.BASIN_DATA_SPACING) *
+        Math.cos(Math.toRadians(latitude));
+    int maxRing = (int) Math.ceil(radius / spacing) + 1;
+
+    int nearest = -1;
+    double nearestDistance = radius;
+
+    for (int ring = 0; ring <= maxRing; ring++) {
+      /* Nodes in this and later rings are all farther away */
+      if ((ring - 0.5) * spacing > nearestDistance) break;
+
+      for (int dLat = -ring; dLat <= ring; dLat++) {
+        int step = Math.abs(dLat) == ring ? 1 : 2 * ring;
+
+        for (int dLon = -ring; dLon <= ring; dLon += step) {
+          int index = index(latUnits + dLat, lonUnits + dLon);
+          if (index == exclude || !contains(index)) continue;
+
+          double distance = distance(latitude, longitude, index);
+          if (distance < nearestDistance || (nearest < 0 && distance <= radius)) {
+            nearest = index;
+            nearestDistance = distance;
+          }
+        }
+      }
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Returns the distance in km between a latitude and longitude and a grid
+   * node, using an equirectangular approximation suitable for the short
+   * distances between grid nodes.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param index The grid node index
+   */
+  public double distance(double latitude, double longitude, int index) {
+    double dy = Math.toRadians(latitude(index) - latitude);
+    double dx = Math.toRadians(longitude(index) - longitude) *
+        Math.cos(Math.toRadians(latitude));
+    return EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** Returns the number of nodes in the grid. */
+  public int size() {
+    return raster.size();
+  }
+
+  /** Returns the number of rows (latitudes) in the grid. */
+  public int rows() {
+    return raster.rows();
+  }
+
+  /** Returns the number of columns (longitudes) in the grid. */
+  public int columns() {
+    return raster.columns();
+  }
+
+  /**
+   * Returns whether a grid node has data.
+   *
+   * @param index The grid node index
+   */
+  public boolean contains(int index) {
+    return index >= 0 && index < size() &&
+        !(Double.isNaN(z1p0.get(index)) && Double.isNaN(z2p5.get(index)));
+  }
+
+  /**
+   * Returns the latitude of a grid node.
+   *
+   * @param index The grid node index
+   */
+  public double latitude(int index) {
+    return raster.latitude(index);
+  }
+
+  /**
+   * Returns the longitude of a grid node.
+   *
+   * @param index The grid node index
+   */
+  public double longitude(int index) {
+    return raster.longitude(index);
+  }
+
+  /**
+   * Returns the z1p0 value of a grid node, or {@code NaN} if there is no data.
+   *
+   * @param index The grid node index
+   */
+  public double z1p0(int index) {
+    return z1p0.get(index);
+  }
+
+  /**
+   * Returns the z2p5 value of a grid node, or {@code NaN} if there is no data.
+   *
+   * @param index The grid node index
+   */
+  public double z2p5(int index) {
+    return z2p5.get(index);
+  }
+
+  /**
+   * Returns the z1p0 value at a latitude and longitude, or {@code NaN} if there
+   * is no data.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param interpolation The interpolation between grid nodes
+   */
+  public double z1p0(double latitude, double longitude, Interpolation interpolation) {
+    return raster.interpolate(z1p0, latitude, longitude, interpolation);
+  }
+
+  /**
+   * Returns the z2p5 value at a latitude and longitude, or {@code NaN} if there
+   * is no data.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param interpolation The interpolation between grid nodes
+   */
+  public double z2p5(double latitude, double longitude, Interpolation interpolation) {
+    return raster.interpolate(z2p5, latitude, longitude, interpolation);
+  }
+
+  /**
+   * Returns the {@code BasinValues} of a grid node.
+   *
+   * @param index The grid node index
+   */
+  public BasinValues basinValues(int index) {
+    return new BasinValues(
+        new BasinValue(model.z1p0, toValue(z1p0.get(index))),
+        new BasinValue(model.z2p5, toValue(z2p5.get(index))));
+  }
+
+  /** Returns the approximate number of bytes used to store the layers. */
+  public long storageBytes() {
+    return raster.storageBytes();
+  }
+
+  /** Returns the raster of the {@code z1p0} and {@code z2p5} layers. */
+  public Raster raster() {
+    return raster;
+  }
+
+  /**
+   * Returns a latitude or longitude rounded to the nearest grid node in grid
+   * units ({@code degrees / BASIN_DATA_SPACING}).
+   *
+   * @param value The latitude or longitude in degrees
+   */
+  public static long gridUnits(double value) {
+    return Math.round(value * GRID_SCALE);
+  }
+
+  private static Double toValue(double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  /**
+   * Returns a new {@code Builder} for a grid with the specified bounds.
+   *
+   * @param basin The basin
+   * @param model The basin model of the data
+   * @param latMin Minimum latitude in degrees
+   * @param latMax Maximum latitude in degrees
+   * @param lonMin Minimum longitude in degrees
+   * @param lonMax Maximum longitude in degrees
+   * @param storage The storage mode of the grid layers
+   */
+  static Builder builder(
+      Basin basin,
+      BasinModel model,
+      double latMin,
+      double latMax,
+      double lonMin,
+      double lonMax,
+      Storage storage) {
+    return new Builder(basin, model, latMin, latMax, lonMin, lonMax, storage);
+  }
+
+  /**
+   * {@code BasinGrid} builder.
+   */
+  static class Builder {
+    private final Basin basin;
+    private final BasinModel model;
+    private final Raster.Builder raster;
+    private boolean built;
+
+    private Builder(
+        Basin basin,
+        BasinModel model,
+        double latMin,
+        double latMax,
+        double lonMin,
+        double lonMax,
+        Storage storage) {
+      this.basin = basin;
+      this.model = model;
+      raster = Raster.builder(
+          NODES_PER_DEGREE,
+          latMin,
+          latMax,
+          lonMin,
+          lonMax,
+          Arrays.asList(Z1P0, Z2P5),
+          storage);
+    }
+
+    /**
+     * Set the values of a grid node.
+     *
+     * @param latitude in degrees
+     * @param longitude in degrees
+     * @param z1p0 The z1p0 value, {@code NaN} if there is no value
+     * @param z2p5 The z2p5 value, {@code NaN} if there is no value
+     */
+    Builder set(double latitude, double longitude, double z1p0, double z2p5) {
+      checkState(!built, "Grid has already been built");
+      int index = raster.index(latitude, longitude);
+      checkArgument(!raster.contains(index),
+          "Duplicate location [%s, %s] in basin [%s]", latitude, longitude, basin.id);
+      raster.set(Z1P0, index, z1p0);
+      raster.set(Z2P5, index, z2p5);
+      return this;
+    }
+
+    BasinGrid build() {
+      checkState(!built, "Grid has already been built");
+      built = true;
+      return new BasinGrid(basin, model, raster.build());
+    }
+  }
+
+  /**
+   * Interpolation of values between grid nodes.
+   */
+  public enum Interpolation {
+    /** Value of the nearest grid node. */
+    NEAREST,
+
+    /** Bilinear interpolation of the four surrounding grid nodes. */
+    BILINEAR;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+
+    /**
+     * Returns the interpolation with the specified id.
+     *
+     * @param id The lower case name of the interpolation
+     * @throws IllegalArgumentException if the interpolation does not exist
+     */
+    public static Interpolation fromId(String id) {
+      for (Interpolation interpolation : values()) {
+        if (interpolation.toString().equals(id)) return interpolation;
+      }
+
+      throw new IllegalArgumentException("Interpolation [" + id + "] does not exist");
+    }
+  }
+
+}
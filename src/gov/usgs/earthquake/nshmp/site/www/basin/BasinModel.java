@@ -19,6 +19,8 @@ public enum BasinModel {
   SCHEN_RITZWOLLER("SchenRitzwoller"),
   WASATCH("Wasatch");
  
+  private static final BasinModel[] VALUES = values();
+
   public String id;
   public String z1p0;
   public String z2p5;
@@ -36,7 +38,7 @@ public enum BasinModel {
    * @throws IllegalArgumentException if a basin model is not found 
    */
   public static BasinModel fromId(String id) {
-    for (BasinModel basin : values()) {
+    for (BasinModel basin : VALUES) {
       if (basin.id.equals(id)) return basin; 
     }
     
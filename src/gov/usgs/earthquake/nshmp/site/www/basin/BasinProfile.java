@@ -0,0 +1,202 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid.Interpolation;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+import gov.usgs.earthquake.nshmp.util.Maths;
+
+/**
+ * Profile of z1p0 and z2p5 values sampled at a fixed spacing along a polyline.
+ *
+ * <p> Use {@link BasinProfile#compute(Basins, BasinData, List, double, Interpolation)}
+ * to sample a profile. The polyline is walked once: sample positions are
+ * stepped in grid units along each segment and the basin region of a sample is
+ * checked against the region of the previous sample before any other region.
+ * Crossings of basin region boundaries are reported at the first sample past
+ * the boundary.
+ *
+ * @author Brandon Clayton
+ */
+public class BasinProfile {
+
+  /** Maximum number of samples in a profile. */
+  public static final int MAX_SAMPLES = 10000;
+
+  /* Mean earth radius in km */
+  private static final double EARTH_RADIUS = 6371.0;
+
+  /* Precision of reported distances (km) and coordinates (degrees) */
+  private static final double DISTANCE_PRECISION = 0.001;
+  private static final double LOCATION_PRECISION = 0.00001;
+
+  public final List<Sample> samples;
+  public final List<Crossing> crossings;
+
+  private BasinProfile(List<Sample> samples, List<Crossing> crossings) {
+    this.samples = samples;
+    this.crossings = crossings;
+  }
+
+  /**
+   * Returns the profile along a polyline.
+   *
+   * @param basins The basin regions
+   * @param basinData The basin data
+   * @param path The polyline vertices
+   * @param spacing The sample spacing in km
+   * @param interpolation The interpolation between grid nodes
+   * @throws IllegalArgumentException if the path has fewer than two vertices or
+   *         the profile would have more than {@link #MAX_SAMPLES} samples
+   */
+  public static BasinProfile compute(
+      Basins basins,
+      BasinData basinData,
+      List<Location> path,
+      double spacing,
+      Interpolation interpolation) {
+    checkArgument(path.size() >= 2, "Path must have at least two vertices");
+    checkArgument(spacing > 0, "Spacing [%s] must be greater than 0", spacing);
+
+    double length = 0;
+    for (int i = 1; i < path.size(); i++) {
+      length += distance(path.get(i - 1), path.get(i));
+    }
+    checkArgument(length / spacing < MAX_SAMPLES,
+        "Profile of [%s] km at [%s] km spacing exceeds %s samples",
+        length, spacing, MAX_SAMPLES);
+
+    Walker walker = new Walker(basins, basinData, interpolation);
+
+    /* Distance along the path of the start of the current segment */
+    double segmentStart = 0;
+
+    /* Distance into the current segment of the next sample */
+    double offset = 0;
+
+    for (int i = 1; i < path.size(); i++) {
+      Location start = path.get(i - 1);
+      Location end = path.get(i);
+      double segmentLength = distance(start, end);
+
+      if (segmentLength > 0) {
+        double latStep = (end.lat() - start.lat()) * spacing / segmentLength;
+        double lonStep = (end.lon() - start.lon()) * spacing / segmentLength;
+        double fraction = offset / segmentLength;
+        double lat = start.lat() + (end.lat() - start.lat()) * fraction;
+        double lon = start.lon() + (end.lon() - start.lon()) * fraction;
+
+        for (; offset < segmentLength; offset += spacing) {
+          walker.sample(segmentStart + offset, lat, lon);
+          lat += latStep;
+          lon += lonStep;
+        }
+      }
+
+      offset -= segmentLength;
+      segmentStart += segmentLength;
+    }
+
+    Location last = path.get(path.size() - 1);
+    walker.sample(segmentStart, last.lat(), last.lon());
+
+    return new BasinProfile(walker.samples, walker.crossings);
+  }
+
+  /* Equirectangular distance in km */
+  private static double distance(Location start, Location end) {
+    double meanLat = Math.toRadians(0.5 * (start.lat() + end.lat()));
+    double dy = Math.toRadians(end.lat() - start.lat());
+    double dx = Math.toRadians(end.lon() - start.lon()) * Math.cos(meanLat);
+    return EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /* Samples the basin data along a path, tracking the current basin region */
+  private static class Walker {
+    final Basins basins;
+    final BasinData basinData;
+    final Interpolation interpolation;
+    final List<Sample> samples = new ArrayList<>();
+    final List<Crossing> crossings = new ArrayList<>();
+
+    BasinRegion region;
+    BasinGrid grid;
+
+    Walker(Basins basins, BasinData basinData, Interpolation interpolation) {
+      this.basins = basins;
+      this.basinData = basinData;
+      this.interpolation = interpolation;
+    }
+
+    void sample(double distance, double lat, double lon) {
+      long latUnits = BasinGrid.gridUnits(lat);
+      long lonUnits = BasinGrid.gridUnits(lon);
+
+      if (region == null || !region.contains(latUnits, lonUnits)) {
+        BasinRegion previous = region;
+        region = basins.findRegion(latUnits, lonUnits);
+        grid = region == null ? null : basinData.getBasinGrid(region.basin);
+
+        if (!samples.isEmpty() && previous != region) {
+          crossings.add(new Crossing(distance, lat, lon, previous, region));
+        }
+      }
+
+      double z1p0 = grid == null ? Double.NaN : grid.z1p0(lat, lon, interpolation);
+      double z2p5 = grid == null ? Double.NaN : grid.z2p5(lat, lon, interpolation);
+      samples.add(new Sample(distance, lat, lon, region, z1p0, z2p5));
+    }
+  }
+
+  /** A single sample of a profile. */
+  public static class Sample {
+    public final double distance;
+    public final double latitude;
+    public final double longitude;
+    public final String basin;
+    public final Double z1p0;
+    public final Double z2p5;
+
+    Sample(
+        double distance,
+        double latitude,
+        double longitude,
+        BasinRegion region,
+        double z1p0,
+        double z2p5) {
+      this.distance = Maths.round(distance, DISTANCE_PRECISION);
+      this.latitude = Maths.round(latitude, LOCATION_PRECISION);
+      this.longitude = Maths.round(longitude, LOCATION_PRECISION);
+      this.basin = region == null ? null : region.basin.id;
+      this.z1p0 = Double.isNaN(z1p0) ? null : z1p0;
+      this.z2p5 = Double.isNaN(z2p5) ? null : z2p5;
+    }
+  }
+
+  /** A crossing of a basin region boundary. */
+  public static class Crossing {
+    public final double distance;
+    public final double latitude;
+    public final double longitude;
+    public final String from;
+    public final String to;
+
+    Crossing(
+        double distance,
+        double latitude,
+        double longitude,
+        BasinRegion from,
+        BasinRegion to) {
+      this.distance = Maths.round(distance, DISTANCE_PRECISION);
+      this.latitude = Maths.round(latitude, LOCATION_PRECISION);
+      this.longitude = Maths.round(longitude, LOCATION_PRECISION);
+      this.from = from == null ? null : from.basin.id;
+      this.to = to == null ? null : to.basin.id;
+    }
+  }
+
+}
@@ -0,0 +1,192 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.Region;
+
+/**
+ * Summary statistics of the z1p0 and z2p5 values of a basin grid.
+ *
+ * <p> Use {@link BasinStats#compute(BasinGrid)} for all nodes of a grid or
+ * {@link BasinStats#compute(BasinGrid, Region)} for the nodes inside a region.
+ * Statistics are computed with a parallel reduction over the grid nodes.
+ *
+ * @author Brandon Clayton
+ */
+public class BasinStats {
+
+  /* Reported percentiles */
+  private static final int[] PERCENTILES = { 5, 25, 50, 75, 95 };
+
+  public final String basin;
+  public final int count;
+  public final LayerStats z1p0;
+  public final LayerStats z2p5;
+
+  private BasinStats(Basin basin, Accumulator accumulator) {
+    this.basin = basin.id;
+    this.count = accumulator.count;
+    this.z1p0 = new LayerStats(accumulator.z1p0);
+    this.z2p5 = new LayerStats(accumulator.z2p5);
+  }
+
+  /**
+   * Returns the statistics of all populated nodes of a basin grid.
+   *
+   * @param grid The basin grid
+   */
+  public static BasinStats compute(BasinGrid grid) {
+    return compute(grid, null);
+  }
+
+  /**
+   * Returns the statistics of the populated nodes of a basin grid that are
+   * inside a region.
+   *
+   * @param grid The basin grid
+   * @param region The region to clip to, {@code null} for the whole grid
+   */
+  public static BasinStats compute(BasinGrid grid, Region region) {
+    Accumulator accumulator = IntStream.range(0, grid.size())
+        .parallel()
+        .filter(grid::contains)
+        .filter(index -> region == null || region.contains(
+            Location.create(grid.latitude(index), grid.longitude(index))))
+        .collect(
+            Accumulator::new,
+            (acc, index) -> acc.add(grid.z1p0(index), grid.z2p5(index)),
+            Accumulator::merge);
+
+    return new BasinStats(grid.basin, accumulator);
+  }
+
+  /**
+   * Statistics of a single layer. Values are {@code null} if there are no
+   * values.
+   */
+  public static class LayerStats {
+    public final int count;
+    public final Double min;
+    public final Double max;
+    public final Double mean;
+    public final Map<String, Double> percentiles;
+
+    private LayerStats(LayerAccumulator accumulator) {
+      boolean empty = accumulator.count == 0;
+      count = accumulator.count;
+      min = empty ? null : accumulator.min;
+      max = empty ? null : accumulator.max;
+      mean = empty ? null : accumulator.sum / accumulator.count;
+
+      percentiles = new LinkedHashMap<>();
+      for (int percentile : PERCENTILES) {
+        percentiles.put(
+            Integer.toString(percentile),
+            empty ? null : accumulator.sketch.quantile(percentile / 100.0));
+      }
+    }
+  }
+
+  /* Mutable container for a parallel reduction over grid nodes */
+  private static final class Accumulator {
+    int count;
+    final LayerAccumulator z1p0 = new LayerAccumulator();
+    final LayerAccumulator z2p5 = new LayerAccumulator();
+
+    void add(double z1p0Value, double z2p5Value) {
+      count++;
+      z1p0.add(z1p0Value);
+      z2p5.add(z2p5Value);
+    }
+
+    void merge(Accumulator that) {
+      count += that.count;
+      z1p0.merge(that.z1p0);
+      z2p5.merge(that.z2p5);
+    }
+  }
+
+  /* Mutable container for the statistics of a single layer */
+  private static final class LayerAccumulator {
+    int count;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double sum;
+    final QuantileSketch sketch = new QuantileSketch();
+
+    void add(double value) {
+      if (Double.isNaN(value)) return;
+      count++;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      sum += value;
+      sketch.add(value);
+    }
+
+    void merge(LayerAccumulator that) {
+      count += that.count;
+      min = Math.min(min, that.min);
+      max = Math.max(max, that.max);
+      sum += that.sum;
+      sketch.merge(that.sketch);
+    }
+  }
+
+  /*
+   * Streaming, mergeable quantile sketch of non-negative values in km. Values
+   * are counted in 1 m bins, which is exact for basin depths published in km
+   * to three decimal places, and memory is bounded by the largest value rather
+   * than the number of values.
+   */
+  static final class QuantileSketch {
+    private static final double BINS_PER_KM = 1000.0;
+
+    private int[] counts = new int[0];
+    private long total;
+
+    void add(double value) {
+      checkArgument(value >= 0, "Value [%s] must be non-negative", value);
+      int bin = (int) Math.round(value * BINS_PER_KM);
+      grow(bin + 1);
+      counts[bin]++;
+      total++;
+    }
+
+    void merge(QuantileSketch that) {
+      grow(that.counts.length);
+      for (int bin = 0; bin < that.counts.length; bin++) {
+        counts[bin] += that.counts[bin];
+      }
+      total += that.total;
+    }
+
+    /* Nearest rank quantile, q in [0, 1] */
+    double quantile(double q) {
+      checkArgument(total > 0, "Empty sketch");
+      long rank = Math.max(1, (long) Math.ceil(q * total));
+      long cumulative = 0;
+
+      for (int bin = 0; bin < counts.length; bin++) {
+        cumulative += counts[bin];
+        if (cumulative >= rank) {
+          return bin / BINS_PER_KM;
+        }
+      }
+
+      return (counts.length - 1) / BINS_PER_KM;
+    }
+
+    private void grow(int length) {
+      if (counts.length < length) {
+        counts = Arrays.copyOf(counts, Math.max(length, 2 * counts.length));
+      }
+    }
+  }
+
+}
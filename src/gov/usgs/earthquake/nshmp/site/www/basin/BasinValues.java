@@ -17,6 +17,16 @@ public class BasinValues {
     this.z2p5 = z2p5;
   }
 
+  /** Returns the z1p0 value. */
+  public BasinValue z1p0() {
+    return z1p0;
+  }
+
+  /** Returns the z2p5 value. */
+  public BasinValue z2p5() {
+    return z2p5;
+  }
+
   /**
    * Container class for a single basin term.
    */
@@ -28,6 +38,16 @@ public class BasinValues {
       this.model = model;
       this.value = value;
     }
+
+    /** Returns the basin model id of the value. */
+    public String model() {
+      return model;
+    }
+
+    /** Returns the value, may be {@code null}. */
+    public Double value() {
+      return value;
+    }
   }
 
 }
@@ -0,0 +1,195 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+
+/**
+ * Versions of the basin data that may be requested concurrently, e.g. to
+ * reproduce results computed with a previous release of the basin data.
+ *
+ * <p> The basin data in the data directory of the service is version
+ * {@link #BUNDLED}. Other versions are subdirectories of a versions directory,
+ * named by version, each with one {@code basin-id.csv} file per basin region
+ * and, optionally, a {@code basins.geojson} file of the basin regions; the
+ * bundled basin regions are used otherwise.
+ *
+ * <p> The latest version, the default of a request, is read on creation and
+ * held for the life of the service. Other versions are read on first request,
+ * using {@link Storage#MAPPED} storage so that they use little heap, and are
+ * released when not requested for a while or, least recently requested first,
+ * when more than a maximum number of versions are loaded. The memory mapping
+ * of a released version is unmapped once no request in flight holds it and
+ * it is garbage collected.
+ *
+ * @author Brandon Clayton
+ */
+public class BasinVersions {
+
+  /** The version of the basin data in the data directory of the service. */
+  public static final String BUNDLED = "bundled";
+
+  private static final String BASIN_FILE = "basins.geojson";
+
+  private final Path versionsDir;
+  private final ImmutableSortedSet<String> versions;
+  private final Version latest;
+  private final LoadingCache<String, Version> loaded;
+
+  private BasinVersions(
+      Path versionsDir,
+      ImmutableSortedSet<String> versions,
+      String latest,
+      Storage storage,
+      int maxLoaded,
+      long idleMinutes) {
+    this.versionsDir = versionsDir;
+    this.versions = versions;
+    this.latest = read(latest, storage);
+    this.loaded = CacheBuilder.newBuilder()
+        .maximumSize(maxLoaded)
+        .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+        .build(new CacheLoader<String, Version>() {
+          @Override
+          public Version load(String version) {
+            return read(version, Storage.MAPPED);
+          }
+        });
+  }
+
+  /**
+   * Create the basin data versions.
+   *
+   * @param versionsDir The directory of versions, {@code null} for the bundled
+   *        version only
+   * @param latest The latest version, {@code null} for the greatest version
+   *        in natural string order, or {@link #BUNDLED} if there are none
+   * @param storage The storage mode of the latest version
+   * @param maxLoaded The maximum number of versions, other than the latest,
+   *        that are loaded at once
+   * @param idleMinutes The minutes after which a version, other than the
+   *        latest, that has not been requested is released
+   */
+  public static BasinVersions create(
+      Path versionsDir,
+      String latest,
+      Storage storage,
+      int maxLoaded,
+      long idleMinutes) {
+    checkArgument(maxLoaded > 0, "Maximum loaded versions must be positive");
+    checkArgument(idleMinutes > 0, "Idle minutes must be positive");
+
+    ImmutableSortedSet.Builder<String> versions = ImmutableSortedSet.naturalOrder();
+    versions.add(BUNDLED);
+    String greatest = null;
+
+    if (versionsDir != null) {
+      checkArgument(Files.isDirectory(versionsDir), "Versions [%s] is not a directory", versionsDir);
+
+      try (Stream<Path> paths = Files.list(versionsDir)) {
+        for (Path path : (Iterable<Path>) paths::iterator) {
+          if (!Files.isDirectory(path)) continue;
+          String version = path.getFileName().toString();
+          checkArgument(!version.equals(BUNDLED), "Version [%s] is reserved", BUNDLED);
+          versions.add(version);
+          greatest = greatest == null || version.compareTo(greatest) > 0 ? version : greatest;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    ImmutableSortedSet<String> versionSet = versions.build();
+
+    if (latest == null) {
+      latest = greatest == null ? BUNDLED : greatest;
+    }
+    checkArgument(versionSet.contains(latest), "Latest version [%s] not found", latest);
+
+    return new BasinVersions(versionsDir, versionSet, latest, storage, maxLoaded, idleMinutes);
+  }
+
+  /** Returns the ids of all versions in natural string order. */
+  public ImmutableSortedSet<String> versions() {
+    return versions;
+  }
+
+  /** Returns the latest version. */
+  public Version latest() {
+    return latest;
+  }
+
+  /**
+   * Returns a version, reading it if not loaded.
+   *
+   * @param version The version id, {@code null} for the latest version
+   * @throws IllegalArgumentException if the version does not exist
+   */
+  public Version get(String version) {
+    if (version == null || version.equals(latest.id)) {
+      return latest;
+    }
+
+    checkArgument(versions.contains(version), "Version [%s] not supported", version);
+
+    try {
+      return loaded.get(version);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns whether a version, other than the latest, is loaded.
+   *
+   * @param version The version id
+   */
+  public boolean isLoaded(String version) {
+    return loaded.getIfPresent(version) != null;
+  }
+
+  private Version read(String version, Storage storage) {
+    if (version.equals(BUNDLED)) {
+      Basins basins = Basins.getBasins();
+      return new Version(version, basins, BasinData.readBasinData(basins, storage));
+    }
+
+    Path versionDir = versionsDir.resolve(version);
+    Path basinFile = versionDir.resolve(BASIN_FILE);
+    Basins basins = Files.exists(basinFile) ? Basins.getBasins(basinFile) : Basins.getBasins();
+
+    return new Version(version, basins, BasinData.readBasinData(basins, versionDir, storage));
+  }
+
+  /**
+   * The basin regions and basin data of a version.
+   */
+  public static final class Version {
+    public final String id;
+    public final Basins basins;
+    public final BasinData basinData;
+
+    private Version(String id, Basins basins, BasinData basinData) {
+      this.id = id;
+      this.basins = basins;
+      this.basinData = basinData;
+    }
+  }
+
+}
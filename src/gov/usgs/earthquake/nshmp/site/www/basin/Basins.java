@@ -1,8 +1,11 @@
 package gov.usgs.earthquake.nshmp.site.www.basin;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -11,6 +14,7 @@ import com.google.common.io.Resources;
 
 import gov.usgs.earthquake.nshmp.geo.BorderType;
 import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.geo.LocationList;
 import gov.usgs.earthquake.nshmp.geo.Region;
 import gov.usgs.earthquake.nshmp.geo.Regions;
 import gov.usgs.earthquake.nshmp.geo.json.Feature;
@@ -47,16 +51,33 @@ public class Basins implements Iterable<Basins.BasinRegion> {
    * 
    * <p> Note: null is returned if no basin region is found
    * 
+   * <p> Note: The latitude and longitude are rounded to the nearest
+   * {@link BasinData#BASIN_DATA_SPACING}.
+   * 
    * @param latitude in degrees.
    * @param longitude in degrees.
    */
   public BasinRegion findRegion(double latitude, double longitude) {
-    Location loc = Location.create(latitude, longitude);
+    return findRegion(BasinGrid.gridUnits(latitude), BasinGrid.gridUnits(longitude));
+  }
 
-    return basinRegions.stream()
-        .filter((basin) -> basin.region.contains(loc))
-        .findFirst()
-        .orElse(null);
+  /**
+   * Find a basin region that contains a specific grid node.
+   * 
+   * <p> Note: null is returned if no basin region is found
+   * 
+   * @param latUnits latitude in grid units ({@code degrees / BASIN_DATA_SPACING})
+   * @param lonUnits longitude in grid units
+   */
+  public BasinRegion findRegion(long latUnits, long lonUnits) {
+    for (int i = 0; i < basinRegions.size(); i++) {
+      BasinRegion basinRegion = basinRegions.get(i);
+      if (basinRegion.contains(latUnits, lonUnits)) {
+        return basinRegion;
+      }
+    }
+
+    return null;
   }
 
   /**
@@ -66,8 +87,25 @@ public class Basins implements Iterable<Basins.BasinRegion> {
    * @throws RuntimeException If file cannot be read.
    */
   public static Basins getBasins() {
+    return getBasins(Basins.class.getResource(BASIN_FILE));
+  }
+
+  /**
+   * Read in a basins GeoJSON file and return a new instance of {@link Basins}.
+   * 
+   * @param path The path of the file
+   * @throws RuntimeException If file cannot be read.
+   */
+  public static Basins getBasins(Path path) {
+    try {
+      return getBasins(path.toUri().toURL());
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Basins getBasins(URL url) {
     try {
-      URL url = Basins.class.getResource(BASIN_FILE);
       String json = Resources.toString(url, StandardCharsets.UTF_8);
 
       FeatureCollection fc = GeoJson.from(url).toFeatureCollection();
@@ -95,23 +133,79 @@ public class Basins implements Iterable<Basins.BasinRegion> {
     return basinRegions.iterator();
   }
 
-  /** Container for a basin region. */
+  /**
+   * Container for a basin region.
+   * 
+   * <p> Region membership of every grid node in the bounding box of the region
+   * is computed once on creation so that lookups do not require a
+   * {@code Location}.
+   */
   public static class BasinRegion {
     public final String title;
     public final Basin basin;
     public final BasinModel defaultModel;
     public final Region region;
 
+    private final transient long latMin;
+    private final transient long lonMin;
+    private final transient int rows;
+    private final transient int cols;
+    private final transient BitSet mask;
+
     private BasinRegion(Feature feature) {
       Properties properties = feature.properties();
       title = properties.getString("title");
       basin = Basin.fromId(properties.getString("id"));
       String modelId = properties.getString("defaultModel");
       defaultModel = BasinModel.fromId(modelId);
+      LocationList border = feature.asPolygonBorder();
       region = Regions.create(
           title,
-          feature.asPolygonBorder(),
+          border,
           BorderType.MERCATOR_LINEAR);
+
+      double latMinBorder = Double.POSITIVE_INFINITY;
+      double latMaxBorder = Double.NEGATIVE_INFINITY;
+      double lonMinBorder = Double.POSITIVE_INFINITY;
+      double lonMaxBorder = Double.NEGATIVE_INFINITY;
+
+      for (Location loc : border) {
+        latMinBorder = Math.min(latMinBorder, loc.lat());
+        latMaxBorder = Math.max(latMaxBorder, loc.lat());
+        lonMinBorder = Math.min(lonMinBorder, loc.lon());
+        lonMaxBorder = Math.max(lonMaxBorder, loc.lon());
+      }
+
+      latMin = (long) Math.floor(latMinBorder * BasinGrid.GRID_SCALE);
+      lonMin = (long) Math.floor(lonMinBorder * BasinGrid.GRID_SCALE);
+      rows = (int) ((long) Math.ceil(latMaxBorder * BasinGrid.GRID_SCALE) - latMin + 1);
+      cols = (int) ((long) Math.ceil(lonMaxBorder * BasinGrid.GRID_SCALE) - lonMin + 1);
+      mask = new BitSet(rows * cols);
+
+      for (int row = 0; row < rows; row++) {
+        double lat = (latMin + row) / BasinGrid.GRID_SCALE;
+        for (int col = 0; col < cols; col++) {
+          double lon = (lonMin + col) / BasinGrid.GRID_SCALE;
+          mask.set(row * cols + col, region.contains(Location.create(lat, lon)));
+        }
+      }
+    }
+
+    /**
+     * Returns whether a grid node is inside the region.
+     * 
+     * @param latUnits latitude in grid units
+     * @param lonUnits longitude in grid units
+     */
+    public boolean contains(long latUnits, long lonUnits) {
+      long row = latUnits - latMin;
+      long col = lonUnits - lonMin;
+
+      if (row < 0 || row >= rows || col < 0 || col >= cols) {
+        return false;
+      }
+
+      return mask.get((int) (row * cols + col));
     }
 
   }
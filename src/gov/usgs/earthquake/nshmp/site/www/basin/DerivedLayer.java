@@ -0,0 +1,94 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import com.google.common.collect.ImmutableMap;
+
+import gov.usgs.earthquake.nshmp.util.Maths;
+
+/**
+ * Transform of the z1p0 and z2p5 values of a basin into the values that are
+ * served, for basins where a layer is derived from another layer rather than
+ * taken from the basin model itself.
+ *
+ * <p> A derived layer is applied once, when a {@link BasinGrid} is built from
+ * the basin data or when an ArcGIS result is cached, so the local and ArcGIS
+ * routes serve the same precomputed values. Source values are not rounded;
+ * a derived layer rounds the values it derives. Use
+ * {@link DerivedLayer#forBasin(Basin)} to get the transform of a basin; basins
+ * without a derived layer use {@link DerivedLayer#IDENTITY}.
+ *
+ * <p> Values are in km and {@code NaN} for missing values.
+ *
+ * @author Brandon Clayton
+ */
+public interface DerivedLayer {
+
+  /** Transform that returns the values unchanged. */
+  DerivedLayer IDENTITY = new DerivedLayer() {};
+
+  /** Precision of derived values in km, that of the published basin data. */
+  double DERIVED_PRECISION = 0.001;
+
+  /**
+   * Seattle z1p0 as a converted z2p5 value, instead of the model value itself.
+   * Two regressions derived by M. Moschetti in memo dated July 6, 2018, each
+   * with 50% weight.
+   *
+   * <p> The Seattle z1p0 and z2p5 datasets do not have identical spatial
+   * representation in the Arc geodatabase and the basin polygon was created
+   * based on the z2p5 dataset, so there are locations (e.g. -122.7 46.9) where
+   * the source z1p0 value is null. Since z1p0 is derived from z2p5 alone, those
+   * locations have a z1p0 value whenever z2p5 is present.
+   *
+   * <p> The derived z1p0 is rounded to {@link #DERIVED_PRECISION}; the source
+   * z2p5 is served as is.
+   */
+  DerivedLayer PUGET_LOWLAND_Z1P0 = new DerivedLayer() {
+    @Override
+    public double z1p0(double z1p0, double z2p5) {
+      if (Double.isNaN(z2p5)) return Double.NaN;
+      return Maths.round(
+          0.5 * (0.1146 * z2p5 + 0.2826) + 0.5 * (0.0933 * z2p5 + 0.1444),
+          DERIVED_PRECISION);
+    }
+  };
+
+  /**
+   * Returns the z1p0 value to serve.
+   *
+   * @param z1p0 The source z1p0 value in km
+   * @param z2p5 The source z2p5 value in km
+   */
+  default double z1p0(double z1p0, double z2p5) {
+    return z1p0;
+  }
+
+  /**
+   * Returns the z2p5 value to serve.
+   *
+   * @param z1p0 The source z1p0 value in km
+   * @param z2p5 The source z2p5 value in km
+   */
+  default double z2p5(double z1p0, double z2p5) {
+    return z2p5;
+  }
+
+  /**
+   * Returns the derived layer of a basin, {@link #IDENTITY} if the values of
+   * the basin are served as is.
+   *
+   * @param basin The basin
+   */
+  static DerivedLayer forBasin(Basin basin) {
+    DerivedLayer derivedLayer = Registry.DERIVED_LAYERS.get(basin);
+    return derivedLayer == null ? IDENTITY : derivedLayer;
+  }
+
+  /* Derived layers by basin */
+  static final class Registry {
+    static final ImmutableMap<Basin, DerivedLayer> DERIVED_LAYERS =
+        ImmutableMap.of(Basin.PUGET_LOWLAND, PUGET_LOWLAND_Z1P0);
+
+    private Registry() {}
+  }
+
+}
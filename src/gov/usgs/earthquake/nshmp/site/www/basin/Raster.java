@@ -0,0 +1,485 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid.Interpolation;
+
+/**
+ * Regular latitude-longitude grid of named layers of values, e.g. the z1p0
+ * and z2p5 layers of a {@link BasinGrid} or a Vs30 layer of
+ * {@link SiteLayers}.
+ *
+ * <p> The grid spacing is {@code 1 / nodesPerDegree} degrees so that grid
+ * nodes fall on whole degrees. Nodes are stored in row-major order starting
+ * from the south-west corner of the extent of the grid. All layers share the
+ * node index, so the index of a location is computed once for all layers.
+ * Nodes inside the extent without a value return {@code NaN}.
+ *
+ * @author Brandon Clayton
+ */
+public class Raster {
+
+  private final int nodesPerDegree;
+  private final double scale;
+  private final int rowMin;
+  private final int colMin;
+  private final int rows;
+  private final int cols;
+
+  private final ImmutableMap<String, Layer> layers;
+
+  private Raster(
+      int nodesPerDegree,
+      int rowMin,
+      int colMin,
+      int rows,
+      int cols,
+      List<String> layerNames,
+      Storage storage) {
+    this.nodesPerDegree = nodesPerDegree;
+    this.scale = nodesPerDegree;
+    this.rowMin = rowMin;
+    this.colMin = colMin;
+    this.rows = rows;
+    this.cols = cols;
+
+    ImmutableMap.Builder<String, Layer> layers = ImmutableMap.builder();
+    for (String name : layerNames) {
+      layers.put(name, Layer.create(storage, rows * cols));
+    }
+    this.layers = layers.build();
+  }
+
+  /**
+   * Returns a latitude or longitude rounded to the nearest grid node in grid
+   * units ({@code degrees * nodesPerDegree}).
+   *
+   * @param value The latitude or longitude in degrees
+   */
+  public long units(double value) {
+    return Math.round(value * scale);
+  }
+
+  /**
+   * Returns the index of the grid node nearest to a latitude and longitude, or
+   * {@code -1} if the location is outside the grid.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   */
+  public int index(double latitude, double longitude) {
+    return index(units(latitude), units(longitude));
+  }
+
+  /**
+   * Returns the index of a grid node from a latitude and longitude in grid
+   * units, or {@code -1} if the node is outside the grid.
+   *
+   * @param latUnits latitude in grid units
+   * @param lonUnits longitude in grid units
+   */
+  public int index(long latUnits, long lonUnits) {
+    long row = latUnits - rowMin;
+    long col = lonUnits - colMin;
+
+    if (row < 0 || row >= rows || col < 0 || col >= cols) {
+      return -1;
+    }
+
+    return (int) (row * cols + col);
+  }
+
+  /** Returns the number of grid nodes per degree. */
+  public int nodesPerDegree() {
+    return nodesPerDegree;
+  }
+
+  /** Returns the grid spacing in degrees. */
+  public double spacing() {
+    return 1.0 / scale;
+  }
+
+  /** Returns the number of nodes in the grid. */
+  public int size() {
+    return rows * cols;
+  }
+
+  /** Returns the number of rows (latitudes) in the grid. */
+  public int rows() {
+    return rows;
+  }
+
+  /** Returns the number of columns (longitudes) in the grid. */
+  public int columns() {
+    return cols;
+  }
+
+  /** Returns the names of the layers, in the order they were created. */
+  public ImmutableSet<String> layers() {
+    return layers.keySet();
+  }
+
+  /**
+   * Returns the latitude of a grid node.
+   *
+   * @param index The grid node index
+   */
+  public double latitude(int index) {
+    return (rowMin + index / cols) / scale;
+  }
+
+  /**
+   * Returns the longitude of a grid node.
+   *
+   * @param index The grid node index
+   */
+  public double longitude(int index) {
+    return (colMin + index % cols) / scale;
+  }
+
+  /**
+   * Returns whether any layer has a value at a grid node.
+   *
+   * @param index The grid node index
+   */
+  public boolean contains(int index) {
+    if (index < 0 || index >= size()) return false;
+
+    for (Layer layer : layers.values()) {
+      if (!Double.isNaN(layer.get(index))) return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the value of a layer at a grid node, or {@code NaN} if there is no
+   * value or the index is {@code -1}.
+   *
+   * @param name The layer name
+   * @param index The grid node index
+   * @throws IllegalArgumentException if the layer does not exist
+   */
+  public double value(String name, int index) {
+    return index < 0 ? Double.NaN : layer(name).get(index);
+  }
+
+  /**
+   * Returns the value of a layer at a latitude and longitude, or {@code NaN}
+   * if there is no value.
+   *
+   * @param name The layer name
+   * @param latitude in degrees
+   * @param longitude in degrees
+   * @param interpolation The interpolation between grid nodes
+   * @throws IllegalArgumentException if the layer does not exist
+   */
+  public double value(
+      String name,
+      double latitude,
+      double longitude,
+      Interpolation interpolation) {
+    return interpolate(layer(name), latitude, longitude, interpolation);
+  }
+
+  /** Returns the approximate number of bytes used to store the layers. */
+  public long storageBytes() {
+    long bytes = 0;
+    for (Layer layer : layers.values()) {
+      bytes += layer.bytes();
+    }
+    return bytes;
+  }
+
+  /* The storage of a layer */
+  Layer layer(String name) {
+    Layer layer = layers.get(name);
+    checkArgument(layer != null, "Layer [%s] does not exist", name);
+    return layer;
+  }
+
+  /*
+   * Bilinear interpolation falls back to the nearest node unless all four
+   * surrounding nodes have a value.
+   */
+  double interpolate(
+      Layer layer,
+      double latitude,
+      double longitude,
+      Interpolation interpolation) {
+    if (interpolation == Interpolation.BILINEAR) {
+      double row = latitude * scale - rowMin;
+      double col = longitude * scale - colMin;
+      int row0 = (int) Math.floor(row);
+      int col0 = (int) Math.floor(col);
+
+      if (row0 >= 0 && row0 + 1 < rows && col0 >= 0 && col0 + 1 < cols) {
+        int index = row0 * cols + col0;
+        double v00 = layer.get(index);
+        double v01 = layer.get(index + 1);
+        double v10 = layer.get(index + cols);
+        double v11 = layer.get(index + cols + 1);
+
+        if (!(Double.isNaN(v00) || Double.isNaN(v01) || Double.isNaN(v10) ||
+            Double.isNaN(v11))) {
+          double fRow = row - row0;
+          double fCol = col - col0;
+          return (1 - fRow) * ((1 - fCol) * v00 + fCol * v01) +
+              fRow * ((1 - fCol) * v10 + fCol * v11);
+        }
+      }
+    }
+
+    int index = index(latitude, longitude);
+    return index < 0 ? Double.NaN : layer.get(index);
+  }
+
+  /**
+   * Returns a new {@code Builder} for a grid with the specified extent.
+   *
+   * @param nodesPerDegree The number of grid nodes per degree
+   * @param latMin Minimum latitude in degrees
+   * @param latMax Maximum latitude in degrees
+   * @param lonMin Minimum longitude in degrees
+   * @param lonMax Maximum longitude in degrees
+   * @param layers The layer names
+   * @param storage The storage mode of the layers
+   */
+  static Builder builder(
+      int nodesPerDegree,
+      double latMin,
+      double latMax,
+      double lonMin,
+      double lonMax,
+      List<String> layers,
+      Storage storage) {
+    return new Builder(nodesPerDegree, latMin, latMax, lonMin, lonMax, layers, storage);
+  }
+
+  /**
+   * {@code Raster} builder.
+   */
+  static class Builder {
+    private final Raster raster;
+    private boolean built;
+
+    private Builder(
+        int nodesPerDegree,
+        double latMin,
+        double latMax,
+        double lonMin,
+        double lonMax,
+        List<String> layers,
+        Storage storage) {
+      checkArgument(nodesPerDegree > 0, "Nodes per degree must be positive");
+      checkArgument(!layers.isEmpty(), "A raster must have at least one layer");
+
+      long rowMin = Math.round(latMin * nodesPerDegree);
+      long colMin = Math.round(lonMin * nodesPerDegree);
+      long rows = Math.round(latMax * nodesPerDegree) - rowMin + 1;
+      long cols = Math.round(lonMax * nodesPerDegree) - colMin + 1;
+      checkArgument(rows > 0 && cols > 0 && rows * cols <= Integer.MAX_VALUE,
+          "Invalid grid extent [%s, %s, %s, %s]", latMin, latMax, lonMin, lonMax);
+
+      raster = new Raster(
+          nodesPerDegree,
+          (int) rowMin,
+          (int) colMin,
+          (int) rows,
+          (int) cols,
+          layers,
+          storage);
+    }
+
+    /**
+     * Returns the index of the grid node nearest to a latitude and longitude.
+     *
+     * @param latitude in degrees
+     * @param longitude in degrees
+     * @throws IllegalArgumentException if the location is outside the grid
+     */
+    int index(double latitude, double longitude) {
+      int index = raster.index(latitude, longitude);
+      checkArgument(index >= 0, "Location [%s, %s] outside of grid", latitude, longitude);
+      return index;
+    }
+
+    /**
+     * Returns whether any layer has a value at a grid node.
+     *
+     * @param index The grid node index
+     */
+    boolean contains(int index) {
+      return raster.contains(index);
+    }
+
+    /**
+     * Set the value of a layer at a grid node.
+     *
+     * @param name The layer name
+     * @param index The grid node index
+     * @param value The value, {@code NaN} if there is no value
+     */
+    Builder set(String name, int index, double value) {
+      checkState(!built, "Raster has already been built");
+      raster.layer(name).set(index, value);
+      return this;
+    }
+
+    Raster build() {
+      checkState(!built, "Raster has already been built");
+      built = true;
+      return raster;
+    }
+  }
+
+  /* Storage of a single gridded value */
+  abstract static class Layer {
+
+    abstract double get(int index);
+
+    abstract void set(int index, double value);
+
+    abstract long bytes();
+
+    static Layer create(Storage storage, int size) {
+      switch (storage) {
+        case DOUBLE:
+          return new DoubleLayer(size);
+        case QUANTIZED:
+          return new QuantizedLayer(size);
+        case MAPPED:
+          return new MappedLayer(size);
+        default:
+          throw new IllegalArgumentException("Storage [" + storage + "] not supported");
+      }
+    }
+  }
+
+  /* Layer backed by a double array */
+  private static final class DoubleLayer extends Layer {
+    private final double[] values;
+
+    DoubleLayer(int size) {
+      values = new double[size];
+      Arrays.fill(values, Double.NaN);
+    }
+
+    @Override
+    double get(int index) {
+      return values[index];
+    }
+
+    @Override
+    void set(int index, double value) {
+      values[index] = value;
+    }
+
+    @Override
+    long bytes() {
+      return 8L * values.length;
+    }
+  }
+
+  /*
+   * Layer of double values in a memory-mapped temporary file, off the heap.
+   * The file is deleted once mapped, where supported, and the mapping is
+   * released when the layer is garbage collected.
+   */
+  private static final class MappedLayer extends Layer {
+    private final DoubleBuffer values;
+
+    MappedLayer(int size) {
+      try {
+        Path file = Files.createTempFile("raster-layer-", ".bin");
+        try (FileChannel channel = FileChannel.open(
+            file,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE)) {
+          values = channel.map(MapMode.READ_WRITE, 0, 8L * size).asDoubleBuffer();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      for (int i = 0; i < size; i++) {
+        values.put(i, Double.NaN);
+      }
+    }
+
+    @Override
+    double get(int index) {
+      return values.get(index);
+    }
+
+    @Override
+    void set(int index, double value) {
+      values.put(index, value);
+    }
+
+    @Override
+    long bytes() {
+      return 8L * values.capacity();
+    }
+  }
+
+  /*
+   * Layer backed by a char array of values in meters. Basin depths are
+   * published in km to three decimal places, so whole meters are lossless; an
+   * IllegalArgumentException is thrown for values that are not.
+   */
+  private static final class QuantizedLayer extends Layer {
+    private static final char NULL = Character.MAX_VALUE;
+    private static final double SCALE = 1000.0;
+
+    private final char[] values;
+
+    QuantizedLayer(int size) {
+      values = new char[size];
+      Arrays.fill(values, NULL);
+    }
+
+    @Override
+    double get(int index) {
+      char value = values[index];
+      return value == NULL ? Double.NaN : value / SCALE;
+    }
+
+    @Override
+    void set(int index, double value) {
+      if (Double.isNaN(value)) {
+        values[index] = NULL;
+        return;
+      }
+
+      long quantized = Math.round(value * SCALE);
+      checkArgument(
+          quantized >= 0 && quantized < NULL && quantized / SCALE == value,
+          "Value [%s] cannot be quantized without loss", value);
+      values[index] = (char) quantized;
+    }
+
+    @Override
+    long bytes() {
+      return 2L * values.length;
+    }
+  }
+
+}
@@ -0,0 +1,240 @@
+package gov.usgs.earthquake.nshmp.site.www.basin;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import com.google.common.collect.ImmutableList;
+
+import gov.usgs.earthquake.nshmp.internal.Csv;
+import gov.usgs.earthquake.nshmp.internal.Csv.Record;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+
+/**
+ * Gridded site parameters other than the basin depths, e.g. Vs30, each a named
+ * layer of a {@link Raster}.
+ *
+ * <p> Layers are read from the {@code *.csv} files of a directory, one raster
+ * per file. The columns of a file are {@code lon}, {@code lat}, and one column
+ * per layer named by the column key, e.g. {@code lon,lat,vs30}; layer names
+ * must be unique over all files. Missing values are {@code NaN}.
+ *
+ * <p> The extent of a raster is the bounding box of its file and the grid
+ * spacing is the smallest difference between the latitudes or longitudes of
+ * the file, which must divide a degree, e.g. {@code 0.01} or 30 arc seconds.
+ * Grid nodes must fall on multiples of the spacing.
+ *
+ * @author Brandon Clayton
+ */
+public class SiteLayers {
+
+  /** No site layers. */
+  public static final SiteLayers EMPTY = new SiteLayers(ImmutableList.of());
+
+  private static final String LAT = "lat";
+  private static final String LON = "lon";
+
+  /* Allowed distance of a location from a grid node, in nodes */
+  private static final double NODE_TOLERANCE = 0.01;
+
+  private final ImmutableList<Raster> rasters;
+  private final ImmutableList<String> layers;
+
+  private SiteLayers(ImmutableList<Raster> rasters) {
+    this.rasters = rasters;
+
+    ImmutableList.Builder<String> layers = ImmutableList.builder();
+    Set<String> names = new HashSet<>();
+
+    for (Raster raster : rasters) {
+      for (String name : raster.layers()) {
+        checkArgument(names.add(name), "Duplicate site layer [%s]", name);
+        layers.add(name);
+      }
+    }
+
+    this.layers = layers.build();
+  }
+
+  /**
+   * Returns the site layers of all {@code *.csv} files in a directory.
+   *
+   * @param dir The site layer directory
+   * @param storage The storage mode of the layers
+   * @throws IllegalArgumentException if a file is not a regular grid or a
+   *         layer name is not unique
+   */
+  public static SiteLayers read(Path dir, Storage storage) {
+    checkArgument(Files.isDirectory(dir), "Site layers [%s] is not a directory", dir);
+
+    ImmutableList.Builder<Raster> rasters = ImmutableList.builder();
+
+    try (Stream<Path> paths = Files.list(dir)) {
+      for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+        if (path.getFileName().toString().endsWith(".csv")) {
+          rasters.add(readRaster(path, storage));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return new SiteLayers(rasters.build());
+  }
+
+  /**
+   * Returns the raster of the layers of a CSV file.
+   *
+   * @param path The CSV file
+   * @param storage The storage mode of the layers
+   */
+  static Raster readRaster(Path path, Storage storage) {
+    Csv csv = Csv.create(path);
+    List<String> keys = csv.columnKeys();
+    checkArgument(
+        keys.contains(LAT) && keys.contains(LON),
+        "Site layer [%s] must have lon and lat columns", path);
+
+    List<String> layers = new ArrayList<>(keys);
+    layers.remove(LAT);
+    layers.remove(LON);
+    checkArgument(!layers.isEmpty(), "Site layer [%s] has no value columns", path);
+
+    List<double[]> rows = new ArrayList<>();
+
+    try (Stream<Record> records = csv.records()) {
+      records.forEach(record -> {
+        double[] row = new double[layers.size() + 2];
+        row[0] = record.getDouble(LAT);
+        row[1] = record.getDouble(LON);
+        for (int i = 0; i < layers.size(); i++) {
+          row[i + 2] = record.getDouble(layers.get(i));
+        }
+        rows.add(row);
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    checkState(!rows.isEmpty(), "No data for site layer [%s]", path);
+
+    TreeSet<Double> lats = new TreeSet<>();
+    TreeSet<Double> lons = new TreeSet<>();
+
+    for (double[] row : rows) {
+      checkArgument(
+          !Double.isNaN(row[0]) && !Double.isNaN(row[1]),
+          "Missing latitude or longitude in site layer [%s]", path);
+      lats.add(row[0]);
+      lons.add(row[1]);
+    }
+
+    int nodesPerDegree = nodesPerDegree(lats, lons);
+    checkArgument(
+        onGrid(lats, nodesPerDegree) && onGrid(lons, nodesPerDegree),
+        "Site layer [%s] locations are not on a grid of spacing 1/%s",
+        path, nodesPerDegree);
+
+    Raster.Builder builder = Raster.builder(
+        nodesPerDegree,
+        lats.first(),
+        lats.last(),
+        lons.first(),
+        lons.last(),
+        layers,
+        storage);
+
+    for (double[] row : rows) {
+      int index = builder.index(row[0], row[1]);
+      checkArgument(!builder.contains(index),
+          "Duplicate location [%s, %s] in site layer [%s]", row[0], row[1], path);
+
+      for (int i = 0; i < layers.size(); i++) {
+        builder.set(layers.get(i), index, row[i + 2]);
+      }
+    }
+
+    return builder.build();
+  }
+
+  /*
+   * The grid nodes per degree from the smallest difference between adjacent
+   * latitudes or longitudes; one node per degree for a single location.
+   */
+  private static int nodesPerDegree(TreeSet<Double> lats, TreeSet<Double> lons) {
+    double spacing = Math.min(minDelta(lats), minDelta(lons));
+    if (Double.isInfinite(spacing)) return 1;
+
+    long nodesPerDegree = Math.round(1.0 / spacing);
+    checkArgument(
+        nodesPerDegree > 0 && Math.abs(nodesPerDegree * spacing - 1) < NODE_TOLERANCE,
+        "Site layer spacing [%s] must divide a degree", spacing);
+    return (int) nodesPerDegree;
+  }
+
+  private static double minDelta(TreeSet<Double> values) {
+    double min = Double.POSITIVE_INFINITY;
+    Double previous = null;
+
+    for (double value : values) {
+      if (previous != null) {
+        min = Math.min(min, value - previous);
+      }
+      previous = value;
+    }
+
+    return min;
+  }
+
+  private static boolean onGrid(Set<Double> values, int nodesPerDegree) {
+    for (double value : values) {
+      double units = value * nodesPerDegree;
+      if (Math.abs(units - Math.rint(units)) > NODE_TOLERANCE) return false;
+    }
+    return true;
+  }
+
+  /** Returns the layer names, in the order of {@link #values(double, double)}. */
+  public ImmutableList<String> layers() {
+    return layers;
+  }
+
+  /** Returns the rasters of the layers. */
+  public ImmutableList<Raster> rasters() {
+    return rasters;
+  }
+
+  /**
+   * Returns the values of all layers at the grid node nearest to a latitude
+   * and longitude, in the order of {@link #layers()}; {@code NaN} where there
+   * is no value or the location is outside the extent of a layer.
+   *
+   * @param latitude in degrees
+   * @param longitude in degrees
+   */
+  public double[] values(double latitude, double longitude) {
+    double[] values = new double[layers.size()];
+    int i = 0;
+
+    for (Raster raster : rasters) {
+      int index = raster.index(latitude, longitude);
+
+      for (String name : raster.layers()) {
+        values[i++] = raster.value(name, index);
+      }
+    }
+
+    return values;
+  }
+
+}
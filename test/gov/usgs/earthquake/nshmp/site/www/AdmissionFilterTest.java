@@ -0,0 +1,136 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.site.www.AdmissionFilter.AimdLimiter;
+import gov.usgs.earthquake.nshmp.site.www.AdmissionFilter.TokenBucket;
+
+/**
+ * Test for AdmissionFilter.
+ *
+ * @author Brandon Clayton
+ */
+public class AdmissionFilterTest {
+
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void limiter() throws Exception {
+    AimdLimiter limiter = new AimdLimiter(32);
+
+    for (int i = 0; i < 32; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    assertFalse(limiter.tryAcquire());
+    assertEquals(32, limiter.inFlight());
+
+    /* Establish a baseline */
+    for (int i = 0; i < 32; i++) {
+      limiter.release(MILLIS, false);
+      assertTrue(limiter.tryAcquire());
+    }
+    assertEquals(32, limiter.limit());
+
+    /* A slow request lowers the limit, at most once per latency */
+    Thread.sleep(40);
+    limiter.release(20 * MILLIS, false);
+    assertEquals((int) (32 * AimdLimiter.BACKOFF), limiter.limit());
+    limiter.release(20 * MILLIS, false);
+    assertEquals((int) (32 * AimdLimiter.BACKOFF), limiter.limit());
+    assertFalse(limiter.tryAcquire());
+
+    /* The limit is never lowered below the minimum */
+    for (int i = 0; i < 30; i++) {
+      Thread.sleep(1);
+      limiter.release(0, true);
+    }
+    assertEquals(2, limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  public void baselineHold() throws Exception {
+    long hold = 200 * MILLIS;
+    AimdLimiter limiter = new AimdLimiter(32, hold);
+
+    for (int i = 0; i < 32; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(MILLIS, false);
+    }
+    assertEquals(MILLIS, limiter.baseline(), 0);
+
+    /* Slow requests are not added to the baseline while held */
+    for (int i = 0; i < 300; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.release(20 * MILLIS, false);
+    }
+    assertEquals(MILLIS, limiter.baseline(), 0);
+
+    /* A lasting slowdown becomes the baseline */
+    Thread.sleep(2 * hold / MILLIS);
+    assertTrue(limiter.tryAcquire());
+    limiter.release(20 * MILLIS, false);
+    assertTrue(limiter.baseline() > MILLIS);
+  }
+
+  @Test
+  public void reportFailure() throws Exception {
+    AdmissionFilter filter = new AdmissionFilter();
+    filter.init(null);
+
+    ServletStub.Request stubRequest = new ServletStub.Request("/basin", "/arc-data");
+    ServletStub.Response stubResponse = new ServletStub.Response();
+    HttpServletRequest request = stubRequest.proxy();
+    HttpServletResponse response = stubResponse.proxy();
+
+    AimdLimiter limiter = filter.limiter(request);
+    int limit = limiter.limit();
+
+    /* Errors returned with status 200 are failures once reported */
+    filter.doFilter(request, response, (req, resp) -> {});
+    assertEquals(limit, limiter.limit());
+
+    Thread.sleep(1);
+    filter.doFilter(request, response, (req, resp) -> AdmissionFilter.reportFailure(req));
+    assertEquals((int) (limit * AimdLimiter.BACKOFF), limiter.limit());
+
+    stubRequest.attributes.clear();
+    stubResponse.status = HttpServletResponse.SC_BAD_GATEWAY;
+    Thread.sleep(1);
+    filter.doFilter(request, response, (req, resp) -> {});
+    assertEquals((int) (limit * AimdLimiter.BACKOFF * AimdLimiter.BACKOFF), limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  public void tokenBucket() {
+    long now = 0;
+    TokenBucket bucket = new TokenBucket(10, 2, now);
+
+    assertEquals(0, bucket.tryAcquire(now));
+    assertEquals(0, bucket.tryAcquire(now));
+    assertEquals(100 * MILLIS, bucket.tryAcquire(now));
+
+    now += 50 * MILLIS;
+    assertEquals(50 * MILLIS, bucket.tryAcquire(now));
+
+    now += 50 * MILLIS;
+    assertEquals(0, bucket.tryAcquire(now));
+
+    /* Tokens are capped at the burst */
+    now += TimeUnit.SECONDS.toNanos(10);
+    assertEquals(0, bucket.tryAcquire(now));
+    assertEquals(0, bucket.tryAcquire(now));
+    assertTrue(bucket.tryAcquire(now) > 0);
+  }
+
+}
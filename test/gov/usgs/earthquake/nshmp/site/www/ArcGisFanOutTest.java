@@ -0,0 +1,251 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+import gov.usgs.earthquake.nshmp.site.www.ArcGisFanOut.Node;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Test for ArcGisFanOut with a stub of the ArcGIS service.
+ *
+ * @author Brandon Clayton
+ */
+public class ArcGisFanOutTest {
+
+  private static final Basins BASINS = Basins.getBasins();
+  private static final long LAT = 4740;
+  private static final long LON = -12240;
+  private static final BasinRegion PUGET = BASINS.findRegion(LAT, LON);
+
+  @Test
+  public void maxInFlight() {
+    StubLoad load = new StubLoad(10);
+    ArcGisFanOut.fetch(nodes(40), deadline(30), 4, load);
+
+    assertEquals(40, load.loaded.size());
+    assertEquals(40, new HashSet<>(load.loaded).size());
+    assertTrue(load.maxInFlight.get() <= 4);
+    assertTrue(load.maxInFlight.get() > 1);
+  }
+
+  @Test
+  public void firstFailure() throws Exception {
+    StubLoad load = new StubLoad(20);
+    load.failure = ArcGisCache.key(LAT, LON + 2);
+
+    try {
+      ArcGisFanOut.fetch(nodes(40), deadline(30), 4, load);
+      fail("Expected the failure of the load");
+    } catch (IllegalStateException e) {
+      assertEquals("Upstream failure", e.getMessage());
+    }
+
+    /* Loads that started complete, the rest are not started */
+    load.awaitIdle();
+    assertTrue(load.started.get() < 40);
+    assertEquals(0, load.interrupted.get());
+  }
+
+  @Test
+  public void deadline() throws Exception {
+    StubLoad load = new StubLoad(100);
+
+    long start = System.nanoTime();
+    try {
+      ArcGisFanOut.fetch(nodes(40), deadline(0.25), 4, load);
+      fail("Expected the deadline to pass");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("40 grid nodes not fetched within"));
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+    load.awaitIdle();
+    int started = load.started.get();
+    Thread.sleep(200);
+    assertEquals(started, load.started.get());
+    assertTrue(started < 40);
+    assertEquals(0, load.interrupted.get());
+  }
+
+  @Test
+  public void sharedLoad() throws Exception {
+    ArcGisCache cache = new ArcGisCache(1000, null);
+    CountDownLatch loading = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    Callable<ArcGisResult> upstream = () -> {
+      calls.incrementAndGet();
+      loading.countDown();
+      Thread.sleep(500);
+      return new ArcGisResult(ArcGisResult.emptyValues(), 47.4, -122.4);
+    };
+
+    /* A batch fails at its deadline during a load another request waits on */
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<ArcGisResult> waiting = executor.submit(() -> {
+        loading.await();
+        return cache.get(LAT, LON, upstream, true);
+      });
+
+      try {
+        ArcGisFanOut.fetch(nodes(1), deadline(0.1), 4, node -> {
+          try {
+            cache.get(node.latUnits, node.lonUnits, upstream, true);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+        fail("Expected the deadline to pass");
+      } catch (IllegalStateException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("not fetched within"));
+      }
+
+      ArcGisResult result = waiting.get(5, TimeUnit.SECONDS);
+      assertEquals(47.4, result.latitude, 0);
+
+      /* Cached by the load the batch started */
+      assertSame(result, cache.get(LAT, LON, () -> {
+        throw new IllegalStateException("Not cached");
+      }, true));
+      assertEquals(1, calls.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void uncachedNodes() {
+    List<Location> sites = new ArrayList<>();
+    sites.add(Location.create(47.4, -122.4));
+    sites.add(Location.create(47.4, -122.4));
+    /* Rounds to the node of the first site */
+    sites.add(Location.create(47.4002, -122.3998));
+    sites.add(Location.create(47.41, -122.4));
+    sites.add(Location.create(47.42, -122.4));
+    /* Outside all basin regions */
+    sites.add(Location.create(-33.9, 151.2));
+
+    Set<Long> cached = Collections.singleton(ArcGisCache.key(4742, LON));
+    List<Node> nodes = ArcGisFanOut.uncachedNodes(
+        sites,
+        BASINS,
+        node -> cached.contains(ArcGisCache.key(node.latUnits, node.lonUnits)));
+
+    assertEquals(2, nodes.size());
+    assertEquals(LAT, nodes.get(0).latUnits);
+    assertEquals(LON, nodes.get(0).lonUnits);
+    assertEquals(4741, nodes.get(1).latUnits);
+    for (Node node : nodes) {
+      assertSame(PUGET, node.basinRegion);
+    }
+  }
+
+  @Test
+  public void executor() {
+    boolean virtual;
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      virtual = true;
+    } catch (NoSuchMethodException e) {
+      virtual = false;
+    }
+    assertEquals(virtual, ArcGisFanOut.VIRTUAL_THREADS);
+
+    /* More loads in flight than threads of the fallback pool */
+    Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+    AtomicInteger loaded = new AtomicInteger();
+    ArcGisFanOut.fetch(nodes(20), deadline(30), BasinUtil.ARCGIS_MAX_IN_FLIGHT * 2, node -> {
+      threads.add(Thread.currentThread().getName());
+      loaded.incrementAndGet();
+    });
+
+    assertEquals(20, loaded.get());
+    if (!ArcGisFanOut.VIRTUAL_THREADS) {
+      assertEquals(Collections.singleton("arcgis-fan-out"), threads);
+    } else {
+      assertFalse(threads.contains("arcgis-fan-out"));
+    }
+  }
+
+  /* Nodes of the Puget Lowland region */
+  private static List<Node> nodes(int count) {
+    List<Node> nodes = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      long latUnits = LAT + i / 10;
+      long lonUnits = LON + i % 10;
+      assertSame(PUGET, BASINS.findRegion(latUnits, lonUnits));
+      nodes.add(new Node(latUnits, lonUnits, PUGET));
+    }
+    return nodes;
+  }
+
+  private static long deadline(double seconds) {
+    return System.nanoTime() + (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+  }
+
+  /* Stub of the ArcGIS service that records the loads of nodes */
+  private static final class StubLoad implements Consumer<Node> {
+    final List<Long> loaded = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger started = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final AtomicInteger interrupted = new AtomicInteger();
+    final long millis;
+    volatile long failure = Long.MIN_VALUE;
+
+    StubLoad(long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public void accept(Node node) {
+      long key = ArcGisCache.key(node.latUnits, node.lonUnits);
+      started.incrementAndGet();
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(millis);
+        if (key == failure) {
+          throw new IllegalStateException("Upstream failure");
+        }
+        loaded.add(key);
+      } catch (InterruptedException e) {
+        interrupted.incrementAndGet();
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    }
+
+    void awaitIdle() throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(0, inFlight.get());
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+
+/**
+ * Test for ArcGisParser.
+ *
+ * @author Brandon Clayton
+ */
+public class ArcGisParserTest {
+
+  @Test
+  public void parse() throws IOException {
+    String response = "{\"results\":[" +
+        "{\"layerId\":0,\"layerName\":\"basin\",\"value\":\"1\"," +
+        "\"attributes\":{\"OBJECTID\":\"12\",\"Lat\":\"47.5\",\"Lon\":-122.3," +
+        "\"z1p0Seattle\":\"Null\",\"z2p5Seattle\":4123.0,\"z1p0bayarea\":\"250\"," +
+        "\"z2p5unknown\":1.0,\"z2p5bayarea\":null}," +
+        "\"geometry\":{\"x\":-122.3,\"y\":47.5}}," +
+        /* Later results are not read */
+        "{\"attributes\":{\"Lat\":0," +
+        "],\"exceededTransferLimit\":false}";
+
+    ArcGisResult result = ArcGisParser.parse(new StringReader(response));
+    assertEquals(47.5, result.latitude, 0);
+    assertEquals(-122.3, result.longitude, 0);
+    assertNull(result.z1p0(BasinModel.SEATTLE));
+    assertEquals(4123.0, result.z2p5(BasinModel.SEATTLE), 0);
+    assertEquals(250.0, result.z1p0(BasinModel.BAY_AREA), 0);
+    assertNull(result.z2p5(BasinModel.BAY_AREA));
+    assertNull(result.z1p0(BasinModel.WASATCH));
+
+    ArcGisResult copy = ArcGisResult.fromJson(result.json());
+    for (BasinModel model : BasinModel.values()) {
+      assertEquals(result.z1p0(model), copy.z1p0(model));
+      assertEquals(result.z2p5(model), copy.z2p5(model));
+    }
+  }
+
+  @Test
+  public void emptyResults() throws IOException {
+    assertNull(ArcGisParser.parse(new StringReader("{\"results\":[]}")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void missingLocation() throws IOException {
+    ArcGisParser.parse(new StringReader("{\"results\":[{\"attributes\":{\"Lat\":1}}]}"));
+  }
+
+}
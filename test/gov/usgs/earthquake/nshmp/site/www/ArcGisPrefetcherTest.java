@@ -0,0 +1,225 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Test for ArcGisPrefetcher with a stub fetch.
+ *
+ * @author Brandon Clayton
+ */
+public class ArcGisPrefetcherTest {
+
+  private static final BasinRegion LA = Basins.getBasins().findRegion(34.05, -118.25);
+  private static final long LAT = BasinGrid.gridUnits(34.05);
+  private static final long LON = BasinGrid.gridUnits(-118.25);
+
+  @Test
+  public void nearestFirst() throws Exception {
+    StubFetch fetch = new StubFetch();
+    ArcGisPrefetcher prefetcher = new ArcGisPrefetcher(2, 1000, fetch);
+
+    /* Queued nodes that are cached or already queued are skipped */
+    fetch.cached.add(ArcGisCache.key(LAT + 1, LON + 1));
+    prefetcher.miss(LAT, LON, LA);
+    prefetcher.miss(LAT, LON, LA);
+    prefetcher.start();
+
+    List<Long> fetched = fetch.await(23);
+    assertEquals(23, new HashSet<>(fetched).size());
+    assertFalse(fetched.contains(ArcGisCache.key(LAT, LON)));
+    assertFalse(fetched.contains(ArcGisCache.key(LAT + 1, LON + 1)));
+
+    /* The 3x3 neighbourhood, then the next ring */
+    for (int i = 0; i < fetched.size(); i++) {
+      long key = fetched.get(i);
+      int ring = (int) Math.max(Math.abs((key >> 32) - LAT), Math.abs((int) key - LON));
+      assertEquals(i < 7 ? 1 : 2, ring);
+    }
+    assertEquals(23, prefetcher.prefetched());
+    assertEquals(0, prefetcher.dropped());
+  }
+
+  @Test
+  public void latestFirst() throws Exception {
+    StubFetch fetch = new StubFetch();
+    ArcGisPrefetcher prefetcher = new ArcGisPrefetcher(1, 1000, fetch);
+
+    prefetcher.miss(LAT, LON, LA);
+    prefetcher.miss(LAT, LON + 10, LA);
+    prefetcher.start();
+
+    List<Long> fetched = fetch.await(16);
+    for (int i = 0; i < fetched.size(); i++) {
+      long lonUnits = (int) (long) fetched.get(i);
+      assertEquals(i < 8 ? LON + 10 : LON, lonUnits, 1);
+    }
+  }
+
+  @Test
+  public void regionClip() throws Exception {
+    /* The easternmost node of the region at the latitude of the site */
+    long lon = LON;
+    while (LA.contains(LAT, lon + 1)) {
+      lon++;
+    }
+
+    List<Long> expected = new ArrayList<>();
+    for (int dLat = -1; dLat <= 1; dLat++) {
+      for (int dLon = -1; dLon <= 1; dLon++) {
+        if ((dLat != 0 || dLon != 0) && LA.contains(LAT + dLat, lon + dLon)) {
+          expected.add(ArcGisCache.key(LAT + dLat, lon + dLon));
+        }
+      }
+    }
+    assertTrue(expected.size() < 8);
+
+    StubFetch fetch = new StubFetch();
+    ArcGisPrefetcher prefetcher = new ArcGisPrefetcher(1, 1000, fetch);
+    prefetcher.miss(LAT, lon, LA);
+    prefetcher.start();
+
+    List<Long> fetched = new ArrayList<>(fetch.await(expected.size()));
+    Thread.sleep(50);
+    assertEquals(expected.size(), fetch.fetched.size());
+    Collections.sort(expected);
+    Collections.sort(fetched);
+    assertEquals(expected, fetched);
+  }
+
+  @Test
+  public void dropOldest() throws Exception {
+    StubFetch fetch = new StubFetch();
+    ArcGisPrefetcher prefetcher = new ArcGisPrefetcher(1, 1000, 4, fetch);
+
+    prefetcher.miss(LAT, LON, LA);
+    assertEquals(4, prefetcher.dropped());
+
+    /* The oldest nodes were dropped and may be queued again */
+    prefetcher.miss(LAT, LON + 10, LA);
+    prefetcher.miss(LAT, LON, LA);
+    assertEquals(20, prefetcher.dropped());
+    prefetcher.start();
+
+    List<Long> fetched = fetch.await(4);
+    for (long key : fetched) {
+      assertEquals(LON, (int) key, 1);
+    }
+
+    /* Nodes that are not fetched are dropped */
+    fetch.accept = false;
+    prefetcher.miss(LAT + 10, LON, LA);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (prefetcher.dropped() < 28 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(28, prefetcher.dropped());
+    assertEquals(4, prefetcher.prefetched());
+  }
+
+  @Test
+  public void rateLimit() throws Exception {
+    StubFetch fetch = new StubFetch();
+    ArcGisPrefetcher prefetcher = new ArcGisPrefetcher(1, 40, fetch);
+    prefetcher.miss(LAT, LON, LA);
+
+    long start = System.nanoTime();
+    prefetcher.start();
+    fetch.await(8);
+    long elapsed = System.nanoTime() - start;
+
+    /* A burst of one, then 40 per second */
+    assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(7 * 25 - 10));
+  }
+
+  @Test
+  public void stop() throws Exception {
+    StubFetch fetch = new StubFetch();
+    ArcGisPrefetcher prefetcher = new ArcGisPrefetcher(1, 1, fetch);
+    prefetcher.miss(LAT, LON, LA);
+    prefetcher.start();
+
+    /* Stopped while waiting for the rate limit */
+    fetch.await(1);
+    long start = System.nanoTime();
+    prefetcher.stop();
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+    Thread.sleep(1500);
+    assertEquals(1, fetch.fetched.size());
+
+    /* Stopped while waiting for a miss */
+    ArcGisPrefetcher idle = new ArcGisPrefetcher(1, 1000, fetch).start();
+    start = System.nanoTime();
+    idle.stop();
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+    idle.miss(LAT + 10, LON, LA);
+    Thread.sleep(50);
+    assertEquals(1, fetch.fetched.size());
+  }
+
+  @Test
+  public void spareCapacity() {
+    Semaphore upstream = new Semaphore(8);
+
+    upstream.acquireUninterruptibly(3);
+    assertTrue(ArcGis.tryAcquireSpare(upstream, 8));
+    assertEquals(4, upstream.availablePermits());
+
+    /* At most half available */
+    assertFalse(ArcGis.tryAcquireSpare(upstream, 8));
+    assertEquals(4, upstream.availablePermits());
+
+    upstream.release(4);
+    assertTrue(ArcGis.tryAcquireSpare(upstream, 8));
+  }
+
+  /* Records fetched nodes in order */
+  private static final class StubFetch implements ArcGisPrefetcher.Fetch {
+    final Set<Long> cached = Collections.synchronizedSet(new HashSet<>());
+    final List<Long> fetched = Collections.synchronizedList(new ArrayList<>());
+    volatile boolean accept = true;
+
+    @Override
+    public boolean isCached(long latUnits, long lonUnits) {
+      return cached.contains(ArcGisCache.key(latUnits, lonUnits));
+    }
+
+    @Override
+    public boolean prefetch(long latUnits, long lonUnits, BasinRegion basinRegion) {
+      if (!accept) return false;
+      long key = ArcGisCache.key(latUnits, lonUnits);
+      cached.add(key);
+      fetched.add(key);
+      return true;
+    }
+
+    List<Long> await(int count) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (fetched.size() < count && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(count, fetched.size());
+      synchronized (fetched) {
+        return new ArrayList<>(fetched);
+      }
+    }
+  }
+
+}
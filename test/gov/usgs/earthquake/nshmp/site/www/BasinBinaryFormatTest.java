@@ -0,0 +1,155 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.RequestData;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinValues.BasinValue;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Test for the batch request body and binary response formats.
+ *
+ * @author Brandon Clayton
+ */
+public class BasinBinaryFormatTest {
+
+  @Test
+  public void encode() {
+    BasinRegion basinRegion = Basins.getBasins().findRegion(47.6, -122.3);
+    BasinModel basinModel = basinRegion.defaultModel;
+
+    List<Result> results = ImmutableList.of(
+        new Result(
+            new RequestData(basinRegion, basinModel, 47.6, -122.3),
+            new BasinValues(
+                new BasinValue(basinModel.z1p0, 0.532),
+                new BasinValue(basinModel.z2p5, 3.45))),
+        /* Null in a basin region */
+        new Result(
+            new RequestData(basinRegion, basinModel, 47.61, -122.31),
+            new BasinValues(
+                new BasinValue(basinModel.z1p0, null),
+                new BasinValue(basinModel.z2p5, 2.0))),
+        /* Outside a basin region */
+        new Result(
+            new RequestData(null, null, -33.9, 151.2),
+            new BasinValues(new BasinValue("", null), new BasinValue("", null))));
+
+    ByteBuffer buffer = BasinBinaryFormat.encode(results);
+    assertEquals(
+        BasinBinaryFormat.HEADER_BYTES + 3 * BasinBinaryFormat.RECORD_BYTES,
+        buffer.remaining());
+
+    /* Decode as a client would */
+    ByteBuffer in = ByteBuffer
+        .wrap(buffer.array(), 0, buffer.limit())
+        .order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(3, in.getInt());
+
+    assertEquals(4760, in.getInt());
+    assertEquals(-12230, in.getInt());
+    assertEquals(basinRegion.basin.ordinal(), in.get());
+    assertEquals(basinModel.ordinal(), in.get());
+    assertEquals(0.532, in.getDouble(), 0);
+    assertEquals(3.45, in.getDouble(), 0);
+
+    assertEquals(4761, in.getInt());
+    assertEquals(-12231, in.getInt());
+    assertEquals(basinRegion.basin.ordinal(), in.get());
+    assertEquals(basinModel.ordinal(), in.get());
+    assertTrue(Double.isNaN(in.getDouble()));
+    assertEquals(2.0, in.getDouble(), 0);
+
+    assertEquals(-3390, in.getInt());
+    assertEquals(15120, in.getInt());
+    assertEquals(-1, in.get());
+    assertEquals(-1, in.get());
+    assertTrue(Double.isNaN(in.getDouble()));
+    assertTrue(Double.isNaN(in.getDouble()));
+
+    assertFalse(in.hasRemaining());
+  }
+
+  @Test
+  public void encodeEmpty() {
+    ByteBuffer buffer = BasinBinaryFormat.encode(ImmutableList.of());
+    assertEquals(BasinBinaryFormat.HEADER_BYTES, buffer.remaining());
+    assertEquals(0, buffer.order(ByteOrder.LITTLE_ENDIAN).getInt());
+  }
+
+  @Test
+  public void readSites() throws IOException {
+    List<Location> sites = readSites(
+        "longitude,latitude\n" +
+            "\n" +
+            "# Los Angeles\n" +
+            "  -118.25 , 34.05  \n" +
+            "\t\n" +
+            "-122.3,47.6\n" +
+            "#-111.89,40.76\n");
+
+    assertEquals(2, sites.size());
+    assertEquals(34.05, sites.get(0).lat(), 0);
+    assertEquals(-118.25, sites.get(0).lon(), 0);
+    assertEquals(47.6, sites.get(1).lat(), 0);
+    assertEquals(-122.3, sites.get(1).lon(), 0);
+
+    assertTrue(readSites("").isEmpty());
+    assertTrue(readSites("lon,lat\n").isEmpty());
+  }
+
+  @Test
+  public void readSitesMalformed() throws IOException {
+    /* A header is only skipped before the first site */
+    assertInvalid("-118.25,34.05\nlongitude,latitude\n", "Line 2");
+    assertInvalid("-118.25\n", "Line 1");
+    assertInvalid("-118.25,34.05,0\n", "Line 1");
+    assertInvalid("# comment\n-118.25,north\n", "Line 2");
+    assertInvalid("-118.25,34.05\n\n-118.25,\n", "Line 3");
+  }
+
+  @Test
+  public void readSitesLimit() throws IOException {
+    StringBuilder body = new StringBuilder("longitude,latitude\n");
+    for (int i = 0; i < BasinUtil.MAX_BATCH_SITES; i++) {
+      body.append("-118.25,34.05\n");
+    }
+    assertEquals(BasinUtil.MAX_BATCH_SITES, readSites(body.toString()).size());
+
+    body.append("-118.25,34.05\n");
+    assertInvalid(body.toString(), "limited to " + BasinUtil.MAX_BATCH_SITES);
+  }
+
+  private static List<Location> readSites(String body) throws IOException {
+    return BasinUtil.readSites(new BufferedReader(new StringReader(body)));
+  }
+
+  private static void assertInvalid(String body, String message) throws IOException {
+    try {
+      readSites(body);
+      fail("Expected IllegalArgumentException for [" + body + "]");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+
+}
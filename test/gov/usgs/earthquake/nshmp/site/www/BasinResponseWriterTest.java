@@ -0,0 +1,85 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Response;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.BasinUtil.Key;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.util.Maths;
+
+/**
+ * Check that local data responses are written as {@link BasinUtil#GSON} would
+ * write them.
+ * 
+ * @author Brandon Clayton
+ */
+@SuppressWarnings("javadoc")
+public class BasinResponseWriterTest {
+
+  private static final String URL = "http://localhost:8080/nshmp-site-ws/basin/local-data";
+
+  private static final List<String[]> SITES = ImmutableList.of(
+      /* LA Basin */
+      new String[] { "34.05", "-118.25" },
+      /* Bay Area */
+      new String[] { "37.7749", "-122.4194" },
+      /* Wasatch Front */
+      new String[] { "40.76", "-111.89" },
+      /* Puget Lowland */
+      new String[] { "47.6", "-122.3" },
+      /* Outside basin */
+      new String[] { "40.83", "-115.76" });
+
+  @Test
+  public void localData() {
+    for (String[] site : SITES) {
+      String json = BasinTermService.writeBasinTermWithLocalData(
+          site[0],
+          site[1],
+          null,
+          URL).toString();
+
+      Result result = BasinTermService.processBasinTermWithLocalData(
+          Double.parseDouble(site[0]),
+          Double.parseDouble(site[1]));
+      String expected = BasinUtil.GSON.toJson(new Response(result, URL));
+
+      assertEquals(maskDate(expected), maskDate(json));
+    }
+  }
+
+  /* The date of a response depends on when it is written */
+  private static String maskDate(String json) {
+    JsonObject jsonObject = new JsonParser().parse(json).getAsJsonObject();
+    assertTrue(jsonObject.has("date"));
+    jsonObject.addProperty("date", "");
+    return BasinUtil.GSON.toJson(jsonObject);
+  }
+
+  @Test
+  public void readGridUnits() {
+    String[] values = {
+        "34", "-118", "34.0", "34.05", "-118.25", "37.7749", "-122.4194",
+        "47.605", "-122.305", "47.6049999", "0.004", "-0.005", ".5", "+12.345",
+        "1.23e1", "47.60000000000000000001" };
+
+    for (String value : values) {
+      double expected = Maths.round(Double.parseDouble(value), BasinData.BASIN_DATA_SPACING);
+      long actual = BasinUtil.readGridUnits(Key.LATITUDE, value);
+      assertEquals(value, BasinGrid.gridUnits(expected), actual);
+      assertEquals(value, expected, BasinResponseWriter.toDegrees(actual), 0);
+    }
+  }
+
+}
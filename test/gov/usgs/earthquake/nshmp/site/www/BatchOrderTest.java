@@ -0,0 +1,67 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import gov.usgs.earthquake.nshmp.geo.Location;
+
+/**
+ * Test for BatchOrder.
+ *
+ * @author Brandon Clayton
+ */
+public class BatchOrderTest {
+
+  @Test
+  public void process() {
+    List<Location> sites = new ArrayList<>();
+    sites.add(Location.create(47.6, -122.3));
+    sites.add(Location.create(34.05, -118.25));
+    sites.add(Location.create(47.601, -122.3));
+    sites.add(Location.create(34.05, -118.25));
+    sites.add(Location.create(-33.9, 151.2));
+
+    AtomicInteger calls = new AtomicInteger();
+    List<String> order = new ArrayList<>();
+
+    List<String> results = BatchOrder.process(sites, true, (lat, lon) -> {
+      calls.incrementAndGet();
+      order.add(lat + "," + lon);
+      return lat + "," + lon;
+    });
+
+    /* Results in input order, sites of a grid node processed once */
+    assertEquals(3, calls.get());
+    assertEquals("47.6,-122.3", results.get(0));
+    assertEquals("34.05,-118.25", results.get(1));
+    assertEquals("47.6,-122.3", results.get(2));
+    assertEquals("34.05,-118.25", results.get(3));
+    assertEquals("-33.9,151.2", results.get(4));
+    assertEquals("-33.9,151.2", order.get(0));
+
+    /* Sites of a grid node at different locations processed separately */
+    calls.set(0);
+    results = BatchOrder.process(sites, false, (lat, lon) -> {
+      calls.incrementAndGet();
+      return lat + "," + lon;
+    });
+    assertEquals(4, calls.get());
+    assertEquals("47.601,-122.3", results.get(2));
+  }
+
+  @Test
+  public void mortonCode() {
+    long origin = BatchOrder.mortonCode(0, 0);
+    assertTrue(BatchOrder.mortonCode(0, 1) == origin + 1);
+    assertTrue(BatchOrder.mortonCode(1, 0) == origin + 2);
+    assertTrue(BatchOrder.mortonCode(1, 1) == origin + 3);
+    assertTrue(BatchOrder.mortonCode(-9000, -18000) < BatchOrder.mortonCode(9000, 18000));
+  }
+
+}
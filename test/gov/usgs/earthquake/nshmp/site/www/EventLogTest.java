@@ -0,0 +1,177 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import gov.usgs.earthquake.nshmp.site.www.EventLog.Event;
+import gov.usgs.earthquake.nshmp.site.www.EventLog.Ring;
+import gov.usgs.earthquake.nshmp.site.www.EventLog.Source;
+
+/**
+ * Test for EventLog.
+ *
+ * @author Brandon Clayton
+ */
+public class EventLogTest {
+
+  @Test
+  public void ring() {
+    Ring<Integer> ring = new Ring<>(3);
+    assertEquals(4, ring.capacity());
+    assertNull(ring.poll());
+
+    /* Full, then wraps around as elements are taken */
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(i));
+    }
+    assertFalse(ring.offer(4));
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, (int) ring.poll());
+      assertTrue(ring.offer(i + 4));
+      assertFalse(ring.offer(-1));
+    }
+
+    for (int i = 10; i < 14; i++) {
+      assertEquals(i, (int) ring.poll());
+    }
+    assertNull(ring.poll());
+  }
+
+  @Test
+  public void ringProducers() throws Exception {
+    int producers = 4;
+    int count = 100000;
+    Ring<long[]> ring = new Ring<>(256);
+    AtomicLong dropped = new AtomicLong();
+    List<Thread> threads = new ArrayList<>();
+
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < count; i++) {
+          if (!ring.offer(new long[] { producer, i })) {
+            dropped.incrementAndGet();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    /* Elements of each producer are taken in order, none are lost */
+    long[] last = { -1, -1, -1, -1 };
+    long taken = 0;
+
+    while (taken + dropped.get() < (long) producers * count) {
+      long[] element = ring.poll();
+      if (element == null) {
+        Thread.yield();
+        continue;
+      }
+      assertTrue(element[1] > last[(int) element[0]]);
+      last[(int) element[0]] = element[1];
+      taken++;
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(ring.poll());
+    assertEquals((long) producers * count, taken + dropped.get());
+  }
+
+  @Test
+  public void log() {
+    StringWriter out = new StringWriter();
+    EventLog log = new EventLog(out, 2, 1.0);
+
+    log.offer(new Event("GET", "/basin/local-data", Source.LOCAL, 1.23456, 34.0512, -118.2549,
+        "los-angeles", "scec-cvmh-15.1.0", 1, null));
+    log.offer(new Event("POST", "/basin/arc-data", Source.ARCGIS, 20.0, Double.NaN, Double.NaN,
+        null, null, 100, new IllegalStateException("Could not reach")));
+    log.offer(new Event("GET", "/site", Source.LOCAL, 1.0, 0, 0, null, null, 1, null));
+    assertEquals(1, log.dropped());
+
+    assertEquals(2, log.drain());
+    assertEquals(0, log.drain());
+
+    String[] lines = out.toString().split("\n");
+    assertEquals(3, lines.length);
+
+    JsonObject success = new JsonParser().parse(lines[0]).getAsJsonObject();
+    assertEquals("success", success.get("status").getAsString());
+    assertEquals("GET", success.get("method").getAsString());
+    assertEquals("/basin/local-data", success.get("route").getAsString());
+    assertEquals("local", success.get("source").getAsString());
+    assertEquals(34.05, success.get("latitude").getAsDouble(), 0.0);
+    assertEquals(-118.25, success.get("longitude").getAsDouble(), 0.0);
+    assertEquals("los-angeles", success.get("basin").getAsString());
+    assertEquals("scec-cvmh-15.1.0", success.get("model").getAsString());
+    assertEquals(1.235, success.get("latency").getAsDouble(), 0.0);
+    assertFalse(success.has("sites"));
+    assertFalse(success.has("error"));
+
+    JsonObject error = new JsonParser().parse(lines[1]).getAsJsonObject();
+    assertEquals("error", error.get("status").getAsString());
+    assertEquals("arcgis", error.get("source").getAsString());
+    assertEquals(100, error.get("sites").getAsInt());
+    assertFalse(error.has("latitude"));
+    assertEquals(IllegalStateException.class.getName(), error.get("error").getAsString());
+    assertEquals("Could not reach", error.get("message").getAsString());
+    assertTrue(error.get("trace").getAsString().contains("EventLogTest"));
+
+    JsonObject dropped = new JsonParser().parse(lines[2]).getAsJsonObject();
+    assertEquals("dropped", dropped.get("status").getAsString());
+    assertEquals(1, dropped.get("dropped").getAsLong());
+  }
+
+  @Test
+  public void stop() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    StringWriter out = new StringWriter() {
+      @Override
+      public void close() {
+        closed.set(true);
+      }
+    };
+    EventLog log = new EventLog(out, 16, 1.0).start();
+
+    log.offer(new Event("GET", "/site", Source.LOCAL, 1.0, 0, 0, null, null, 1, null));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (out.toString().isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, lines(out));
+
+    /* Buffered events are written when stopped */
+    log.offer(new Event("GET", "/site", Source.LOCAL, 1.0, 0, 0, null, null, 1, null));
+    log.stop();
+    assertEquals(2, lines(out));
+    assertTrue(closed.get());
+
+    /* The writer has stopped */
+    log.offer(new Event("GET", "/site", Source.LOCAL, 1.0, 0, 0, null, null, 1, null));
+    Thread.sleep(50);
+    assertEquals(2, lines(out));
+  }
+
+  private static int lines(StringWriter out) {
+    return out.toString().split("\n").length;
+  }
+
+}
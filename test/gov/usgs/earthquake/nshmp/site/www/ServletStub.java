@@ -0,0 +1,140 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet requests and responses for tests, as dynamic proxies that record
+ * what a servlet sets.
+ *
+ * @author Brandon Clayton
+ */
+final class ServletStub {
+
+  private ServletStub() {}
+
+  /** A GET request of a route, e.g. {@code /basin} and {@code /arc-data}. */
+  static final class Request {
+    final Map<String, String> parameters = new LinkedHashMap<>();
+    final Map<String, Object> attributes = new HashMap<>();
+    String method = "GET";
+    final String servletPath;
+    final String pathInfo;
+
+    Request(String servletPath, String pathInfo) {
+      this.servletPath = servletPath;
+      this.pathInfo = pathInfo;
+    }
+
+    Request parameter(String key, Object value) {
+      parameters.put(key, value.toString());
+      return this;
+    }
+
+    HttpServletRequest proxy() {
+      return stub(HttpServletRequest.class, (method, args) -> {
+        switch (method) {
+          case "getMethod":
+            return this.method;
+          case "getServletPath":
+            return servletPath;
+          case "getPathInfo":
+            return pathInfo;
+          case "getRequestURI":
+            return servletPath + (pathInfo == null ? "" : pathInfo);
+          case "getRequestURL":
+            return new StringBuffer("http://localhost" + servletPath +
+                (pathInfo == null ? "" : pathInfo));
+          case "getQueryString":
+            return parameters.isEmpty() ? null : parameters.entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + entry.getValue())
+                .collect(Collectors.joining("&"));
+          case "getParameter":
+            return parameters.get(args[0]);
+          case "getAttribute":
+            return attributes.get(args[0]);
+          case "setAttribute":
+            return attributes.put((String) args[0], args[1]);
+          case "getRemoteAddr":
+            return "127.0.0.1";
+          default:
+            return null;
+        }
+      });
+    }
+  }
+
+  /** A response that records its status, headers, and body. */
+  static final class Response {
+    int status = HttpServletResponse.SC_OK;
+    String message;
+    final Map<String, String> headers = new HashMap<>();
+    final StringWriter body = new StringWriter();
+    private final PrintWriter writer = new PrintWriter(body);
+
+    HttpServletResponse proxy() {
+      return stub(HttpServletResponse.class, (method, args) -> {
+        switch (method) {
+          case "getStatus":
+            return status;
+          case "setStatus":
+            status = (int) args[0];
+            return null;
+          case "sendError":
+            status = (int) args[0];
+            message = args.length > 1 ? (String) args[1] : null;
+            return null;
+          case "setHeader":
+            headers.put((String) args[0], (String) args[1]);
+            return null;
+          case "getHeader":
+            return headers.get(args[0]);
+          case "setContentType":
+            headers.put("Content-Type", (String) args[0]);
+            return null;
+          case "getWriter":
+            return writer;
+          default:
+            return null;
+        }
+      });
+    }
+
+    String body() {
+      writer.flush();
+      return body.toString();
+    }
+  }
+
+  private interface Answer {
+    Object answer(String method, Object[] args);
+  }
+
+  /* Methods not answered return null, or the default of a primitive */
+  private static <T> T stub(Class<T> type, Answer answer) {
+    return type.cast(Proxy.newProxyInstance(
+        type.getClassLoader(),
+        new Class<?>[] { type },
+        (proxy, method, args) -> {
+          Object value = answer.answer(method.getName(), args == null ? new Object[0] : args);
+          Class<?> returnType = method.getReturnType();
+
+          if (value != null || !returnType.isPrimitive() || returnType == void.class) {
+            return value;
+          } else if (returnType == boolean.class) {
+            return false;
+          }
+
+          return returnType == long.class ? (Object) 0L : (Object) 0;
+        }));
+  }
+
+}
@@ -0,0 +1,278 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import gov.usgs.earthquake.nshmp.site.www.ArcGis.ArcGisResult;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.CellLoad;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basin;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+
+/**
+ * Test for SharedCache: several replicas, each an ArcGisCache, in one JVM
+ * against a counting stub of the ArcGIS service. Peers are served by the
+ * /basin/arc-data/cell route of BasinTermService.
+ *
+ * @author Brandon Clayton
+ */
+public class SharedCacheTest {
+
+  private static final int REPLICAS = 3;
+  private static final int CELLS = 10;
+  private static final long LAT_MIN = 4740;
+  private static final long LON_MIN = -12240;
+  private static final BasinModel MODEL = BasinModel.SEATTLE;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AtomicInteger upstreamCalls = new AtomicInteger();
+  private final Map<Long, AtomicInteger> cellCalls = new ConcurrentHashMap<>();
+
+  @Test
+  public void peer() throws Exception {
+    List<HttpServer> servers = new ArrayList<>();
+    List<String> peers = new ArrayList<>();
+    ArcGisCache[] caches = new ArcGisCache[REPLICAS];
+    ExecutorService serverExecutor = Executors.newCachedThreadPool();
+
+    try {
+      for (int i = 0; i < REPLICAS; i++) {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(serverExecutor);
+        servers.add(server);
+        peers.add("http://localhost:" + server.getAddress().getPort() + "/cell");
+      }
+
+      for (int i = 0; i < REPLICAS; i++) {
+        final ArcGisCache cache = new ArcGisCache(1000, new PeerSharedCache(peers, peers.get(i)));
+        caches[i] = cache;
+        servers.get(i).createContext("/cell", exchange -> cell(exchange, cache));
+        servers.get(i).start();
+      }
+
+      /* All replicas request all cells at once */
+      ExecutorService executor = Executors.newFixedThreadPool(16);
+      List<Future<ArcGisResult>> results = new ArrayList<>();
+
+      for (long lat = LAT_MIN; lat < LAT_MIN + CELLS; lat++) {
+        for (long lon = LON_MIN; lon < LON_MIN + CELLS; lon++) {
+          for (ArcGisCache cache : caches) {
+            final long latUnits = lat;
+            final long lonUnits = lon;
+            results.add(executor.submit(
+                () -> cache.get(latUnits, lonUnits, upstream(latUnits, lonUnits), true)));
+          }
+        }
+      }
+
+      for (Future<ArcGisResult> result : results) {
+        checkResult(result.get());
+      }
+      executor.shutdown();
+
+      assertEquals(CELLS * CELLS, upstreamCalls.get());
+    } finally {
+      for (HttpServer server : servers) {
+        server.stop(0);
+      }
+      serverExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void file() throws Exception {
+    List<ArcGisCache> caches = new ArrayList<>();
+
+    for (int i = 0; i < REPLICAS; i++) {
+      caches.add(new ArcGisCache(1000, new FileSharedCache(folder.getRoot().toPath())));
+    }
+
+    /* All replicas request all cells at once */
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    List<Future<ArcGisResult>> results = new ArrayList<>();
+
+    for (long lat = LAT_MIN; lat < LAT_MIN + CELLS; lat++) {
+      for (long lon = LON_MIN; lon < LON_MIN + CELLS; lon++) {
+        for (ArcGisCache cache : caches) {
+          final long latUnits = lat;
+          final long lonUnits = lon;
+          results.add(executor.submit(
+              () -> cache.get(latUnits, lonUnits, upstream(latUnits, lonUnits), true)));
+        }
+      }
+    }
+
+    for (Future<ArcGisResult> result : results) {
+      checkResult(result.get());
+    }
+    executor.shutdown();
+
+    /* Concurrent misses of a cell are fetched at most once by each replica */
+    assertEquals(CELLS * CELLS, cellCalls.size());
+    for (AtomicInteger calls : cellCalls.values()) {
+      assertTrue(calls.get() >= 1 && calls.get() <= REPLICAS);
+    }
+
+    /* Stored cells are read by other replicas */
+    upstreamCalls.set(0);
+    ArcGisCache cache = new ArcGisCache(1000, new FileSharedCache(folder.getRoot().toPath()));
+
+    for (long lat = LAT_MIN; lat < LAT_MIN + CELLS; lat++) {
+      for (long lon = LON_MIN; lon < LON_MIN + CELLS; lon++) {
+        checkResult(cache.get(lat, lon, upstream(lat, lon), true));
+      }
+    }
+    assertEquals(0, upstreamCalls.get());
+  }
+
+  @Test
+  public void cell() throws Exception {
+    /* A cached result */
+    ServletStub.Response response = cell(47.45, -122.35, (lat, lon, region) -> {
+      assertEquals(Basin.PUGET_LOWLAND, region.basin);
+      return result(BasinGrid.gridUnits(lat), BasinGrid.gridUnits(lon));
+    });
+    assertEquals(HttpServletResponse.SC_OK, response.status);
+    ArcGisResult result = ArcGisResult.fromJson(response.body());
+    checkResult(result);
+    assertEquals(47.45, result.latitude, 0);
+    assertEquals(-122.35, result.longitude, 0);
+
+    /* Outside the basin regions */
+    response = cell(-33.9, 151.2, (lat, lon, region) -> {
+      throw new AssertionError("Loaded a site outside the basin regions");
+    });
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, response.status);
+    assertEquals("", response.body());
+
+    /* The ArcGIS service failed */
+    response = cell(47.45, -122.35, (lat, lon, region) -> {
+      throw new IllegalStateException("Could not reach");
+    });
+    assertEquals(HttpServletResponse.SC_BAD_GATEWAY, response.status);
+    assertEquals("Could not reach", response.message);
+    assertEquals("", response.body());
+  }
+
+  @Test
+  public void consistentHashing() {
+    List<String> peers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      peers.add("http://replica" + i + ":8080/cell");
+    }
+
+    PeerSharedCache all = new PeerSharedCache(peers, peers.get(0));
+    PeerSharedCache fewer = new PeerSharedCache(peers.subList(0, 3), peers.get(0));
+    int[] owned = new int[peers.size()];
+
+    for (long lat = LAT_MIN; lat < LAT_MIN + 100; lat++) {
+      for (long lon = LON_MIN; lon < LON_MIN + 100; lon++) {
+        String owner = all.owner(lat, lon);
+        owned[peers.indexOf(owner)]++;
+
+        /* Only the cells of the removed replica are reassigned */
+        if (!owner.equals(peers.get(3))) {
+          assertEquals(owner, fewer.owner(lat, lon));
+        }
+      }
+    }
+
+    for (int count : owned) {
+      assertEquals(2500, count, 1000);
+    }
+  }
+
+  /* Stub of the ArcGIS service with a z1p0 value of the latitude of a cell */
+  private Callable<ArcGisResult> upstream(long latUnits, long lonUnits) {
+    return () -> {
+      upstreamCalls.incrementAndGet();
+      cellCalls.computeIfAbsent(ArcGisCache.key(latUnits, lonUnits), key -> new AtomicInteger())
+          .incrementAndGet();
+      Thread.sleep(20);
+      return result(latUnits, lonUnits);
+    };
+  }
+
+  private static ArcGisResult result(long latUnits, long lonUnits) {
+    double[] values = ArcGisResult.emptyValues();
+    values[ArcGisResult.slot(MODEL.z1p0)] = BasinResponseWriter.toDegrees(latUnits);
+    return new ArcGisResult(
+        values,
+        BasinResponseWriter.toDegrees(latUnits),
+        BasinResponseWriter.toDegrees(lonUnits));
+  }
+
+  private static void checkResult(ArcGisResult result) {
+    assertEquals(result.latitude, result.z1p0(MODEL), 0.0);
+    assertEquals(null, result.z2p5(MODEL));
+  }
+
+  private static ServletStub.Response cell(double latitude, double longitude, CellLoad load)
+      throws IOException {
+    ServletStub.Request request = new ServletStub.Request("/basin", "/arc-data/cell")
+        .parameter("latitude", latitude)
+        .parameter("longitude", longitude);
+    ServletStub.Response response = new ServletStub.Response();
+    BasinTermService.processArcGisCell(request.proxy(), response.proxy(), load, System.nanoTime());
+    return response;
+  }
+
+  /* The /basin/arc-data/cell route of a replica, loading from its cache */
+  private void cell(HttpExchange exchange, ArcGisCache cache) throws IOException {
+    ServletStub.Request request = new ServletStub.Request("/basin", "/arc-data/cell");
+    request.parameters.putAll(Splitter.on('&')
+        .withKeyValueSeparator('=')
+        .split(exchange.getRequestURI().getQuery()));
+    ServletStub.Response response = new ServletStub.Response();
+
+    BasinTermService.processArcGisCell(
+        request.proxy(),
+        response.proxy(),
+        (latitude, longitude, basinRegion) -> {
+          long latUnits = BasinGrid.gridUnits(latitude);
+          long lonUnits = BasinGrid.gridUnits(longitude);
+          try {
+            return cache.get(latUnits, lonUnits, upstream(latUnits, lonUnits), false);
+          } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+          }
+        },
+        System.nanoTime());
+
+    byte[] body = response.body().getBytes(UTF_8);
+    exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.BasinRegionRequest;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService.Result;
+import gov.usgs.earthquake.nshmp.site.www.BasinUtil.Key;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.util.Maths;
+
+/**
+ * Test for SiteService: the basin values of a site match /basin/local-data.
+ *
+ * @author Brandon Clayton
+ */
+public class SiteServiceTest {
+
+  @Test
+  public void halfGrid() {
+    /* Math.round of the grid units and HALF_UP rounding differ here */
+    assertNotEquals(
+        BasinGrid.gridUnits(-118.255),
+        BasinGrid.gridUnits(Maths.round(-118.255, BasinData.BASIN_DATA_SPACING)));
+
+    checkSite(34.005, -118.255);
+    checkSite(34.015, -118.245);
+    checkSite(33.995, -118.265);
+    checkSite(47.605, -122.305);
+  }
+
+  @Test
+  public void grid() {
+    checkSite(34.05, -118.25);
+    checkSite(47.6, -122.3);
+
+    /* Outside all basin regions */
+    Map<String, Object> site = checkSite(-33.9, 151.2);
+    assertNull(site.get("basinRegion"));
+  }
+
+  /* Check the basin values of /site against those of /basin/local-data */
+  private static Map<String, Object> checkSite(double latitude, double longitude) {
+    Map<String, Object> site = SiteService.processSite(
+        BasinTermService.VERSIONS.latest(),
+        latitude,
+        longitude);
+    Result expected = BasinTermService.processBasinTermWithLocalData(latitude, longitude);
+    String message = latitude + "," + longitude;
+
+    /* The site is reported as requested */
+    assertEquals(latitude, (double) site.get(Key.LATITUDE.toString()), 0);
+    assertEquals(longitude, (double) site.get(Key.LONGITUDE.toString()), 0);
+
+    BasinRegionRequest region = (BasinRegionRequest) site.get("basinRegion");
+    BasinModel model = (BasinModel) site.get("basinModel");
+    if (expected.request.basinRegion == null) {
+      assertNull(message, region);
+      assertNull(message, model);
+      return site;
+    }
+
+    assertNotNull(message, region);
+    assertEquals(message, expected.request.basinRegion.id, region.id);
+    assertEquals(message, expected.request.basinModel, model);
+
+    JsonObject values = BasinUtil.GSON.toJsonTree(expected.response).getAsJsonObject();
+    assertEquals(message, value(values, "z1p0"), site.get(Key.Z1P0.toString()));
+    assertEquals(message, value(values, "z2p5"), site.get(Key.Z2P5.toString()));
+    return site;
+  }
+
+  private static Double value(JsonObject values, String key) {
+    JsonElement value = values.getAsJsonObject(key).get("value");
+    return value == null || value.isJsonNull() ? null : value.getAsDouble();
+  }
+
+}
@@ -0,0 +1,145 @@
+package gov.usgs.earthquake.nshmp.site.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import gov.usgs.earthquake.nshmp.site.www.WarmUp.State;
+
+/**
+ * Test for WarmUp and the readiness reported by ReadinessService.
+ *
+ * @author Brandon Clayton
+ */
+public class WarmUpTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void ready() throws Exception {
+    int requests = 2000;
+    WarmUp warmUp = new WarmUp(true, null, requests, 2);
+    ReadinessService service = new ReadinessService(warmUp);
+
+    assertEquals(State.LOADING, warmUp.state());
+    checkNotReady(service, State.LOADING);
+
+    /* The states in order, each observed with its status */
+    service.init();
+    List<State> states = new ArrayList<>();
+    states.add(State.LOADING);
+    State state = await(warmUp, states);
+
+    assertEquals(State.READY, state);
+    assertTrue(states.toString(), states.contains(State.WARMING_UP));
+    assertEquals(State.READY, states.get(states.size() - 1));
+    for (int i = 1; i < states.size(); i++) {
+      assertTrue(states.toString(), states.get(i).ordinal() == states.get(i - 1).ordinal() + 1);
+    }
+
+    ServletStub.Response response = get(service);
+    assertEquals(HttpServletResponse.SC_OK, response.status);
+    assertNull(response.headers.get("Retry-After"));
+    JsonObject body = new JsonParser().parse(response.body()).getAsJsonObject();
+    assertEquals("ready", body.get("status").getAsString());
+    assertEquals(requests, body.get("warmupRequests").getAsInt());
+    assertEquals(requests, warmUp.completed());
+
+    /* Started once */
+    service.init();
+    assertEquals(requests, warmUp.completed());
+  }
+
+  @Test
+  public void disabled() throws Exception {
+    WarmUp warmUp = new WarmUp(false, null, 2000, 2);
+    warmUp.start();
+
+    assertEquals(State.READY, await(warmUp, new ArrayList<>()));
+    assertEquals(0, warmUp.completed());
+  }
+
+  @Test
+  public void sites() throws Exception {
+    Path sites = folder.newFile("sites.csv").toPath();
+    Files.write(sites, "longitude,latitude\n-118.25,34.05\n-122.3,47.6\n".getBytes());
+
+    WarmUp warmUp = new WarmUp(true, sites.toString(), 100, 1);
+    warmUp.start();
+
+    assertEquals(State.READY, await(warmUp, new ArrayList<>()));
+    assertEquals(100, warmUp.completed());
+  }
+
+  @Test
+  public void failed() throws Exception {
+    Path sites = folder.getRoot().toPath().resolve("missing.csv");
+    WarmUp warmUp = new WarmUp(true, sites.toString(), 100, 1);
+    ReadinessService service = new ReadinessService(warmUp);
+    service.init();
+
+    assertEquals(State.FAILED, await(warmUp, new ArrayList<>()));
+    assertEquals(0, warmUp.completed());
+    checkNotReady(service, State.FAILED);
+  }
+
+  /*
+   * Wait for the warm-up to end, adding each new state observed, and checking
+   * the status of the readiness service in each state.
+   */
+  private static State await(WarmUp warmUp, List<State> states) throws Exception {
+    ReadinessService service = new ReadinessService(warmUp);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    State state;
+
+    do {
+      state = warmUp.state();
+      if (states.isEmpty() || states.get(states.size() - 1) != state) {
+        states.add(state);
+        if (state == State.LOADING || state == State.WARMING_UP) {
+          checkNotReady(service, state);
+        }
+      }
+      assertTrue("Warm-up did not end", System.nanoTime() < deadline);
+      Thread.yield();
+    } while (state == State.LOADING || state == State.WARMING_UP);
+
+    return state;
+  }
+
+  private static void checkNotReady(ReadinessService service, State state) throws Exception {
+    ServletStub.Response response = get(service);
+    JsonObject body = new JsonParser().parse(response.body()).getAsJsonObject();
+
+    /* The state may have changed since it was read */
+    if (!body.get("status").getAsString().equals(state.toString())) return;
+
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.status);
+    assertEquals(
+        Integer.toString(ReadinessService.RETRY_AFTER),
+        response.headers.get("Retry-After"));
+  }
+
+  private static ServletStub.Response get(ReadinessService service) throws Exception {
+    ServletStub.Response response = new ServletStub.Response();
+    service.doGet(new ServletStub.Request("/ready", null).proxy(), response.proxy());
+    return response;
+  }
+
+}
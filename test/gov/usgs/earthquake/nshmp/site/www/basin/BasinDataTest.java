@@ -1,12 +1,28 @@
 package gov.usgs.earthquake.nshmp.site.www.basin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSortedSet;
 
 import gov.usgs.earthquake.nshmp.geo.Location;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData.Storage;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+import gov.usgs.earthquake.nshmp.util.Maths;
 
 /**
  * Test for BasinData.
@@ -17,6 +33,11 @@ public class BasinDataTest {
 
   private static final Basins BASINS = Basins.getBasins();
   private static final BasinData BASIN_DATA = BasinData.readBasinData(BASINS);
+  private static final BasinData QUANTIZED_DATA =
+      BasinData.readBasinData(BASINS, Storage.QUANTIZED);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
 
   @Test
   public void equals() {
@@ -36,4 +57,291 @@ public class BasinDataTest {
     }
   }
 
+  @Test
+  public void quantized() {
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid expectedGrid = BASIN_DATA.getBasinGrid(basin);
+      BasinGrid actualGrid = QUANTIZED_DATA.getBasinGrid(basin);
+
+      assertEquals(expectedGrid.size(), actualGrid.size());
+      assertEquals(expectedGrid.size() * 4L, actualGrid.storageBytes());
+
+      for (int index = 0; index < expectedGrid.size(); index++) {
+        assertEquals(expectedGrid.contains(index), actualGrid.contains(index));
+        assertEquals(expectedGrid.z1p0(index), actualGrid.z1p0(index), 0);
+        assertEquals(expectedGrid.z2p5(index), actualGrid.z2p5(index), 0);
+      }
+    }
+  }
+
+  @Test
+  public void gridIndex() {
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid grid = BASIN_DATA.getBasinGrid(basin);
+
+      for (int index = 0; index < grid.size(); index++) {
+        assertEquals(index, grid.index(grid.latitude(index), grid.longitude(index)));
+      }
+
+      assertEquals(-1, grid.index(0.0, 0.0));
+      assertTrue(!grid.contains(-1));
+    }
+  }
+
+  @Test
+  public void nearestIndex() {
+    double radius = 5.0;
+
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid grid = BASIN_DATA.getBasinGrid(basin);
+
+      for (int index = 0; index < grid.size(); index += 31) {
+        double lat = grid.latitude(index);
+        double lon = grid.longitude(index);
+        int nearest = grid.nearestIndex(lat, lon, radius);
+
+        if (grid.contains(index)) {
+          assertEquals(index, nearest);
+          continue;
+        }
+
+        /* Brute force nearest distance */
+        double expected = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < grid.size(); i++) {
+          if (grid.contains(i)) {
+            expected = Math.min(expected, grid.distance(lat, lon, i));
+          }
+        }
+
+        if (expected > radius) {
+          assertEquals(-1, nearest);
+        } else {
+          assertEquals(expected, grid.distance(lat, lon, nearest), 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void stats() {
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid grid = BASIN_DATA.getBasinGrid(basin);
+      BasinStats stats = BASIN_DATA.getBasinStats(basin);
+
+      List<Double> z2p5 = new ArrayList<>();
+      for (int index = 0; index < grid.size(); index++) {
+        if (grid.contains(index)) {
+          z2p5.add(grid.z2p5(index));
+        }
+      }
+      Collections.sort(z2p5);
+
+      int n = z2p5.size();
+      assertEquals(n, stats.count);
+      assertEquals(z2p5.get(0), stats.z2p5.min, 0);
+      assertEquals(z2p5.get(n - 1), stats.z2p5.max, 0);
+      assertEquals(z2p5.stream().mapToDouble(Double::doubleValue).average().getAsDouble(),
+          stats.z2p5.mean, 1e-9);
+      assertEquals(z2p5.get((int) Math.ceil(0.5 * n) - 1), stats.z2p5.percentiles.get("50"), 0);
+      assertEquals(z2p5.get((int) Math.ceil(0.95 * n) - 1), stats.z2p5.percentiles.get("95"), 0);
+    }
+  }
+
+  @Test
+  public void derivedLayer() {
+    BasinGrid grid = BASIN_DATA.getBasinGrid(Basin.PUGET_LOWLAND);
+    DerivedLayer derivedLayer = DerivedLayer.forBasin(Basin.PUGET_LOWLAND);
+
+    for (int index = 0; index < grid.size(); index++) {
+      double z2p5 = grid.z2p5(index);
+      if (Double.isNaN(z2p5)) continue;
+
+      double expected = derivedLayer.z1p0(Double.NaN, z2p5);
+      assertEquals(Maths.round(expected, DerivedLayer.DERIVED_PRECISION), expected, 0);
+      assertEquals(expected, grid.z1p0(index), 0);
+    }
+
+    assertEquals(DerivedLayer.IDENTITY, DerivedLayer.forBasin(Basin.LOS_ANGELES));
+  }
+
+  @Test
+  public void sourcePrecision() throws IOException {
+    Path versionDir = folder.newFolder("2021").toPath();
+
+    for (BasinRegion region : BASINS) {
+      Path bundled = Paths.get(BasinData.class
+          .getResource("../data/" + region.basin.id + ".csv").getPath());
+      List<String> lines = new ArrayList<>(Files.readAllLines(bundled));
+
+      /* Source values published at 4 decimals are not rounded */
+      String[] values = lines.get(1).split(",");
+      lines.set(1, values[0] + "," + values[1] + ",0.1234,2.3456");
+      Files.write(versionDir.resolve(region.basin.id + ".csv"), lines);
+    }
+
+    BasinData basinData = BasinVersions
+        .create(versionDir.getParent(), null, Storage.DOUBLE, 1, 1)
+        .latest().basinData;
+
+    for (BasinRegion region : BASINS) {
+      Path bundled = Paths.get(BasinData.class
+          .getResource("../data/" + region.basin.id + ".csv").getPath());
+      String[] values = Files.readAllLines(bundled).get(1).split(",");
+      BasinGrid grid = basinData.getBasinGrid(region.basin);
+      int index = grid.index(Double.parseDouble(values[1]), Double.parseDouble(values[0]));
+
+      assertEquals(2.3456, grid.z2p5(index), 0);
+      assertEquals(
+          DerivedLayer.forBasin(region.basin).z1p0(0.1234, 2.3456),
+          grid.z1p0(index),
+          0);
+    }
+  }
+
+  @Test
+  public void profile() {
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid grid = BASIN_DATA.getBasinGrid(basin);
+      int row = grid.rows() / 2;
+      double lat = grid.latitude(row * grid.columns());
+      List<Location> path = new ArrayList<>();
+      path.add(Location.create(lat, grid.longitude(0) - 0.2));
+      path.add(Location.create(lat, grid.longitude(grid.columns() - 1) + 0.2));
+
+      BasinProfile profile = BasinProfile.compute(
+          BASINS, BASIN_DATA, path, 0.5, BasinGrid.Interpolation.NEAREST);
+
+      String basinId = null;
+      int crossings = 0;
+
+      for (BasinProfile.Sample sample : profile.samples) {
+        Basins.BasinRegion region = BASINS.findRegion(sample.latitude, sample.longitude);
+        String expectedId = region == null ? null : region.basin.id;
+        assertEquals(expectedId, sample.basin);
+
+        if (region != null) {
+          BasinGrid regionGrid = BASIN_DATA.getBasinGrid(region.basin);
+          int index = regionGrid.index(sample.latitude, sample.longitude);
+          assertEquals(regionGrid.z2p5(index), toDouble(sample.z2p5), 0);
+        }
+
+        if (sample != profile.samples.get(0) && !Objects.equals(basinId, sample.basin)) {
+          crossings++;
+        }
+        basinId = sample.basin;
+      }
+
+      assertTrue(crossings >= 2);
+      assertEquals(crossings, profile.crossings.size());
+    }
+  }
+
+  @Test
+  public void versions() throws IOException {
+    Path versionsDir = folder.getRoot().toPath();
+
+    for (String version : new String[] { "2019", "2020" }) {
+      Path versionDir = Files.createDirectory(versionsDir.resolve(version));
+
+      for (BasinRegion region : BASINS) {
+        Path bundled = Paths.get(BasinData.class
+            .getResource("../data/" + region.basin.id + ".csv").getPath());
+        List<String> lines = Files.readAllLines(bundled);
+
+        /* Version 2019 has a part of the bay area data */
+        if (version.equals("2019") && region.basin == Basin.BAY_AREA) {
+          lines = lines.subList(0, 1000);
+        }
+
+        Files.write(versionDir.resolve(region.basin.id + ".csv"), lines);
+      }
+    }
+
+    BasinVersions versions = BasinVersions.create(versionsDir, null, Storage.DOUBLE, 1, 1);
+    assertEquals(ImmutableSortedSet.of("2019", "2020", BasinVersions.BUNDLED), versions.versions());
+    assertEquals("2020", versions.latest().id);
+    assertTrue(versions.latest() == versions.get(null));
+    assertTrue(!versions.isLoaded("2019"));
+
+    BasinVersions.Version previous = versions.get("2019");
+    assertTrue(versions.isLoaded("2019"));
+    assertTrue(previous == versions.get("2019"));
+
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid expectedGrid = BASIN_DATA.getBasinGrid(basin);
+      BasinGrid latestGrid = versions.latest().basinData.getBasinGrid(basin);
+      BasinGrid previousGrid = previous.basinData.getBasinGrid(basin);
+
+      for (int index = 0; index < expectedGrid.size(); index++) {
+        assertEquals(expectedGrid.z1p0(index), latestGrid.z1p0(index), 0);
+        assertEquals(expectedGrid.z2p5(index), latestGrid.z2p5(index), 0);
+
+        /* Mapped storage */
+        if (basin == Basin.BAY_AREA) continue;
+        assertEquals(expectedGrid.z1p0(index), previousGrid.z1p0(index), 0);
+        assertEquals(expectedGrid.z2p5(index), previousGrid.z2p5(index), 0);
+      }
+    }
+
+    assertEquals(999, previous.basinData.getBasinData(Basin.BAY_AREA).size());
+
+    /* At most one version other than the latest is loaded */
+    versions.get(BasinVersions.BUNDLED);
+    assertTrue(versions.isLoaded(BasinVersions.BUNDLED));
+    assertTrue(!versions.isLoaded("2019"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void versionNotFound() {
+    BasinVersions.create(null, null, Storage.DOUBLE, 1, 1).get("2019");
+  }
+
+  @Test
+  public void siteLayers() throws IOException {
+    Path dir = folder.getRoot().toPath();
+
+    /* A 30 arc second Vs30 grid with one missing node */
+    List<String> lines = new ArrayList<>();
+    lines.add("lon,lat,vs30");
+    for (int row = 0; row < 10; row++) {
+      for (int col = 0; col < 20; col++) {
+        String vs30 = row == 5 && col == 5 ? "NaN" : Integer.toString(200 + row * 20 + col);
+        lines.add(Maths.round(-118.5 + col / 120.0, 1e-6) + "," + Maths.round(34.0 + row / 120.0, 1e-6) +
+            "," + vs30);
+      }
+    }
+    Files.write(dir.resolve("vs30.csv"), lines);
+
+    SiteLayers siteLayers = SiteLayers.read(dir, Storage.DOUBLE);
+    assertEquals(Collections.singletonList("vs30"), siteLayers.layers());
+
+    Raster raster = siteLayers.rasters().get(0);
+    assertEquals(120, raster.nodesPerDegree());
+    assertEquals(10, raster.rows());
+    assertEquals(20, raster.columns());
+
+    assertEquals(200 + 3 * 20 + 7, siteLayers.values(34.0 + 3 / 120.0, -118.5 + 7 / 120.0)[0], 0);
+    assertEquals(200 + 3 * 20 + 7, siteLayers.values(34.0251, -118.4415)[0], 0);
+    assertTrue(Double.isNaN(siteLayers.values(34.0 + 5 / 120.0, -118.5 + 5 / 120.0)[0]));
+    assertTrue(Double.isNaN(siteLayers.values(33.9, -118.5)[0]));
+  }
+
+  @Test
+  public void basinRaster() {
+    for (Basin basin : BASIN_DATA.getBasinData().keySet()) {
+      BasinGrid grid = BASIN_DATA.getBasinGrid(basin);
+      Raster raster = grid.raster();
+      assertEquals(100, raster.nodesPerDegree());
+
+      for (int index = 0; index < grid.size(); index++) {
+        assertEquals(grid.z1p0(index), raster.value("z1p0", index), 0);
+        assertEquals(grid.z2p5(index), raster.value("z2p5", index), 0);
+      }
+    }
+  }
+
+  private static double toDouble(Double value) {
+    return value == null ? Double.NaN : value;
+  }
+
 }
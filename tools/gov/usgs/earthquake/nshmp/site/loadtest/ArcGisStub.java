@@ -0,0 +1,245 @@
+package gov.usgs.earthquake.nshmp.site.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Splitter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinModel;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Local stand-in for the ArcGIS online basin identify service.
+ *
+ * <p> Identify requests are answered with captured identify responses, see
+ * {@link #replay(Path)}, keyed by the {@code Lat} and {@code Lon} attributes of
+ * each response. Sites without a captured response are answered with a
+ * response synthesized from the local basin data: the values of the default
+ * model of the basin region, in m, and {@code Null} for all other models.
+ *
+ * <p> Each response is delayed by a fixed latency plus an exponentially
+ * distributed jitter and a fraction of requests fail with an HTTP 500.
+ *
+ * @author Brandon Clayton
+ */
+class ArcGisStub {
+
+  /* Path of the identify service, as called by ArcGis */
+  static final String IDENTIFY_PATH = "/arcgis/rest/services/haz/basin/MapServer/identify";
+
+  private static final String NULL = "Null";
+
+  private final Basins basins;
+  private final BasinData basinData;
+  private final Map<Long, String> captured = new ConcurrentHashMap<>();
+
+  private final long latencyNanos;
+  private final long jitterNanos;
+  private final double failureRate;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * Create a new stub.
+   *
+   * @param basins The basin regions
+   * @param basinData The local basin data used to synthesize responses
+   * @param latencyMillis The fixed latency of a response
+   * @param jitterMillis The mean of the exponential jitter added to the latency
+   * @param failureRate The fraction of requests that fail, in [0, 1]
+   */
+  ArcGisStub(
+      Basins basins,
+      BasinData basinData,
+      double latencyMillis,
+      double jitterMillis,
+      double failureRate) {
+    checkArgument(latencyMillis >= 0 && jitterMillis >= 0, "Latency must be non-negative");
+    checkArgument(failureRate >= 0 && failureRate <= 1, "Failure rate must be in [0, 1]");
+    this.basins = basins;
+    this.basinData = basinData;
+    this.latencyNanos = (long) (latencyMillis * 1e6);
+    this.jitterNanos = (long) (jitterMillis * 1e6);
+    this.failureRate = failureRate;
+  }
+
+  /**
+   * Add captured identify responses, one JSON response per line.
+   *
+   * @param path The captured responses
+   * @return the number of responses added
+   */
+  int replay(Path path) throws IOException {
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    int count = 0;
+
+    for (String line : lines) {
+      line = line.trim();
+      if (line.isEmpty()) continue;
+
+      JsonObject attributes = new JsonParser().parse(line).getAsJsonObject()
+          .getAsJsonArray("results")
+          .get(0).getAsJsonObject()
+          .getAsJsonObject("attributes");
+
+      captured.put(
+          key(attributes.get("Lat").getAsDouble(), attributes.get("Lon").getAsDouble()),
+          line);
+      count++;
+    }
+
+    return count;
+  }
+
+  /** Start the stub on an ephemeral port and return its host URL. */
+  String start() throws IOException {
+    executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "arcgis-stub");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+    server.createContext(IDENTIFY_PATH, this::handle);
+    server.setExecutor(executor);
+    server.start();
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  long requests() {
+    return requests.get();
+  }
+
+  long failures() {
+    return failures.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      requests.incrementAndGet();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      long delay = latencyNanos;
+
+      if (jitterNanos > 0) {
+        delay += (long) (-jitterNanos * Math.log(1.0 - random.nextDouble()));
+      }
+
+      if (delay > 0) {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      }
+
+      if (random.nextDouble() < failureRate) {
+        failures.incrementAndGet();
+        exchange.sendResponseHeaders(500, -1);
+        return;
+      }
+
+      double[] geometry = geometry(exchange.getRequestURI().getRawQuery());
+      String body = captured.get(key(geometry[1], geometry[0]));
+
+      if (body == null) {
+        body = synthesize(geometry[1], geometry[0]);
+      }
+
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, bytes.length);
+
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /* The longitude and latitude of the geometry query value */
+  private static double[] geometry(String query) throws IOException {
+    for (String param : Splitter.on('&').split(query)) {
+      if (param.startsWith("geometry=")) {
+        String value = URLDecoder.decode(param.substring(9), "UTF-8");
+        List<String> lonLat = Splitter.on(',').trimResults().splitToList(value);
+        return new double[] {
+            Double.parseDouble(lonLat.get(0)),
+            Double.parseDouble(lonLat.get(1)) };
+      }
+    }
+
+    throw new IllegalArgumentException("Missing geometry: " + query);
+  }
+
+  private String synthesize(double latitude, double longitude) {
+    BasinRegion region = basins.findRegion(latitude, longitude);
+    BasinGrid grid = region == null ? null : basinData.getBasinGrid(region.basin);
+    int index = grid == null ? -1 : grid.index(latitude, longitude);
+
+    JsonObject attributes = new JsonObject();
+    attributes.addProperty("Lat", latitude);
+    attributes.addProperty("Lon", longitude);
+
+    for (BasinModel model : BasinModel.values()) {
+      if (index >= 0 && model == region.defaultModel) {
+        addValue(attributes, model.z1p0, grid.z1p0(index));
+        addValue(attributes, model.z2p5, grid.z2p5(index));
+      } else {
+        attributes.addProperty(model.z1p0, NULL);
+        attributes.addProperty(model.z2p5, NULL);
+      }
+    }
+
+    JsonObject result = new JsonObject();
+    result.add("attributes", attributes);
+    JsonArray results = new JsonArray();
+    results.add(result);
+    JsonObject response = new JsonObject();
+    response.add("results", results);
+    return response.toString();
+  }
+
+  /* Basin values in km as ArcGIS values in m */
+  private static void addValue(JsonObject attributes, String key, double value) {
+    if (Double.isNaN(value)) {
+      attributes.addProperty(key, NULL);
+    } else {
+      attributes.addProperty(key, Math.rint(value * 1000.0));
+    }
+  }
+
+  private static long key(double latitude, double longitude) {
+    return (BasinGrid.gridUnits(latitude) << 32) | (BasinGrid.gridUnits(longitude) & 0xffffffffL);
+  }
+
+}
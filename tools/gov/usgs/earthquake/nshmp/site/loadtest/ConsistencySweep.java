@@ -0,0 +1,538 @@
+package gov.usgs.earthquake.nshmp.site.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.startup.Tomcat;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Sweep of every grid node of each basin region through both the
+ * {@code /basin/local-data} and {@code /basin/arc-data} routes, reporting
+ * where the two disagree.
+ *
+ * <p> The nodes of the basin grid of each region that fall inside the region,
+ * populated or not, are sent as batch requests with {@code format=binary} to
+ * both routes and the z1p0 and z2p5 values of each node are compared. A
+ * batch request of the ArcGIS route is processed a site at a time, so batches
+ * are sent concurrently, at most {@code --concurrency} batch requests in
+ * flight; the service itself limits the calls to the ArcGIS service in flight
+ * with {@code arcgis_max_in_flight}. Requests that fail to connect or are
+ * rejected by the admission filter are retried.
+ *
+ * <p> By default the service is deployed in an embedded Tomcat with the ArcGIS
+ * host pointed at a local {@link ArcGisStub}, answering with captured
+ * identify responses, see {@code --arcgis-replay}, or otherwise with responses
+ * synthesized from the local basin data. A deployed service, and the ArcGIS
+ * service behind it, is swept with {@code --service}.
+ *
+ * <p> Per region, the report lists the nodes compared, the nodes with a
+ * mismatch, the values that are null on one route only, the nodes that are
+ * an error on each route, and the maximum and mean absolute difference of the
+ * values present on both routes. Mismatches are values that differ by more
+ * than {@code --tolerance} or are null on one route only, and a different
+ * basin or basin model of a node. A batch request fails as a whole if any of
+ * its sites is an error, so failed batches are split to find the nodes that
+ * are errors.
+ *
+ * <p> Run with {@code ./gradlew consistencySweep -PsweepArgs="..."}. Options,
+ * with defaults:
+ *
+ * <pre>
+ * --regions=all              basin ids of the regions to sweep, comma separated
+ * --batch-size=200           sites per batch request
+ * --concurrency=16           batch requests in flight
+ * --retries=3                retries of a failed batch request
+ * --tolerance=0.001          km, largest difference that is not a mismatch
+ * --mismatches=FILE          write the mismatched values as CSV
+ * --service=URL              sweep a deployed service, e.g.
+ *                            http://localhost:8080/nshmp-site-ws
+ * --arcgis-latency=20        ms, fixed ArcGIS stub latency
+ * --arcgis-jitter=10         ms, mean exponential ArcGIS stub jitter
+ * --arcgis-replay=FILE       captured identify JSON, one response per line
+ * </pre>
+ *
+ * <p> Service config.properties values may be set with system properties;
+ * ArcGIS prefetch and warm-up are off unless set.
+ *
+ * @author Brandon Clayton
+ */
+public class ConsistencySweep {
+
+  private static final String LOCAL_DATA = "/basin/local-data?format=binary";
+  private static final String ARC_DATA = "/basin/arc-data?format=binary";
+
+  private static final String MEDIA_TYPE = "application/octet-stream";
+
+  /* See BasinBinaryFormat */
+  private static final int HEADER_BYTES = 4;
+  private static final int RECORD_BYTES = 26;
+
+  private static final String[] VALUES = { "z1p0", "z2p5" };
+
+  private final Map<String, String> options;
+  private final int retries;
+  private final double tolerance;
+
+  private PrintWriter mismatches;
+
+  private ConsistencySweep(Map<String, String> options) {
+    this.options = options;
+    this.retries = (int) doubleOption("retries", 3);
+    this.tolerance = doubleOption("tolerance", 0.001);
+  }
+
+  public static void main(String[] args) throws Exception {
+    new ConsistencySweep(LoadTest.parseArgs(args)).run();
+  }
+
+  private void run() throws Exception {
+    int batchSize = (int) doubleOption("batch-size", 200);
+    int concurrency = (int) doubleOption("concurrency", 16);
+    checkArgument(batchSize > 0 && concurrency > 0, "Invalid batch size or concurrency");
+
+    System.setProperty("http.maxConnections", Integer.toString(2 * concurrency));
+
+    Basins basins = Basins.getBasins();
+    BasinData basinData = BasinData.readBasinData(basins);
+    Map<BasinRegion, List<long[]>> nodes = nodes(basins, basinData, regions(basins));
+
+    String service = options.get("service");
+    ArcGisStub stub = null;
+    Tomcat tomcat = null;
+
+    try {
+      if (service == null) {
+        stub = new ArcGisStub(
+            basins,
+            basinData,
+            doubleOption("arcgis-latency", 20),
+            doubleOption("arcgis-jitter", 10),
+            0);
+
+        String replay = options.get("arcgis-replay");
+        if (replay != null) {
+          System.out.printf("Replaying %d captured ArcGIS responses%n",
+              stub.replay(Paths.get(replay)));
+        }
+
+        /* Must be set before the service reads its config */
+        System.setProperty("arcgis_host", stub.start());
+        setDefault("arcgis_prefetch_radius", "0");
+        setDefault("warmup", "false");
+
+        tomcat = LoadTest.startTomcat(Math.max(200, 4 * concurrency));
+        service = "http://localhost:" + tomcat.getConnector().getLocalPort() +
+            LoadTest.CONTEXT_PATH;
+        LoadTest.awaitReady(service);
+      }
+
+      String mismatchFile = options.get("mismatches");
+      if (mismatchFile != null) {
+        mismatches = new PrintWriter(Files.newBufferedWriter(Paths.get(mismatchFile)));
+        mismatches.println("basin,longitude,latitude,value,local,arc");
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+        Thread thread = new Thread(runnable, "consistency-sweep");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      Map<BasinRegion, Stats> stats = new LinkedHashMap<>();
+      List<Future<?>> batches = new ArrayList<>();
+      long start = System.nanoTime();
+      int total = 0;
+
+      for (Map.Entry<BasinRegion, List<long[]>> entry : nodes.entrySet()) {
+        BasinRegion region = entry.getKey();
+        List<long[]> regionNodes = entry.getValue();
+        Stats regionStats = new Stats(region.basin.id);
+        stats.put(region, regionStats);
+        total += regionNodes.size();
+
+        for (int from = 0; from < regionNodes.size(); from += batchSize) {
+          List<long[]> batch = regionNodes.subList(
+              from,
+              Math.min(from + batchSize, regionNodes.size()));
+          String baseUrl = service;
+          batches.add(executor.submit(() -> compare(baseUrl, batch, regionStats)));
+        }
+      }
+
+      System.out.printf("Sweeping %d nodes of %d basin regions in %d batches at %s%n",
+          total, nodes.size(), batches.size(), service);
+
+      for (Future<?> batch : batches) {
+        batch.get();
+      }
+
+      executor.shutdown();
+      report(stats.values(), (System.nanoTime() - start) / 1e9, stub);
+    } finally {
+      if (mismatches != null) {
+        mismatches.close();
+      }
+      if (stub != null) {
+        stub.stop();
+      }
+      if (tomcat != null) {
+        tomcat.stop();
+        tomcat.destroy();
+      }
+    }
+  }
+
+  /* The regions to sweep, all by default */
+  private Set<String> regions(Basins basins) {
+    String regions = options.get("regions");
+    if (regions == null || regions.equals("all")) return null;
+
+    Set<String> ids = ImmutableSet.copyOf(
+        Splitter.on(',').trimResults().omitEmptyStrings().split(regions));
+
+    for (String id : ids) {
+      boolean found = false;
+      for (BasinRegion region : basins) {
+        found |= region.basin.id.equals(id);
+      }
+      checkArgument(found, "Basin region [%s] not found", id);
+    }
+
+    return ids;
+  }
+
+  /*
+   * The grid nodes, in grid units, of each region inside the region, in grid
+   * order.
+   */
+  private static Map<BasinRegion, List<long[]>> nodes(
+      Basins basins,
+      BasinData basinData,
+      Set<String> regions) {
+    Map<BasinRegion, List<long[]>> nodes = new LinkedHashMap<>();
+
+    for (BasinRegion region : basins) {
+      if (regions != null && !regions.contains(region.basin.id)) continue;
+
+      BasinGrid grid = basinData.getBasinGrid(region.basin);
+      List<long[]> regionNodes = new ArrayList<>();
+
+      for (int index = 0; index < grid.size(); index++) {
+        long latUnits = BasinGrid.gridUnits(grid.latitude(index));
+        long lonUnits = BasinGrid.gridUnits(grid.longitude(index));
+        if (region.contains(latUnits, lonUnits)) {
+          regionNodes.add(new long[] { latUnits, lonUnits });
+        }
+      }
+
+      nodes.put(region, regionNodes);
+    }
+
+    return nodes;
+  }
+
+  /*
+   * Compare the results of a batch of nodes of both routes. A batch request
+   * fails as a whole if any of its sites fails, so a failed batch is split
+   * until the failed nodes are found.
+   */
+  private void compare(String baseUrl, List<long[]> batch, Stats stats) {
+    byte[] body = body(batch);
+    ByteBuffer local = post(baseUrl + LOCAL_DATA, body, batch);
+    ByteBuffer arc = post(baseUrl + ARC_DATA, body, batch);
+
+    if (local != null && arc != null) {
+      for (int i = 0; i < batch.size(); i++) {
+        stats.compare(batch.get(i), local, arc, HEADER_BYTES + i * RECORD_BYTES);
+      }
+    } else if (batch.size() == 1) {
+      stats.error(batch.get(0), local == null, arc == null);
+    } else {
+      int half = batch.size() / 2;
+      compare(baseUrl, batch.subList(0, half), stats);
+      compare(baseUrl, batch.subList(half, batch.size()), stats);
+    }
+  }
+
+  /* The request body of a batch, one longitude,latitude line per node */
+  private static byte[] body(List<long[]> batch) {
+    StringBuilder body = new StringBuilder();
+    for (long[] node : batch) {
+      body.append(toDegrees(node[1])).append(',').append(toDegrees(node[0])).append('\n');
+    }
+    return body.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /*
+   * Returns the binary response of a batch request, or null for a service
+   * error response or if all attempts failed. Requests that fail to connect or
+   * are rejected are retried.
+   */
+  private ByteBuffer post(String url, byte[] body, List<long[]> batch) {
+    for (int attempt = 0; attempt <= retries; attempt++) {
+      HttpURLConnection connection = null;
+
+      try {
+        connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(300000);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/csv");
+
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        String contentType = connection.getContentType();
+
+        if (status == HttpURLConnection.HTTP_OK &&
+            contentType != null && contentType.startsWith(MEDIA_TYPE)) {
+          ByteBuffer buffer = ByteBuffer
+              .wrap(read(connection.getInputStream()))
+              .order(ByteOrder.LITTLE_ENDIAN);
+          checkResponse(buffer, batch);
+          return buffer;
+        }
+
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+          read(in);
+        }
+
+        /* Service error responses are JSON */
+        if (status == HttpURLConnection.HTTP_OK) return null;
+
+        if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+          int retryAfter = connection.getHeaderFieldInt("Retry-After", 1);
+          TimeUnit.SECONDS.sleep(Math.max(1, retryAfter));
+        }
+      } catch (IOException e) {
+        if (connection != null) {
+          connection.disconnect();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+
+    return null;
+  }
+
+  /* Check a response has a record of each node of the batch, in order */
+  private static void checkResponse(ByteBuffer buffer, List<long[]> batch) {
+    checkState(buffer.limit() == HEADER_BYTES + RECORD_BYTES * batch.size() &&
+        buffer.getInt(0) == batch.size(), "Expected %s records", batch.size());
+
+    for (int i = 0; i < batch.size(); i++) {
+      int record = HEADER_BYTES + i * RECORD_BYTES;
+      checkState(
+          buffer.getInt(record) == batch.get(i)[0] && buffer.getInt(record + 4) == batch.get(i)[1],
+          "Unexpected record location");
+    }
+  }
+
+  private static String toDegrees(long units) {
+    return Double.toString(units / 100.0);
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  private synchronized void writeMismatch(
+      String basin,
+      long[] node,
+      String value,
+      String local,
+      String arc) {
+    if (mismatches != null) {
+      mismatches.printf("%s,%s,%s,%s,%s,%s%n",
+          basin, toDegrees(node[1]), toDegrees(node[0]), value, local, arc);
+    }
+  }
+
+  /* A value of the mismatches CSV, empty if null */
+  private static String toValue(double value) {
+    return Double.isNaN(value) ? "" : Double.toString(value);
+  }
+
+  private void report(Iterable<Stats> stats, double seconds, ArcGisStub stub) {
+    System.out.println();
+    System.out.printf("%-20s %8s %8s %10s %10s %8s %9s %9s %10s %10s %10s %10s%n",
+        "basin", "nodes", "compared", "mismatches", "null-local", "null-arc", "err-local",
+        "err-arc",
+        "z1p0 max", "z1p0 mean", "z2p5 max", "z2p5 mean");
+
+    Stats all = new Stats("all");
+    List<Stats> rows = new ArrayList<>();
+
+    for (Stats regionStats : stats) {
+      rows.add(regionStats);
+      regionStats.copyTo(all);
+    }
+
+    rows.add(all);
+
+    for (Stats row : rows) {
+      System.out.printf("%-20s %8d %8d %10d %10d %8d %9d %9d %10.6f %10.6f %10.6f %10.6f%n",
+          row.basin,
+          row.nodes,
+          row.compared,
+          row.mismatches,
+          row.nullLocal,
+          row.nullArc,
+          row.errorLocal,
+          row.errorArc,
+          row.max[0],
+          row.mean(0),
+          row.max[1],
+          row.mean(1));
+    }
+
+    System.out.printf("%nSwept %d nodes in %.1f s, %.0f nodes/s%n",
+        all.nodes, seconds, all.nodes / seconds);
+
+    if (stub != null) {
+      System.out.printf("ArcGIS stub: %d requests%n", stub.requests());
+    }
+  }
+
+  private double doubleOption(String key, double defaultValue) {
+    String value = options.get(key);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  private static void setDefault(String key, String value) {
+    if (System.getProperty(key) == null) {
+      System.setProperty(key, value);
+    }
+  }
+
+  /* Comparison of the nodes of a basin region */
+  private final class Stats {
+    final String basin;
+
+    long nodes;
+    long compared;
+    long mismatches;
+    long nullLocal;
+    long nullArc;
+    long errorLocal;
+    long errorArc;
+
+    /* Of z1p0 and z2p5 present on both routes, in km */
+    final long[] count = new long[2];
+    final double[] sum = new double[2];
+    final double[] max = new double[2];
+
+    Stats(String basin) {
+      this.basin = basin;
+    }
+
+    synchronized void error(long[] node, boolean localError, boolean arcError) {
+      nodes++;
+      errorLocal += localError ? 1 : 0;
+      errorArc += arcError ? 1 : 0;
+      writeMismatch(basin, node, "error", localError ? "error" : "", arcError ? "error" : "");
+    }
+
+    synchronized void compare(long[] node, ByteBuffer local, ByteBuffer arc, int record) {
+      nodes++;
+      compared++;
+
+      /* Basin and basin model ordinals */
+      boolean mismatch = local.getShort(record + 8) != arc.getShort(record + 8);
+
+      for (int i = 0; i < VALUES.length; i++) {
+        double localValue = local.getDouble(record + 10 + 8 * i);
+        double arcValue = arc.getDouble(record + 10 + 8 * i);
+        boolean localNull = Double.isNaN(localValue);
+        boolean arcNull = Double.isNaN(arcValue);
+
+        if (localNull && arcNull) continue;
+
+        if (localNull || arcNull) {
+          nullLocal += localNull ? 1 : 0;
+          nullArc += arcNull ? 1 : 0;
+          mismatch = true;
+          writeMismatch(basin, node, VALUES[i], toValue(localValue), toValue(arcValue));
+          continue;
+        }
+
+        double difference = Math.abs(localValue - arcValue);
+        count[i]++;
+        sum[i] += difference;
+        max[i] = Math.max(max[i], difference);
+
+        if (difference > tolerance) {
+          mismatch = true;
+          writeMismatch(basin, node, VALUES[i], toValue(localValue), toValue(arcValue));
+        }
+      }
+
+      mismatches += mismatch ? 1 : 0;
+    }
+
+    double mean(int i) {
+      return count[i] == 0 ? 0.0 : sum[i] / count[i];
+    }
+
+    void copyTo(Stats all) {
+      all.nodes += nodes;
+      all.compared += compared;
+      all.mismatches += mismatches;
+      all.nullLocal += nullLocal;
+      all.nullArc += nullArc;
+      all.errorLocal += errorLocal;
+      all.errorArc += errorArc;
+
+      for (int i = 0; i < VALUES.length; i++) {
+        all.count[i] += count[i];
+        all.sum[i] += sum[i];
+        all.max[i] = Math.max(all.max[i], max[i]);
+      }
+    }
+  }
+
+}
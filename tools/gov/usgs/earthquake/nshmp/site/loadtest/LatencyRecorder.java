@@ -0,0 +1,101 @@
+package gov.usgs.earthquake.nshmp.site.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe recorder of request latencies and errors of a single route.
+ *
+ * <p> All latencies are kept so that percentiles are exact; a load test of a
+ * few minutes at a few thousand requests per second needs a few MB.
+ *
+ * @author Brandon Clayton
+ */
+class LatencyRecorder {
+
+  final String route;
+
+  private long[] latencies = new long[1024];
+  private int count;
+  private int errors;
+  private int rejected;
+
+  LatencyRecorder(String route) {
+    this.route = route;
+  }
+
+  /**
+   * Record a completed request. A 503 is counted as a rejected request and
+   * any other status but 200 as an error.
+   *
+   * @param nanos The latency, measured from the intended start of the request
+   * @param status The HTTP status of the request, -1 if it failed
+   */
+  synchronized void record(long nanos, int status) {
+    if (count == latencies.length) {
+      latencies = Arrays.copyOf(latencies, 2 * count);
+    }
+
+    latencies[count++] = nanos;
+
+    if (status == 503) {
+      rejected++;
+    } else if (status != 200) {
+      errors++;
+    }
+  }
+
+  /**
+   * Record all requests of this recorder in another recorder.
+   *
+   * @param that The recorder to copy to
+   */
+  synchronized void copyTo(LatencyRecorder that) {
+    for (int i = 0; i < count; i++) {
+      that.record(latencies[i], 200);
+    }
+    synchronized (that) {
+      that.errors += errors;
+      that.rejected += rejected;
+    }
+  }
+
+  /** Returns an immutable summary of the recorded requests. */
+  synchronized Summary summary(double seconds) {
+    long[] sorted = Arrays.copyOf(latencies, count);
+    Arrays.sort(sorted);
+    return new Summary(route, sorted, errors, rejected, seconds);
+  }
+
+  /** Summary of the recorded requests of a route. */
+  static final class Summary {
+    final String route;
+    final int count;
+    final int errors;
+    final int rejected;
+    final double throughput;
+    final double p50;
+    final double p99;
+    final double p999;
+    final double max;
+
+    private Summary(String route, long[] sorted, int errors, int rejected, double seconds) {
+      this.route = route;
+      this.count = sorted.length;
+      this.errors = errors;
+      this.rejected = rejected;
+      this.throughput = count / seconds;
+      this.p50 = millis(sorted, 0.5);
+      this.p99 = millis(sorted, 0.99);
+      this.p999 = millis(sorted, 0.999);
+      this.max = count == 0 ? Double.NaN : sorted[count - 1] / 1e6;
+    }
+
+    /* Nearest rank percentile in ms */
+    private static double millis(long[] sorted, double q) {
+      if (sorted.length == 0) return Double.NaN;
+      int rank = (int) Math.ceil(q * sorted.length);
+      return sorted[Math.max(rank, 1) - 1] / 1e6;
+    }
+  }
+
+}
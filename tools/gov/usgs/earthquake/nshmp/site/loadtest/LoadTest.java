@@ -0,0 +1,377 @@
+package gov.usgs.earthquake.nshmp.site.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import com.google.common.base.Splitter;
+
+import gov.usgs.earthquake.nshmp.site.loadtest.LatencyRecorder.Summary;
+import gov.usgs.earthquake.nshmp.site.loadtest.Traffic.Request;
+import gov.usgs.earthquake.nshmp.site.loadtest.Traffic.Route;
+import gov.usgs.earthquake.nshmp.site.loadtest.Traffic.Sites;
+import gov.usgs.earthquake.nshmp.site.www.AdmissionFilter;
+import gov.usgs.earthquake.nshmp.site.www.BasinTermService;
+import gov.usgs.earthquake.nshmp.site.www.ReadinessService;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+
+/**
+ * In-process load test of the basin term service.
+ *
+ * <p> The service, and its {@link AdmissionFilter}, is deployed in an
+ * embedded Tomcat with the ArcGIS host pointed at a local {@link ArcGisStub},
+ * so the load test runs offline and is reproducible. Requests are sent open loop: arrivals follow a Poisson, or
+ * constant rate, schedule that does not wait on responses and latency is
+ * measured from the scheduled start of a request, so queueing delay in the
+ * client is counted rather than hidden.
+ *
+ * <p> Run with {@code ./gradlew loadTest -PloadTestArgs="--rate=500 ..."}.
+ * Options, with defaults:
+ *
+ * <pre>
+ * --rate=200                 requests per second
+ * --duration=30              seconds, including warm up
+ * --warmup=5                 seconds excluded from the report
+ * --arrivals=poisson         poisson or constant
+ * --concurrency=256          maximum client requests in flight
+ * --routes=local-data=0.8,arc-data=0.2
+ *                            local-data, arc-data, local-data-batch, and
+ *                            arc-data-batch with relative weights
+ * --sites=nodes              uniform, nodes, sweep, or hotspot:N, see Traffic.Sites
+ * --batch-size=100           sites per batch request
+ * --access-log=FILE          replay basin GET requests instead of routes
+ * --arcgis-latency=20        ms, fixed ArcGIS stub latency
+ * --arcgis-jitter=10         ms, mean exponential ArcGIS stub jitter
+ * --arcgis-failure-rate=0    fraction of failed ArcGIS stub requests
+ * --arcgis-replay=FILE       captured identify JSON, one response per line
+ * --tomcat-threads=200       Tomcat request threads
+ * --seed=1                   random seed of the hotspot sites
+ * </pre>
+ *
+ * <p> Service config.properties values may be set with system properties,
+ * e.g. {@code -Dbasin_data_storage=quantized}.
+ *
+ * @author Brandon Clayton
+ */
+public class LoadTest {
+
+  static final String CONTEXT_PATH = "/nshmp-site-ws";
+
+  private static final String ERROR_STATUS = "\"status\": \"error\"";
+
+  private final Map<String, String> options;
+  private final Map<String, LatencyRecorder> recorders = new ConcurrentHashMap<>();
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    new LoadTest(parseArgs(args)).run();
+  }
+
+  private void run() throws Exception {
+    double rate = doubleOption("rate", 200);
+    double duration = doubleOption("duration", 30);
+    double warmup = doubleOption("warmup", 5);
+    int concurrency = (int) doubleOption("concurrency", 256);
+    boolean poisson = option("arrivals", "poisson").equals("poisson");
+    checkArgument(rate > 0 && duration > warmup && warmup >= 0, "Invalid rate or duration");
+
+    /* Client and ArcGIS connections are kept alive up to the concurrency */
+    System.setProperty("http.maxConnections", Integer.toString(concurrency));
+
+    Basins basins = Basins.getBasins();
+    BasinData basinData = BasinData.readBasinData(basins);
+
+    ArcGisStub stub = new ArcGisStub(
+        basins,
+        basinData,
+        doubleOption("arcgis-latency", 20),
+        doubleOption("arcgis-jitter", 10),
+        doubleOption("arcgis-failure-rate", 0));
+
+    String replay = options.get("arcgis-replay");
+    if (replay != null) {
+      System.out.printf("Replaying %d captured ArcGIS responses%n", stub.replay(Paths.get(replay)));
+    }
+
+    /* Must be set before the service reads its config */
+    System.setProperty("arcgis_host", stub.start());
+    Tomcat tomcat = null;
+
+    try {
+      Traffic traffic = traffic(basins, basinData);
+      tomcat = startTomcat((int) doubleOption("tomcat-threads", 200));
+      String baseUrl = "http://localhost:" + tomcat.getConnector().getLocalPort() + CONTEXT_PATH;
+
+      /* Initialize and warm up the service before the clock starts */
+      send(baseUrl, new Request("usage", "/basin", null));
+      awaitReady(baseUrl);
+
+      ExecutorService clients = Executors.newFixedThreadPool(concurrency, runnable -> {
+        Thread thread = new Thread(runnable, "load-test-client");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      long start = System.nanoTime();
+      long warmupEnd = start + (long) (warmup * 1e9);
+      long end = start + (long) (duration * 1e9);
+      double meanInterval = 1e9 / rate;
+      double next = start;
+      Random random = new Random();
+
+      System.out.printf("Sending %.0f requests/s for %.0f s to %s%n", rate, duration, baseUrl);
+
+      while (true) {
+        next += poisson ? -meanInterval * Math.log(1.0 - random.nextDouble()) : meanInterval;
+        long intended = (long) next;
+        if (intended >= end) break;
+
+        long wait = intended - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+
+        Request request = traffic.next(random);
+        boolean recorded = intended >= warmupEnd;
+
+        clients.execute(() -> {
+          int status = send(baseUrl, request);
+          if (recorded) {
+            recorder(request.route).record(System.nanoTime() - intended, status);
+          }
+        });
+      }
+
+      clients.shutdown();
+      if (!clients.awaitTermination(60, TimeUnit.SECONDS)) {
+        System.out.println("Requests still in flight after 60 s are not reported");
+      }
+
+      report(duration - warmup, stub);
+    } finally {
+      stub.stop();
+      if (tomcat != null) {
+        tomcat.stop();
+        tomcat.destroy();
+      }
+    }
+  }
+
+  private Traffic traffic(Basins basins, BasinData basinData) throws IOException {
+    String accessLog = options.get("access-log");
+
+    if (accessLog != null) {
+      return Traffic.replay(Paths.get(accessLog));
+    }
+
+    Map<Route, Double> routes = new LinkedHashMap<>();
+    String routeOption = option("routes", "local-data=0.8,arc-data=0.2");
+
+    for (String route : Splitter.on(',').trimResults().omitEmptyStrings().split(routeOption)) {
+      List<String> parts = Splitter.on('=').splitToList(route);
+      routes.put(
+          Route.fromId(parts.get(0)),
+          parts.size() > 1 ? Double.parseDouble(parts.get(1)) : 1.0);
+    }
+
+    Sites sites = Sites.fromId(
+        option("sites", "nodes"),
+        basins,
+        basinData,
+        (long) doubleOption("seed", 1));
+
+    return Traffic.generated(routes, sites, (int) doubleOption("batch-size", 100));
+  }
+
+  static Tomcat startTomcat(int threads) throws IOException, LifecycleException {
+    Path baseDir = Files.createTempDirectory("nshmp-site-ws-load-test");
+    baseDir.toFile().deleteOnExit();
+
+    Tomcat tomcat = new Tomcat();
+    tomcat.setBaseDir(baseDir.toString());
+    tomcat.setPort(0);
+    tomcat.getConnector().setProperty("maxThreads", Integer.toString(threads));
+    tomcat.getConnector().setProperty("acceptCount", "1024");
+
+    Context context = tomcat.addContext(CONTEXT_PATH, baseDir.toString());
+    Tomcat.addServlet(context, "basin", new BasinTermService());
+    context.addServletMapping("/basin", "basin");
+    context.addServletMapping("/basin/*", "basin");
+    Tomcat.addServlet(context, "ready", new ReadinessService()).setLoadOnStartup(1);
+    context.addServletMapping("/ready", "ready");
+
+    FilterDef admissionFilter = new FilterDef();
+    admissionFilter.setFilterName("admission");
+    admissionFilter.setFilter(new AdmissionFilter());
+    context.addFilterDef(admissionFilter);
+
+    FilterMap admissionMap = new FilterMap();
+    admissionMap.setFilterName("admission");
+    admissionMap.addURLPattern("/basin");
+    admissionMap.addURLPattern("/basin/*");
+    context.addFilterMap(admissionMap);
+
+    tomcat.start();
+
+    if (!context.getState().isAvailable()) {
+      tomcat.stop();
+      tomcat.destroy();
+      throw new IllegalStateException("Basin service failed to start, see log");
+    }
+
+    return tomcat;
+  }
+
+  /* Wait until /ready reports the service is warmed up */
+  static void awaitReady(String baseUrl) throws InterruptedException {
+    long start = System.nanoTime();
+    Request ready = new Request("ready", "/ready", null);
+
+    while (send(baseUrl, ready) != HttpURLConnection.HTTP_OK) {
+      if (System.nanoTime() - start > TimeUnit.MINUTES.toNanos(5)) {
+        throw new IllegalStateException("Service not ready after 5 minutes");
+      }
+      Thread.sleep(100);
+    }
+
+    System.out.printf("Service ready after %.1f s%n", (System.nanoTime() - start) / 1e9);
+  }
+
+  /*
+   * Returns the HTTP status of a request; 500 for a service error response
+   * and -1 if the request failed.
+   */
+  private static int send(String baseUrl, Request request) {
+    HttpURLConnection connection = null;
+
+    try {
+      connection = (HttpURLConnection) new URL(baseUrl + request.uri).openConnection();
+      connection.setConnectTimeout(10000);
+      connection.setReadTimeout(60000);
+
+      if (request.body != null) {
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/csv");
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(request.body.getBytes(StandardCharsets.UTF_8));
+        }
+      }
+
+      int status = connection.getResponseCode();
+      InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+      String body = in == null ? "" : read(in);
+
+      return status == 200 && body.contains(ERROR_STATUS) ? 500 : status;
+    } catch (IOException e) {
+      if (connection != null) {
+        connection.disconnect();
+      }
+      return -1;
+    }
+  }
+
+  private static String read(InputStream in) throws IOException {
+    try (InputStream stream = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private LatencyRecorder recorder(String route) {
+    return recorders.computeIfAbsent(route, LatencyRecorder::new);
+  }
+
+  private void report(double seconds, ArcGisStub stub) {
+    LatencyRecorder all = new LatencyRecorder("all");
+    List<Summary> summaries = new ArrayList<>();
+
+    for (String route : new TreeSet<>(recorders.keySet())) {
+      LatencyRecorder recorder = recorders.get(route);
+      summaries.add(recorder.summary(seconds));
+      recorder.copyTo(all);
+    }
+
+    summaries.add(all.summary(seconds));
+
+    System.out.println();
+    System.out.printf("%-20s %9s %7s %8s %10s %10s %10s %10s %10s%n",
+        "route", "requests", "errors", "rejected", "req/s", "p50 ms", "p99 ms", "p999 ms",
+        "max ms");
+
+    for (Summary summary : summaries) {
+      System.out.printf("%-20s %9d %7d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+          summary.route,
+          summary.count,
+          summary.errors,
+          summary.rejected,
+          summary.throughput,
+          summary.p50,
+          summary.p99,
+          summary.p999,
+          summary.max);
+    }
+
+    System.out.printf("%nArcGIS stub: %d requests, %d injected failures%n",
+        stub.requests(), stub.failures());
+  }
+
+  private String option(String key, String defaultValue) {
+    String value = options.get(key);
+    return value == null ? defaultValue : value;
+  }
+
+  private double doubleOption(String key, double defaultValue) {
+    String value = options.get(key);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  /* Arguments of the form --key=value */
+  static Map<String, String> parseArgs(String[] args) {
+    Map<String, String> options = new LinkedHashMap<>();
+
+    for (String arg : args) {
+      checkArgument(arg.startsWith("--") && arg.contains("="), "Expected --key=value: %s", arg);
+      int split = arg.indexOf('=');
+      options.put(arg.substring(2, split), arg.substring(split + 1));
+    }
+
+    return options;
+  }
+
+}
@@ -0,0 +1,297 @@
+package gov.usgs.earthquake.nshmp.site.loadtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Splitter;
+
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinData;
+import gov.usgs.earthquake.nshmp.site.www.basin.BasinGrid;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins;
+import gov.usgs.earthquake.nshmp.site.www.basin.Basins.BasinRegion;
+
+/**
+ * Source of load test requests, either generated from a site distribution and
+ * route mix or replayed from an access log.
+ *
+ * @author Brandon Clayton
+ */
+abstract class Traffic {
+
+  /* Request line of a common or combined log format access log entry */
+  private static final Pattern REQUEST_LINE =
+      Pattern.compile("\"(GET) (\\S+) HTTP/[0-9.]+\"");
+
+  private static final String BASIN_PATH = "/basin";
+
+  /**
+   * Returns the next request.
+   *
+   * @param random The random number generator of the calling thread
+   */
+  abstract Request next(Random random);
+
+  /**
+   * Generated traffic.
+   *
+   * @param routes The routes and their relative weights
+   * @param sites The site distribution
+   * @param batchSize The number of sites of a batch request
+   */
+  static Traffic generated(Map<Route, Double> routes, Sites sites, int batchSize) {
+    checkArgument(!routes.isEmpty(), "No routes");
+    checkArgument(batchSize > 0, "Batch size must be positive");
+
+    Route[] routeArray = routes.keySet().toArray(new Route[0]);
+    double[] cumulative = new double[routeArray.length];
+    double total = 0;
+
+    for (int i = 0; i < routeArray.length; i++) {
+      double weight = routes.get(routeArray[i]);
+      checkArgument(weight >= 0, "Route weight must be non-negative");
+      total += weight;
+      cumulative[i] = total;
+    }
+
+    final double sum = total;
+    checkArgument(sum > 0, "Route weights must not all be zero");
+
+    return new Traffic() {
+      @Override
+      Request next(Random random) {
+        double r = random.nextDouble() * sum;
+        Route route = routeArray[routeArray.length - 1];
+
+        for (int i = 0; i < cumulative.length; i++) {
+          if (r < cumulative[i]) {
+            route = routeArray[i];
+            break;
+          }
+        }
+
+        if (route.batch) {
+          StringBuilder body = new StringBuilder();
+          for (int i = 0; i < batchSize; i++) {
+            double[] site = sites.next(random);
+            body.append(site[1]).append(',').append(site[0]).append('\n');
+          }
+          return new Request(route.id, BASIN_PATH + route.path, body.toString());
+        }
+
+        double[] site = sites.next(random);
+        String uri = BASIN_PATH + route.path + "?latitude=" + site[0] + "&longitude=" + site[1];
+        return new Request(route.id, uri, null);
+      }
+    };
+  }
+
+  /**
+   * Traffic replayed, in order and repeatedly, from the GET requests of the
+   * basin service in a common or combined log format access log.
+   *
+   * @param accessLog The access log
+   */
+  static Traffic replay(Path accessLog) throws IOException {
+    List<Request> requests = new ArrayList<>();
+
+    for (String line : Files.readAllLines(accessLog, StandardCharsets.UTF_8)) {
+      Matcher matcher = REQUEST_LINE.matcher(line);
+      if (!matcher.find()) continue;
+
+      String uri = matcher.group(2);
+      int start = uri.indexOf(BASIN_PATH);
+      if (start < 0) continue;
+
+      uri = uri.substring(start);
+      String path = uri.split("\\?", 2)[0].substring(BASIN_PATH.length());
+      String route = path.isEmpty() || path.equals("/") ? "usage" : path.substring(1);
+      requests.add(new Request(route, uri, null));
+    }
+
+    checkArgument(!requests.isEmpty(), "No basin service requests in [%s]", accessLog);
+    AtomicLong position = new AtomicLong();
+
+    return new Traffic() {
+      @Override
+      Request next(Random random) {
+        return requests.get((int) (position.getAndIncrement() % requests.size()));
+      }
+    };
+  }
+
+  /** Generated request routes. */
+  enum Route {
+    LOCAL_DATA("local-data", "/local-data", false),
+    ARC_DATA("arc-data", "/arc-data", false),
+    LOCAL_DATA_BATCH("local-data-batch", "/local-data", true),
+    ARC_DATA_BATCH("arc-data-batch", "/arc-data", true);
+
+    final String id;
+    final String path;
+    final boolean batch;
+
+    private Route(String id, String path, boolean batch) {
+      this.id = id;
+      this.path = path;
+      this.batch = batch;
+    }
+
+    static Route fromId(String id) {
+      for (Route route : values()) {
+        if (route.id.equals(id)) return route;
+      }
+
+      throw new IllegalArgumentException("Route [" + id + "] does not exist");
+    }
+  }
+
+  /** A single request; a POST if there is a body. */
+  static final class Request {
+    final String route;
+    final String uri;
+    final String body;
+
+    Request(String route, String uri, String body) {
+      this.route = route;
+      this.uri = uri;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Site distributions:
+   *
+   * <ul><li>{@code uniform}: uniform over the bounding box of the data of a
+   * randomly chosen basin, including sites outside of the basin region</li>
+   *
+   * <li>{@code nodes}: uniform over the populated nodes of the basin data</li>
+   *
+   * <li>{@code sweep}: the populated nodes of the basin data in grid order, as
+   * requested by a grid sweep</li>
+   *
+   * <li>{@code hotspot:N}: a Zipf distribution, with exponent 1, over {@code N}
+   * populated nodes</li></ul>
+   */
+  abstract static class Sites {
+
+    /** Returns the next {@code [latitude, longitude]} of a site. */
+    abstract double[] next(Random random);
+
+    static Sites fromId(String id, Basins basins, BasinData basinData, long seed) {
+      List<String> parts = Splitter.on(':').splitToList(id);
+
+      switch (parts.get(0)) {
+        case "uniform":
+          return uniform(basins, basinData);
+        case "nodes":
+          return nodes(nodes(basins, basinData));
+        case "sweep":
+          return sweep(nodes(basins, basinData));
+        case "hotspot":
+          checkArgument(parts.size() == 2, "Expected hotspot:N");
+          return hotspot(nodes(basins, basinData), Integer.parseInt(parts.get(1)), seed);
+        default:
+          throw new IllegalArgumentException("Sites [" + id + "] not supported");
+      }
+    }
+
+    private static Sites uniform(Basins basins, BasinData basinData) {
+      final List<BasinGrid> grids = new ArrayList<>();
+
+      for (BasinRegion region : basins) {
+        grids.add(basinData.getBasinGrid(region.basin));
+      }
+
+      return new Sites() {
+        @Override
+        double[] next(Random random) {
+          BasinGrid grid = grids.get(random.nextInt(grids.size()));
+          int last = grid.size() - 1;
+          double latMin = grid.latitude(0);
+          double lonMin = grid.longitude(0);
+          return new double[] {
+              round(latMin + random.nextDouble() * (grid.latitude(last) - latMin)),
+              round(lonMin + random.nextDouble() * (grid.longitude(last) - lonMin)) };
+        }
+      };
+    }
+
+    private static Sites nodes(final double[][] nodes) {
+      return new Sites() {
+        @Override
+        double[] next(Random random) {
+          return nodes[random.nextInt(nodes.length)];
+        }
+      };
+    }
+
+    private static Sites sweep(final double[][] nodes) {
+      final AtomicLong position = new AtomicLong();
+
+      return new Sites() {
+        @Override
+        double[] next(Random random) {
+          return nodes[(int) (position.getAndIncrement() % nodes.length)];
+        }
+      };
+    }
+
+    private static Sites hotspot(double[][] nodes, int n, long seed) {
+      checkArgument(n > 0 && n <= nodes.length, "Hotspot size must be in [1, %s]", nodes.length);
+
+      /* A fixed random subset of nodes, ranked by popularity */
+      Random seeded = new Random(seed);
+      final double[][] hot = new double[n][];
+      final double[] cumulative = new double[n];
+      double total = 0;
+
+      for (int i = 0; i < n; i++) {
+        hot[i] = nodes[seeded.nextInt(nodes.length)];
+        total += 1.0 / (i + 1);
+        cumulative[i] = total;
+      }
+
+      final double sum = total;
+
+      return new Sites() {
+        @Override
+        double[] next(Random random) {
+          int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+          return hot[index < 0 ? Math.min(-index - 1, hot.length - 1) : index];
+        }
+      };
+    }
+
+    private static double[][] nodes(Basins basins, BasinData basinData) {
+      List<double[]> nodes = new ArrayList<>();
+
+      for (BasinRegion region : basins) {
+        BasinGrid grid = basinData.getBasinGrid(region.basin);
+        for (int index = 0; index < grid.size(); index++) {
+          if (grid.contains(index)) {
+            nodes.add(new double[] { grid.latitude(index), grid.longitude(index) });
+          }
+        }
+      }
+
+      return nodes.toArray(new double[0][]);
+    }
+
+    private static double round(double value) {
+      return Math.round(value * 1000.0) / 1000.0;
+    }
+  }
+
+}